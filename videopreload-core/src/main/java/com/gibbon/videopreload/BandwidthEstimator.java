@@ -0,0 +1,126 @@
+package com.gibbon.videopreload;
+
+import java.util.Arrays;
+
+/**
+ * 根据每次下载的字节数/耗时/首字节时间估算带宽：
+ * 1. 吞吐量和首字节时间（TTFB）各自做指数加权平均（EWMA），按样本字节数加权，大样本影响更大；
+ * 2. 最近{@link #WINDOW_SIZE}个样本保存在环形数组中，用于计算分位数。
+ *
+ * 纯Java实现，不依赖Android，线程安全，记录样本时不产生临时对象
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-10
+ */
+public class BandwidthEstimator {
+
+    public static final int WINDOW_SIZE = 32;
+
+    /**
+     * 数据量太小的样本主要是建连耗时，不参与吞吐量估算
+     * */
+    public static final long MIN_SAMPLE_BYTES = 16 * 1024;
+
+    /**
+     * 一个MIN_SAMPLE_BYTES样本的EWMA权重
+     * */
+    private static final double ALPHA = 0.3;
+
+    /**
+     * 带宽至少是播放码率的1.2倍才预加载，否则会和正在播放的视频抢带宽
+     * */
+    private static final double SAFETY_FACTOR = 1.2;
+
+    private final long[] mThroughputWindow = new long[WINDOW_SIZE];
+    private final long[] mTtfbWindow = new long[WINDOW_SIZE];
+    private final long[] mScratch = new long[WINDOW_SIZE];
+    private int mThroughputCount;
+    private int mThroughputNext;
+    private int mTtfbCount;
+    private int mTtfbNext;
+
+    private double mThroughputEwma = -1;
+    private double mTtfbEwma = -1;
+
+    /**
+     * @param bytes 本次下载的字节数
+     * @param costMillis 从发起请求到下载结束的耗时
+     * @param ttfbMillis 从发起请求到读到第一个字节的耗时，未知时传-1
+     * */
+    public synchronized void addSample(long bytes, long costMillis, long ttfbMillis) {
+        if (ttfbMillis >= 0) {
+            mTtfbEwma = mTtfbEwma < 0 ? ttfbMillis : mTtfbEwma * (1 - ALPHA) + ttfbMillis * ALPHA;
+            mTtfbWindow[mTtfbNext] = ttfbMillis;
+            mTtfbNext = (mTtfbNext + 1) % WINDOW_SIZE;
+            mTtfbCount = Math.min(mTtfbCount + 1, WINDOW_SIZE);
+        }
+
+        if (bytes < MIN_SAMPLE_BYTES || costMillis <= 0) {
+            return;
+        }
+
+        long throughput = bytes * 1000 / costMillis;
+        double alpha = Math.min(1, ALPHA * bytes / MIN_SAMPLE_BYTES / 4);
+        mThroughputEwma = mThroughputEwma < 0 ? throughput : mThroughputEwma * (1 - alpha) + throughput * alpha;
+        mThroughputWindow[mThroughputNext] = throughput;
+        mThroughputNext = (mThroughputNext + 1) % WINDOW_SIZE;
+        mThroughputCount = Math.min(mThroughputCount + 1, WINDOW_SIZE);
+    }
+
+    /**
+     * @return 估算的带宽（字节/秒），没有样本时返回-1
+     * */
+    public synchronized long getBandwidth() {
+        return (long) mThroughputEwma;
+    }
+
+    /**
+     * @param percentile 0~1，如0.5为中位数
+     * @return 最近样本中吞吐量（字节/秒）的分位数，没有样本时返回-1
+     * */
+    public synchronized long getBandwidthPercentile(double percentile) {
+        return percentile(mThroughputWindow, mThroughputCount, percentile);
+    }
+
+    /**
+     * @return 首字节时间的EWMA（ms），没有样本时返回-1
+     * */
+    public synchronized long getTtfb() {
+        return (long) mTtfbEwma;
+    }
+
+    public synchronized long getTtfbPercentile(double percentile) {
+        return percentile(mTtfbWindow, mTtfbCount, percentile);
+    }
+
+    /**
+     * 带宽是否足够在播放的同时预加载
+     *
+     * @param playBytesPerSecond 正在播放的视频每秒需要的字节数，未知时传-1
+     * */
+    public synchronized boolean canPreLoad(long playBytesPerSecond) {
+        if (playBytesPerSecond <= 0 || mThroughputEwma < 0) {
+            return true;
+        }
+
+        return mThroughputEwma >= playBytesPerSecond * SAFETY_FACTOR;
+    }
+
+    public synchronized void reset() {
+        mThroughputCount = mThroughputNext = 0;
+        mTtfbCount = mTtfbNext = 0;
+        mThroughputEwma = -1;
+        mTtfbEwma = -1;
+    }
+
+    private long percentile(long[] window, int count, double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+
+        System.arraycopy(window, 0, mScratch, 0, count);
+        Arrays.sort(mScratch, 0, count);
+        int index = (int) Math.round(percentile * (count - 1));
+        return mScratch[Math.max(0, Math.min(count - 1, index))];
+    }
+}
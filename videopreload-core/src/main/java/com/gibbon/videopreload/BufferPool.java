@@ -0,0 +1,102 @@
+package com.gibbon.videopreload;
+
+/**
+ * 预加载下载使用的缓冲池，按大小分级复用byte[]，稳定后下载过程中不再分配缓冲。
+ *
+ * 每一级用固定大小的数组保存空闲缓冲，取还都不会产生临时对象；
+ * 使用byte[]而不是DirectByteBuffer，因为数据来自URLConnection的InputStream，只能读到堆内存中。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-17
+ */
+public class BufferPool {
+
+    public static final int[] DEFAULT_SIZE_CLASSES = {8 * 1024, 32 * 1024, 128 * 1024};
+
+    /**
+     * 每一级最多保留的空闲缓冲数，与最大并发下载数相当即可
+     * */
+    public static final int DEFAULT_MAX_PER_CLASS = 6;
+
+    private final int[] mSizeClasses;
+    private final byte[][][] mFree;
+    private final int[] mFreeCount;
+
+    public BufferPool() {
+        this(DEFAULT_SIZE_CLASSES, DEFAULT_MAX_PER_CLASS);
+    }
+
+    /**
+     * @param sizeClasses 从小到大排列的缓冲大小
+     * */
+    public BufferPool(int[] sizeClasses, int maxPerClass) {
+        mSizeClasses = sizeClasses.clone();
+        mFree = new byte[sizeClasses.length][maxPerClass][];
+        mFreeCount = new int[sizeClasses.length];
+    }
+
+    /**
+     * @param preferredSize 期望的大小，返回不小于它的最小一级缓冲，超过最大一级时返回最大一级
+     * */
+    public byte[] acquire(int preferredSize) {
+        int sizeClass = sizeClassOf(preferredSize);
+        synchronized (this) {
+            int count = mFreeCount[sizeClass];
+            if (count > 0) {
+                byte[] buffer = mFree[sizeClass][count - 1];
+                mFree[sizeClass][count - 1] = null;
+                mFreeCount[sizeClass] = count - 1;
+                return buffer;
+            }
+        }
+        return new byte[mSizeClasses[sizeClass]];
+    }
+
+    /**
+     * 归还缓冲，不是池中大小的缓冲或者该级已满时直接丢弃
+     * */
+    public void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+
+        int sizeClass = exactSizeClassOf(buffer.length);
+        if (sizeClass < 0) {
+            return;
+        }
+
+        synchronized (this) {
+            int count = mFreeCount[sizeClass];
+            if (count < mFree[sizeClass].length) {
+                mFree[sizeClass][count] = buffer;
+                mFreeCount[sizeClass] = count + 1;
+            }
+        }
+    }
+
+    public synchronized int getFreeCount() {
+        int count = 0;
+        for (int freeCount : mFreeCount) {
+            count += freeCount;
+        }
+        return count;
+    }
+
+    private int sizeClassOf(int size) {
+        for (int i = 0; i < mSizeClasses.length; i++) {
+            if (size <= mSizeClasses[i]) {
+                return i;
+            }
+        }
+        return mSizeClasses.length - 1;
+    }
+
+    private int exactSizeClassOf(int size) {
+        for (int i = 0; i < mSizeClasses.length; i++) {
+            if (size == mSizeClasses[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,67 @@
+package com.gibbon.videopreload;
+
+/**
+ * Range请求的响应头解析，以及按文件总长度修正预加载的目标位置。
+ * 视频比预加载量短时只能下载到文件结尾，再从结尾请求服务端会返回416。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-21
+ */
+public final class ContentRange {
+
+    /**
+     * 请求的起始位置超出文件结尾，HttpURLConnection没有对应的常量
+     * */
+    public static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private ContentRange() {
+    }
+
+    /**
+     * @param contentRange 206响应的"bytes 0-102399/1234567"，416响应的范围部分为"*"，只有总长度
+     * @return 文件总长度，未知时为-1
+     * */
+    public static long parseTotalLength(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+
+        int index = contentRange.lastIndexOf('/');
+        if (index < 0 || index == contentRange.length() - 1 || contentRange.charAt(index + 1) == '*') {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(contentRange.substring(index + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static long parseContentLength(String contentLength) {
+        if (contentLength == null) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param totalLength 文件总长度，未知时为-1
+     * @return 不超过文件结尾的目标位置
+     * */
+    public static long clampTarget(long target, long totalLength) {
+        return totalLength > 0 && target > totalLength ? totalLength : target;
+    }
+
+    /**
+     * 下载到目标位置或者文件结尾都算完成
+     * */
+    public static boolean isComplete(long position, long target, long totalLength) {
+        return position >= clampTarget(target, totalLength);
+    }
+}
@@ -0,0 +1,122 @@
+package com.gibbon.videopreload;
+
+import com.gibbon.videopreload.trace.PreLoadTrace;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单线程事件循环：任意线程通过{@link #post(Runnable)}投递事件，只有循环线程执行事件，
+ * 事件里修改的状态只在循环线程上访问，不需要加锁。
+ *
+ * 投递只是无锁入队再唤醒循环线程，不会等待正在执行的事件；
+ * 每处理完一批事件回调一次{@link Callback#onIdle()}，连续的多个事件只触发一次调度，
+ * 一批最多{@link #MAX_BATCH}个事件，事件一直投递时调度也不会被推迟太久。
+ * 事件和onIdle抛出的异常通过{@link PreLoadTrace}输出，不会结束循环。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-24
+ */
+public class EventLoop {
+
+    public interface Callback {
+        /**
+         * 队列中的事件都处理完之后在循环线程上调用
+         * */
+        void onIdle();
+    }
+
+    public static final int MAX_BATCH = 64;
+
+    private final ConcurrentLinkedQueue<Runnable> mQueue = new ConcurrentLinkedQueue<>();
+    private final Callback mCallback;
+    private final Thread mThread;
+    private volatile boolean mQuit;
+    /**
+     * 只在循环线程上访问
+     * */
+    private boolean mHasIdleDeadline;
+    private long mIdleDeadlineNanos;
+
+    public EventLoop(String name, Callback callback) {
+        mCallback = callback;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, name);
+        mThread.start();
+    }
+
+    public void post(Runnable event) {
+        if (mQuit) {
+            return;
+        }
+        mQueue.offer(event);
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * 退出循环，还没执行的事件被丢弃
+     * */
+    public void quit() {
+        mQuit = true;
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * 只能在循环线程上调用：到deadline时即使没有新的事件也回调一次{@link Callback#onIdle()}，
+     * 用于推迟调度，只保留一个deadline，新的覆盖旧的；期间处理事件回调onIdle时清除
+     *
+     * @param deadlineNanos System.nanoTime()的时间点
+     * */
+    public void requestIdleAt(long deadlineNanos) {
+        mHasIdleDeadline = true;
+        mIdleDeadlineNanos = deadlineNanos;
+    }
+
+    public boolean isInLoop() {
+        return Thread.currentThread() == mThread;
+    }
+
+    public boolean isQuit() {
+        return mQuit;
+    }
+
+    private void loop() {
+        while (!mQuit) {
+            int handled = 0;
+            Runnable event;
+            while (!mQuit && handled < MAX_BATCH && (event = mQueue.poll()) != null) {
+                handled++;
+                try {
+                    event.run();
+                } catch (RuntimeException e) {
+                    PreLoadTrace.e(PreLoadTrace.TAG, mThread.getName() + " event failed: " + e);
+                }
+            }
+
+            boolean idle = handled > 0 || (mHasIdleDeadline && System.nanoTime() - mIdleDeadlineNanos >= 0);
+            if (idle && !mQuit) {
+                // onIdle里可能重新设置deadline
+                mHasIdleDeadline = false;
+                try {
+                    mCallback.onIdle();
+                } catch (RuntimeException e) {
+                    PreLoadTrace.e(PreLoadTrace.TAG, mThread.getName() + " onIdle failed: " + e);
+                }
+            }
+
+            // post先入队再unpark，入队之后才park的话permit已经存在，不会丢失唤醒
+            if (!mQuit && mQueue.isEmpty()) {
+                if (mHasIdleDeadline) {
+                    LockSupport.parkNanos(this, Math.max(0, mIdleDeadlineNanos - System.nanoTime()));
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+        mQueue.clear();
+    }
+}
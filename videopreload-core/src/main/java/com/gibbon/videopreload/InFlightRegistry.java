@@ -0,0 +1,90 @@
+package com.gibbon.videopreload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 进程内正在进行的预加载登记表，按缓存key记录每个视频的下载任务（owner），
+ * 其他busId对同一个视频的任务作为follower挂在owner上，不再单独下载，owner结束时一起结束。
+ *
+ * 只负责登记，任务的提交、取消和结束回调由PreLoadManager处理，回调不能在持有本对象锁时执行。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-22
+ */
+public class InFlightRegistry<T> {
+
+    private final Map<String, Entry<T>> mEntries = new HashMap<>();
+
+    private static class Entry<T> {
+        final T owner;
+        final List<T> followers = new ArrayList<>(2);
+
+        Entry(T owner) {
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * 登记任务，同一个key已经有下载中的任务时挂到它上面
+     *
+     * @return 已有的owner；返回null表示task成为owner，需要由调用方提交下载
+     * */
+    public synchronized T attach(String key, T task) {
+        Entry<T> entry = mEntries.get(key);
+        if (entry == null) {
+            mEntries.put(key, new Entry<>(task));
+            return null;
+        }
+
+        if (entry.owner != task && !entry.followers.contains(task)) {
+            entry.followers.add(task);
+        }
+        return entry.owner;
+    }
+
+    /**
+     * 取消follower，不影响owner的下载
+     *
+     * @return task是这个key下的follower时返回true
+     * */
+    public synchronized boolean detachFollower(String key, T task) {
+        Entry<T> entry = mEntries.get(key);
+        return entry != null && entry.owner != task && entry.followers.remove(task);
+    }
+
+    /**
+     * @return owner还有follower在等待时返回true，此时不应该取消owner
+     * */
+    public synchronized boolean hasFollowers(String key, T owner) {
+        Entry<T> entry = mEntries.get(key);
+        return entry != null && entry.owner == owner && !entry.followers.isEmpty();
+    }
+
+    /**
+     * owner结束时调用，移除登记
+     *
+     * @return 挂在owner上的follower，需要由调用方结束
+     * */
+    public synchronized List<T> complete(String key, T owner) {
+        Entry<T> entry = mEntries.get(key);
+        if (entry == null || entry.owner != owner) {
+            return Collections.emptyList();
+        }
+
+        mEntries.remove(key);
+        return entry.followers;
+    }
+
+    public synchronized T getOwner(String key) {
+        Entry<T> entry = mEntries.get(key);
+        return entry != null ? entry.owner : null;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+}
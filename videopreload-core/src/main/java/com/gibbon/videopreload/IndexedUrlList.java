@@ -0,0 +1,123 @@
+package com.gibbon.videopreload;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * url列表加上url到位置的索引，indexOf/contains为O(1)，用于上千条的信息流。
+ * 同一个url出现多次时索引指向第一次出现的位置，与List.indexOf一致。
+ *
+ * 不可变快照：{@link #append(List)}返回新的列表，读线程拿到的快照不会再被修改，可以不加锁访问。
+ * 同一条信息流的快照共用一份只追加的存储（按块分配的数组和url索引），快照只记录自己的长度，
+ * 在最新的快照后追加只写入新的部分，耗时与追加的条数成正比，不用复制整个列表；
+ * 在旧的快照后追加（分叉）时才复制
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-08
+ */
+public final class IndexedUrlList {
+
+    public static final IndexedUrlList EMPTY = new IndexedUrlList(new Store(), new String[0][], 0);
+
+    private static final int CHUNK_SHIFT = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final Store mStore;
+    /**
+     * 创建快照时的块数组，只读取前mSize个位置，之后追加的块不影响
+     * */
+    private final String[][] mChunks;
+    private final int mSize;
+
+    private IndexedUrlList(Store store, String[][] chunks, int size) {
+        mStore = store;
+        mChunks = chunks;
+        mSize = size;
+    }
+
+    public static IndexedUrlList of(List<String> urls) {
+        return EMPTY.append(urls);
+    }
+
+    /**
+     * @return 在当前列表后追加urls的新列表，当前列表不变
+     * */
+    public IndexedUrlList append(List<String> urls) {
+        if (mSize == 0) {
+            // 每条信息流使用自己的存储，EMPTY不共享
+            return new Store().append(urls);
+        }
+
+        synchronized (mStore) {
+            if (mStore.size == mSize) {
+                return mStore.append(urls);
+            }
+        }
+
+        Store store = new Store();
+        for (int i = 0; i < mSize; i++) {
+            store.add(get(i));
+        }
+        return store.append(urls);
+    }
+
+    public int indexOf(String url) {
+        if (url == null) {
+            return -1;
+        }
+        Integer index = mStore.indexes.get(url);
+        // 索引里还有之后追加的url，超出快照长度的不算
+        return index != null && index < mSize ? index : -1;
+    }
+
+    public boolean contains(String url) {
+        return indexOf(url) >= 0;
+    }
+
+    public String get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + mSize);
+        }
+        return mChunks[index >> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * 只追加的存储，写操作持有this锁；快照通过AtomicReference等方式发布之后，读线程能看到发布之前写入的内容
+     * */
+    private static final class Store {
+
+        final ConcurrentHashMap<String, Integer> indexes = new ConcurrentHashMap<>();
+        String[][] chunks = new String[0][];
+        int size;
+
+        synchronized IndexedUrlList append(List<String> urls) {
+            for (String url : urls) {
+                add(url);
+            }
+            return new IndexedUrlList(this, chunks, size);
+        }
+
+        synchronized void add(String url) {
+            int chunk = size >> CHUNK_SHIFT;
+            if (chunk == chunks.length) {
+                // 旧的快照还在读原来的块数组，扩容时复制块的引用，不复制块
+                String[][] newChunks = new String[Math.max(4, chunks.length * 2)][];
+                System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+                chunks = newChunks;
+            }
+            if (chunks[chunk] == null) {
+                chunks[chunk] = new String[CHUNK_SIZE];
+            }
+            chunks[chunk][size & CHUNK_MASK] = url;
+            if (url != null && !indexes.containsKey(url)) {
+                indexes.put(url, size);
+            }
+            size++;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.gibbon.videopreload;
+
+/**
+ * 视频的码率/时长/大小信息，通过{@link PreLoadWindowScheduler#addUrls(java.util.List, java.util.Map)}传入，
+ * 用于计算预加载的字节数，未知的字段填0
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-06-24
+ */
+public class PreLoadHint {
+
+    /**
+     * 码率，单位bit/s
+     * */
+    public final long bitrate;
+    /**
+     * 时长，单位ms
+     * */
+    public final long durationMs;
+    /**
+     * 文件大小，单位字节
+     * */
+    public final long size;
+
+    public PreLoadHint(long bitrate, long durationMs, long size) {
+        this.bitrate = bitrate;
+        this.durationMs = durationMs;
+        this.size = size;
+    }
+
+    public static PreLoadHint ofBitrate(long bitrate) {
+        return new PreLoadHint(bitrate, 0, 0);
+    }
+
+    public static PreLoadHint ofDuration(long durationMs, long size) {
+        return new PreLoadHint(0, durationMs, size);
+    }
+
+    /**
+     * @return 每秒播放需要的字节数，未知时返回-1
+     * */
+    public long getBytesPerSecond() {
+        if (bitrate > 0) {
+            return bitrate / 8;
+        }
+
+        if (durationMs > 0 && size > 0) {
+            return size * 1000 / durationMs;
+        }
+
+        return -1;
+    }
+}
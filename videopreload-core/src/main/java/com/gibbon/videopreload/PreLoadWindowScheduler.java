@@ -0,0 +1,537 @@
+package com.gibbon.videopreload;
+
+import com.gibbon.videopreload.adapter.DefaultPreLoadSizeAdapter;
+import com.gibbon.videopreload.adapter.DefaultPreLoadWindowAdapter;
+import com.gibbon.videopreload.adapter.IPreLoadSizeAdapter;
+import com.gibbon.videopreload.adapter.IPreLoadWindowAdapter;
+import com.gibbon.videopreload.adapter.ITieredPreLoadSizeAdapter;
+import com.gibbon.videopreload.trace.PreLoadTrace;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 按播放位置计算预加载窗口并维护窗口内的任务，不依赖Android，
+ * 任务的创建、提交和取消交给{@link Host}，Android上由VideoPreLoadFuture适配。
+ *
+ * 调度状态（当前播放位置、正在预加载的任务、暂停状态）只在{@link EventLoop}线程上读写，
+ * 播放、任务结束等都作为事件投递过去，调用线程不会被调度阻塞；
+ * url列表是不可变快照，更新时整体替换。
+ *
+ * 快速滑动时播放位置连续变化，播放事件先停留一段时间（debounce），没有新的播放事件或者滑动停止后才按最后的位置调度；
+ * 调度时和正在预加载的任务比较：窗口内已有的任务保留，移出窗口的取消，只为新进入窗口的视频创建任务。
+ *
+ * 字节数策略实现{@link ITieredPreLoadSizeAdapter}时，窗口内的任务都结束、链路空闲后再扩大下一个视频的缓冲。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-30
+ */
+public class PreLoadWindowScheduler<T> {
+
+    /**
+     * 同时保留的预加载任务数上限，超过时取消最早加入的任务
+     * */
+    public static final int MAX_LOADING_TASKS = 16;
+
+    /**
+     * 播放事件默认停留的时间
+     * */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 150;
+
+    /**
+     * 播放位置一直变化或者一直在滑动时，最多推迟这么久也要调度一次
+     * */
+    public static final long MAX_DEBOUNCE_DELAY_MILLIS = 1000;
+
+    /**
+     * 当前视频播放超过这么久才扩大下一个视频的缓冲，快速滑动时不扩展
+     * */
+    public static final long EXTEND_AFTER_PLAY_MILLIS = 1000;
+
+    public interface Host<T> {
+
+        /**
+         * 调度前检查网络等条件，返回false时保留待调度状态，下一个事件到来时再检查
+         * */
+        boolean canSchedule();
+
+        long getBandwidth();
+
+        /**
+         * 播放位置变化
+         *
+         * @param hint 当前视频的码率信息，没有时为null
+         * */
+        void onPlayIndexChanged(String url, int index, PreLoadHint hint);
+
+        /**
+         * 新的预加载窗口[firstIndex, lastIndex]，在创建和调整窗口内的任务之前调用
+         * */
+        void onWindowChanged(IndexedUrlList urls, int currentIndex, int firstIndex, int lastIndex);
+
+        /**
+         * 创建并提交任务
+         *
+         * @param distance 与当前播放位置的距离，负数表示在当前播放位置之前
+         * */
+        T createTask(String url, int index, int distance, long preLoadBytes);
+
+        /**
+         * 已经在窗口内的任务按新的播放位置调整
+         * */
+        void updateTask(T task, int index, int distance, long preLoadBytes);
+
+        void cancelTask(T task);
+
+        /**
+         * 没有排队的预加载、正在播放的视频缓冲充足时返回true，
+         * 此时才会扩大下一个视频的缓冲（{@link ITieredPreLoadSizeAdapter#TIER_EXTENDED}）
+         * */
+        boolean isLinkIdle();
+    }
+
+    private final AtomicReference<IndexedUrlList> mUrls = new AtomicReference<>(IndexedUrlList.EMPTY);
+    private final EventLoop mEventLoop;
+    private final Host<T> mHost;
+
+    /**
+     * 以下状态只在mEventLoop线程上访问
+     * */
+    private String mCurrentUrl;
+    private int mCurrentIndex = -1;
+    private boolean toPreLoad = false;
+    private boolean hasPause = false;
+    private boolean mScrolling = false;
+    /**
+     * 还没调度的第一个和最后一个播放事件的时间，没有时mPendingSinceNanos为-1
+     * */
+    private long mPendingSinceNanos = -1;
+    private long mLastPlayNanos;
+    /**
+     * 已经扩大过下一个视频缓冲的播放位置，每个播放位置只扩展一次
+     * */
+    private int mExtendedIndex = -1;
+    private String mExtendedUrl;
+    /**
+     * 正在预加载的任务，key为url，按加入顺序排列，最早加入的在最前面
+     * */
+    private final LinkedHashMap<String, T> mLoadingTasks = new LinkedHashMap<>();
+
+    private volatile IPreLoadWindowAdapter mWindowAdapter = new DefaultPreLoadWindowAdapter();
+    private volatile IPreLoadSizeAdapter mSizeAdapter = new DefaultPreLoadSizeAdapter();
+    private volatile long mDebounceNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DEBOUNCE_MILLIS);
+    private final Map<String, PreLoadHint> mHints = new ConcurrentHashMap<>();
+
+    public PreLoadWindowScheduler(String name, Host<T> host) {
+        mHost = host;
+        mEventLoop = new EventLoop(name, new EventLoop.Callback() {
+            @Override
+            public void onIdle() {
+                schedule();
+            }
+        });
+    }
+
+    public void setWindowAdapter(IPreLoadWindowAdapter windowAdapter) {
+        if (windowAdapter != null) {
+            mWindowAdapter = windowAdapter;
+        }
+    }
+
+    public void setSizeAdapter(IPreLoadSizeAdapter sizeAdapter) {
+        if (sizeAdapter != null) {
+            mSizeAdapter = sizeAdapter;
+        }
+    }
+
+    /**
+     * 播放事件停留的时间，这段时间内没有新的播放事件才调度，0表示只合并同一批的事件
+     * */
+    public void setDebounceMillis(long debounceMillis) {
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException("debounceMillis should not be negative");
+        }
+        mDebounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+    }
+
+    /**
+     * 列表滑动状态，滑动时播放事件一直保留到滑动停止（最多{@link #MAX_DEBOUNCE_DELAY_MILLIS}），停止后马上调度
+     * */
+    public void setScrolling(final boolean scrolling) {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                mScrolling = scrolling;
+            }
+        });
+    }
+
+    public IndexedUrlList getUrls() {
+        return mUrls.get();
+    }
+
+    /**
+     * @param hints url对应的码率/时长信息，用于计算预加载的字节数，可以为null或只包含部分url
+     * */
+    public void addUrls(List<String> urls, Map<String, PreLoadHint> hints) {
+        if (hints != null) {
+            mHints.putAll(hints);
+        }
+        addUrls(urls);
+    }
+
+    public void addUrls(List<String> urls) {
+        IndexedUrlList current;
+        do {
+            current = mUrls.get();
+        } while (!mUrls.compareAndSet(current, current.append(urls)));
+    }
+
+    /**
+     * @param hints url对应的码率/时长信息，用于计算预加载的字节数，可以为null或只包含部分url
+     * */
+    public void updateUrls(List<String> urls, Map<String, PreLoadHint> hints) {
+        mHints.clear();
+        if (hints != null) {
+            mHints.putAll(hints);
+        }
+        updateUrls(urls);
+    }
+
+    public void updateUrls(List<String> urls) {
+        mUrls.set(IndexedUrlList.of(urls));
+        // 全量更新后当前播放的url位置可能变化
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isEmpty(mCurrentUrl)) {
+                    updateCurrentIndex(mCurrentUrl);
+                }
+            }
+        });
+    }
+
+    public void currentPlayUrl(final String url) {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                innerCurrentPlayUrl(url);
+            }
+        });
+    }
+
+    /**
+     * 暂停调度并取消正在预加载的任务
+     * */
+    public void pause() {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                hasPause = true;
+                toPreLoad = false;
+                mPendingSinceNanos = -1;
+                cancelLoadingTasks();
+            }
+        });
+    }
+
+    /**
+     * 恢复之后按暂停前的播放位置重新调度
+     * */
+    public void resume() {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                if (hasPause && !isEmpty(mCurrentUrl)) {
+                    toPreLoad = true;
+                    hasPause = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * 取消所有任务并退出事件循环，之后的调用都会被忽略
+     * */
+    public void destroy() {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                mCurrentIndex = -1;
+                cancelLoadingTasks();
+                mEventLoop.quit();
+            }
+        });
+    }
+
+    /**
+     * 任务结束时由下载线程调用，只投递事件，不等待调度
+     * */
+    public void removeTask(String url, T task) {
+        removeTask(url, task, null);
+    }
+
+    /**
+     * @param onRemoved 调度线程删除任务之后执行，之后调度线程不会再访问这个任务，可以在这里回收复用；
+     *                  事件循环已经退出时不会执行
+     * */
+    public void removeTask(final String url, final T task, final Runnable onRemoved) {
+        if (url == null) {
+            return;
+        }
+
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                // 同一个url可能已经换成了新的任务，只删除同一个任务
+                if (mLoadingTasks.get(url) == task) {
+                    mLoadingTasks.remove(url);
+                }
+                if (onRemoved != null) {
+                    onRemoved.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * 网络恢复等外部条件变化时调用，让之前挂起的调度重新检查
+     * */
+    public void wakeUp() {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    /**
+     * 在调度线程上执行，之后会触发一次调度
+     * */
+    public void post(Runnable event) {
+        mEventLoop.post(event);
+    }
+
+    /**
+     * 只能在调度线程上调用
+     * */
+    public int getLoadingTaskCount() {
+        return mLoadingTasks.size();
+    }
+
+    private void innerCurrentPlayUrl(String url) {
+        IndexedUrlList urls = mUrls.get();
+        if (urls.size() <= 0) {
+            PreLoadTrace.e(PreLoadTrace.TAG, "currentPlayUrl: url list should not be empty");
+            return;
+        }
+
+        if (urls.indexOf(url) == -1) {
+            return;
+        }
+
+        mCurrentUrl = url;
+        updateCurrentIndex(url);
+    }
+
+    private void updateCurrentIndex(String url) {
+        int currentIndex = mUrls.get().indexOf(url);
+        if (currentIndex != -1 && currentIndex != mCurrentIndex) {
+            if (PreLoadTrace.isDebug()) {
+                PreLoadTrace.d(PreLoadTrace.TAG, "currentPlayUrl: [url: " + url + ", index: " + currentIndex + "]");
+            }
+            long now = System.nanoTime();
+            mWindowAdapter.onPlayIndexChanged(mCurrentIndex, currentIndex, now / 1000000);
+            mCurrentIndex = currentIndex;
+            mHost.onPlayIndexChanged(url, currentIndex, mHints.get(url));
+            toPreLoad = true;
+            if (mPendingSinceNanos == -1) {
+                mPendingSinceNanos = now;
+            }
+            mLastPlayNanos = now;
+        }
+    }
+
+    /**
+     * 每处理完一批事件或者debounce到期时在mEventLoop线程上调用，连续的多次播放只按最后的位置调度
+     * */
+    private void schedule() {
+        if (hasPause || mCurrentIndex == -1) {
+            return;
+        }
+
+        if (!toPreLoad) {
+            extendNext();
+            return;
+        }
+
+        if (mPendingSinceNanos != -1) {
+            long deadline = getDebounceDeadline();
+            if (System.nanoTime() - deadline < 0) {
+                mEventLoop.requestIdleAt(deadline);
+                return;
+            }
+        }
+
+        if (!mHost.canSchedule()) {
+            // 保留toPreLoad，条件满足的事件到来后再调度
+            return;
+        }
+
+        IndexedUrlList urls = mUrls.get();
+        if (mCurrentIndex >= urls.size()) {
+            toPreLoad = false;
+            return;
+        }
+
+        /**
+         * 加入队列的窗口由mWindowAdapter决定，默认为
+         * 【max(mCurrentIndex - 3, 0)， min(mCurrentIndex + 4, mUrls.size()-1 )]
+         * */
+        long bandwidth = mHost.getBandwidth();
+        IPreLoadWindowAdapter windowAdapter = mWindowAdapter;
+        IPreLoadSizeAdapter sizeAdapter = mSizeAdapter;
+        int firstIndex = Math.max(0, mCurrentIndex - windowAdapter.getBackwardCount(bandwidth));
+        int lastIndex = Math.min(mCurrentIndex + windowAdapter.getForwardCount(bandwidth), urls.size() - 1);
+        PreLoadTrace.event(PreLoadTrace.EVENT_SCHEDULE, null, mCurrentIndex, firstIndex, lastIndex);
+        mHost.onWindowChanged(urls, mCurrentIndex, firstIndex, lastIndex);
+        cancelExtension();
+        cancelTasksOutside(urls, firstIndex, lastIndex);
+        String url;
+        for (int i = firstIndex; i <= lastIndex; i++) {
+
+            if (i == mCurrentIndex) {
+                continue;
+            }
+
+            url = urls.get(i);
+            if (isEmpty(url)) {
+                continue;
+            }
+            int distance = i - mCurrentIndex;
+            long preLoadBytes = sizeAdapter.getPreLoadBytes(distance, bandwidth, mHints.get(url));
+            T loadingTask = mLoadingTasks.remove(url);
+            if (loadingTask == null) {
+                if (mLoadingTasks.size() >= MAX_LOADING_TASKS) {
+                    Iterator<T> iterator = mLoadingTasks.values().iterator();
+                    T eldest = iterator.next();
+                    iterator.remove();
+                    mHost.cancelTask(eldest);
+                }
+
+                mLoadingTasks.put(url, mHost.createTask(url, i, distance, preLoadBytes));
+            } else {
+                // 重新放到最后，表示最近加入
+                mLoadingTasks.put(url, loadingTask);
+                // 还在排队的任务按新的距离下载，离得更近的任务由Host升级到新的字节数
+                mHost.updateTask(loadingTask, i, distance, preLoadBytes);
+            }
+        }
+
+        toPreLoad = false;
+        mPendingSinceNanos = -1;
+    }
+
+    /**
+     * 当前视频播放了一段时间、窗口内的任务都结束并且链路空闲时扩大下一个视频的缓冲，链路不空闲时等下一个事件再检查
+     * */
+    private void extendNext() {
+        if (mExtendedIndex == mCurrentIndex || !mLoadingTasks.isEmpty()) {
+            return;
+        }
+
+        IPreLoadSizeAdapter sizeAdapter = mSizeAdapter;
+        IndexedUrlList urls = mUrls.get();
+        int next = mCurrentIndex + 1;
+        if (!(sizeAdapter instanceof ITieredPreLoadSizeAdapter) || next >= urls.size() || isEmpty(urls.get(next))) {
+            return;
+        }
+
+        long extendAt = mLastPlayNanos + TimeUnit.MILLISECONDS.toNanos(EXTEND_AFTER_PLAY_MILLIS);
+        if (System.nanoTime() - extendAt < 0) {
+            mEventLoop.requestIdleAt(extendAt);
+            return;
+        }
+
+        if (!mHost.isLinkIdle() || !mHost.canSchedule()) {
+            return;
+        }
+
+        mExtendedIndex = mCurrentIndex;
+        String url = urls.get(next);
+        long preLoadBytes = ((ITieredPreLoadSizeAdapter) sizeAdapter).getExtendedBytes(mHost.getBandwidth(), mHints.get(url));
+        if (preLoadBytes <= 0) {
+            return;
+        }
+
+        PreLoadTrace.event(PreLoadTrace.EVENT_EXTEND, url, next, preLoadBytes, 0);
+        // 之前预加载过的部分不会重复下载，从已下载的位置继续
+        mLoadingTasks.put(url, mHost.createTask(url, next, 1, preLoadBytes));
+        mExtendedUrl = url;
+    }
+
+    /**
+     * 扩展的缓冲只在链路空闲时下载，播放位置变化后让出带宽给新窗口内的任务，已经下载的部分保留
+     * */
+    private void cancelExtension() {
+        if (mExtendedUrl == null) {
+            return;
+        }
+
+        // 扩展任务创建时没有其他任务，之后第一次调度之前这个url对应的只可能是扩展任务
+        T task = mLoadingTasks.remove(mExtendedUrl);
+        mExtendedUrl = null;
+        if (task != null) {
+            mHost.cancelTask(task);
+        }
+    }
+
+    /**
+     * 最后一个播放事件停留debounce之后，滑动时等到滑动停止，都不超过第一个播放事件之后MAX_DEBOUNCE_DELAY_MILLIS
+     * */
+    private long getDebounceDeadline() {
+        long maxDeadline = mPendingSinceNanos + TimeUnit.MILLISECONDS.toNanos(MAX_DEBOUNCE_DELAY_MILLIS);
+        if (mScrolling) {
+            return maxDeadline;
+        }
+
+        long deadline = mLastPlayNanos + mDebounceNanos;
+        return deadline - maxDeadline < 0 ? deadline : maxDeadline;
+    }
+
+    /**
+     * 取消移出窗口[firstIndex, lastIndex]的任务，当前播放视频的任务交给播放流程处理，这里不取消
+     * */
+    private void cancelTasksOutside(IndexedUrlList urls, int firstIndex, int lastIndex) {
+        Iterator<Map.Entry<String, T>> iterator = mLoadingTasks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, T> entry = iterator.next();
+            int index = urls.indexOf(entry.getKey());
+            if (index == mCurrentIndex || (index >= firstIndex && index <= lastIndex)) {
+                continue;
+            }
+
+            iterator.remove();
+            mHost.cancelTask(entry.getValue());
+        }
+    }
+
+    private void cancelLoadingTasks() {
+        mExtendedUrl = null;
+        Iterator<T> iterator = mLoadingTasks.values().iterator();
+        while (iterator.hasNext()) {
+            T task = iterator.next();
+            iterator.remove();
+            mHost.cancelTask(task);
+        }
+    }
+
+    private static boolean isEmpty(String text) {
+        return text == null || text.length() == 0;
+    }
+}
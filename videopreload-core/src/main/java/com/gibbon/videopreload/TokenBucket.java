@@ -0,0 +1,132 @@
+package com.gibbon.videopreload;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 令牌桶限速，所有预加载下载共用一个桶。
+ * 下载读到数据之后先{@link #consume(int)}，令牌为负时通过{@link #awaitTokens(long)}等待补充，
+ * 速率为0时暂停，速率为{@link #UNLIMITED}时不限速（不加锁）。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-13
+ */
+public class TokenBucket {
+
+    public static final long UNLIMITED = -1;
+
+    /**
+     * 最多积攒0.5s的令牌，避免恢复时瞬间突发
+     * */
+    private static final long BURST_MILLIS = 500;
+    private static final long MIN_BURST_BYTES = 16 * 1024;
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mChanged = mLock.newCondition();
+    private volatile long mRate = UNLIMITED;
+    private long mTokens;
+    private long mLastRefillNanos;
+    private boolean mRefillStarted;
+
+    /**
+     * @param bytesPerSecond 每秒允许的字节数，0表示暂停，{@link #UNLIMITED}表示不限速
+     * */
+    public void setRate(long bytesPerSecond) {
+        mLock.lock();
+        try {
+            if (mRate == bytesPerSecond) {
+                return;
+            }
+            refill();
+            mRate = bytesPerSecond;
+            mTokens = Math.min(mTokens, capacity());
+            mChanged.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long getRate() {
+        return mRate;
+    }
+
+    public void consume(int bytes) {
+        if (mRate == UNLIMITED) {
+            return;
+        }
+
+        mLock.lock();
+        try {
+            refill();
+            mTokens -= bytes;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 等待令牌补充到非负
+     *
+     * @param maxWaitMillis 最多等待的时间，调用者可以借此检查取消状态后再继续等待
+     * @return 可以继续下载时返回true，超时返回false
+     * */
+    public boolean awaitTokens(long maxWaitMillis) throws InterruptedException {
+        if (mRate == UNLIMITED) {
+            return true;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        mLock.lock();
+        try {
+            while (true) {
+                refill();
+                long rate = mRate;
+                if (rate == UNLIMITED || mTokens >= 0) {
+                    return true;
+                }
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                long needNanos = rate > 0 ? -mTokens * NANOS_PER_SECOND / rate : remaining;
+                mChanged.awaitNanos(Math.max(1, Math.min(remaining, needNanos)));
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        long rate = mRate;
+        if (rate <= 0 || !mRefillStarted) {
+            if (rate == UNLIMITED) {
+                mTokens = 0;
+            }
+            mRefillStarted = true;
+            mLastRefillNanos = now;
+            return;
+        }
+
+        long add = (now - mLastRefillNanos) * rate / NANOS_PER_SECOND;
+        if (add > 0) {
+            // 只推进已经换算成令牌的时间，避免频繁调用时余数被丢掉
+            mTokens += add;
+            mLastRefillNanos += add * NANOS_PER_SECOND / rate;
+            long capacity = capacity();
+            if (mTokens >= capacity) {
+                mTokens = capacity;
+                mLastRefillNanos = now;
+            }
+        }
+    }
+
+    private long capacity() {
+        long rate = mRate;
+        return rate > 0 ? Math.max(MIN_BURST_BYTES, rate * BURST_MILLIS / 1000) : 0;
+    }
+}
@@ -0,0 +1,229 @@
+package com.gibbon.videopreload.adapter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于HttpURLConnection的默认实现。
+ *
+ * HttpURLConnection只有在响应读完并关闭输入流时才会把连接放回系统的keep-alive池，disconnect会直接关掉socket，
+ * 所以这里：
+ * 1. 每个host同时打开的连接数不超过keep-alive池能保留的数量，多出来的请求排队等待，而不是新建马上又被丢弃的连接；
+ * 2. 读完的响应只关闭输入流，没读完的才disconnect；
+ * 3. 显式设置连接、读取超时，并关闭gzip，保证Range请求返回的长度和请求的一致。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-20
+ */
+public class DefaultHttpTransport implements IHttpTransport {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * 系统keep-alive池默认每个host保留5个空闲连接，这里留一个给播放器
+     * */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+
+    /**
+     * 同一个host在这个时间内只预热一次
+     * */
+    private static final long WARM_UP_INTERVAL_MILLIS = 60 * 1000;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final int mMaxConnectionsPerHost;
+    private final Map<String, Semaphore> mHostPermits = new HashMap<>();
+    private final Map<String, Long> mWarmUpTimes = new HashMap<>();
+    /**
+     * 重定向之后connection.getURL()会变成新的host，归还时要用open时占用的那个
+     * */
+    private final Map<HttpURLConnection, Semaphore> mConnectionPermits = new IdentityHashMap<>();
+    private ExecutorService mWarmUpExecutor;
+
+    public DefaultHttpTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    public DefaultHttpTransport(int connectTimeoutMillis, int readTimeoutMillis, int maxConnectionsPerHost) {
+        if (maxConnectionsPerHost <= 0) {
+            throw new IllegalArgumentException("maxConnectionsPerHost should be positive");
+        }
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mMaxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    @Override
+    public HttpURLConnection open(String url, long from, long to) throws IOException {
+        URL target = new URL(url);
+        Semaphore permits = permitsOf(target);
+        // 排队最多等一个连接超时，和直接连接失败的表现一致
+        try {
+            if (!permits.tryAcquire(mConnectTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("too many connections to " + target.getHost());
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted while waiting for connection");
+        }
+
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) target.openConnection();
+            configure(connection);
+            connection.setRequestProperty("Range", "bytes=" + from + "-" + (to - 1));
+            connection.connect();
+            synchronized (mConnectionPermits) {
+                mConnectionPermits.put(connection, permits);
+            }
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void release(HttpURLConnection connection, boolean reusable) {
+        try {
+            if (reusable) {
+                // 只关闭输入流，连接回到keep-alive池
+                InputStream inputStream = connection.getInputStream();
+                inputStream.close();
+            } else {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            connection.disconnect();
+        } finally {
+            Semaphore permits;
+            synchronized (mConnectionPermits) {
+                permits = mConnectionPermits.remove(connection);
+            }
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    @Override
+    public void warmUp(final String url) {
+        final URL target;
+        try {
+            target = new URL(url);
+        } catch (IOException e) {
+            return;
+        }
+
+        String host = hostKey(target);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Long last = mWarmUpTimes.get(host);
+            if (last != null && now - last < WARM_UP_INTERVAL_MILLIS) {
+                return;
+            }
+            mWarmUpTimes.put(host, now);
+            if (mWarmUpExecutor == null) {
+                mWarmUpExecutor = newWarmUpExecutor();
+            }
+        }
+
+        mWarmUpExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                warmUpNow(target);
+            }
+        });
+    }
+
+    /**
+     * 请求第一个字节来建立连接（包括DNS解析和TLS握手），读完后连接留在keep-alive池中。
+     * 不用HEAD是因为部分服务端和HttpURLConnection在HEAD之后不会复用连接；
+     * 连接都被占用时说明已经有可以复用的连接，不再预热
+     * */
+    private void warmUpNow(URL target) {
+        Semaphore permits = permitsOf(target);
+        if (!permits.tryAcquire()) {
+            return;
+        }
+
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) target.openConnection();
+            configure(connection);
+            connection.setRequestProperty("Range", "bytes=0-0");
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                // 服务端不支持Range时返回的是整个文件，不能读完
+                connection.disconnect();
+                return;
+            }
+
+            InputStream inputStream = connection.getInputStream();
+            while (inputStream.read() != -1) {
+                // 只有一个字节
+            }
+            inputStream.close();
+        } catch (Exception e) {
+            // 预热失败不影响之后的请求
+            if (connection != null) {
+                connection.disconnect();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void configure(HttpURLConnection connection) {
+        connection.setConnectTimeout(mConnectTimeoutMillis);
+        connection.setReadTimeout(mReadTimeoutMillis);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Connection", "keep-alive");
+        // 压缩后的长度和Range不一致，而且视频本身已经压缩过
+        connection.setRequestProperty("Accept-Encoding", "identity");
+    }
+
+    private synchronized Semaphore permitsOf(URL url) {
+        String host = hostKey(url);
+        Semaphore permits = mHostPermits.get(host);
+        if (permits == null) {
+            permits = new Semaphore(mMaxConnectionsPerHost);
+            mHostPermits.put(host, permits);
+        }
+        return permits;
+    }
+
+    /**
+     * keep-alive池按协议、host和端口区分连接
+     * */
+    private static String hostKey(URL url) {
+        return url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+    }
+
+    private static ExecutorService newWarmUpExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "preload-warmup");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
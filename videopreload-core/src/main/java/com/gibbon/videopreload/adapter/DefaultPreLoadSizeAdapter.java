@@ -0,0 +1,78 @@
+package com.gibbon.videopreload.adapter;
+
+import com.gibbon.videopreload.PreLoadHint;
+
+/**
+ * 默认预加载字节数策略：
+ * 1. 下一个视频（TIER_FIRST_SEGMENT）预加载约2s的播放数据，码率未知时保持原来的100KB；
+ * 2. 更远的视频以及当前播放位置之前的视频（TIER_HEADER）只预加载头部数据；
+ * 3. 按当前带宽预加载耗时不超过3s，但不少于头部数据；
+ * 4. 链路空闲时下一个视频（TIER_EXTENDED）扩大到约8s的播放数据，码率未知时为512KB。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-06-24
+ */
+public class DefaultPreLoadSizeAdapter implements ITieredPreLoadSizeAdapter {
+
+    public static final long HEADER_BYTES = 64 * 1024;
+    public static final long DEFAULT_NEXT_BYTES = 100 * 1024;
+    public static final long DEFAULT_EXTENDED_BYTES = 512 * 1024;
+
+    private static final long NEXT_PLAY_SECONDS = 2;
+    private static final long EXTENDED_PLAY_SECONDS = 8;
+    private static final long MAX_LOAD_SECONDS = 3;
+
+    private final int mFirstSegmentCount;
+
+    public DefaultPreLoadSizeAdapter() {
+        this(1);
+    }
+
+    /**
+     * @param firstSegmentCount 当前播放位置之后多少个视频预加载开头几秒，其余只预加载头部
+     * */
+    public DefaultPreLoadSizeAdapter(int firstSegmentCount) {
+        if (firstSegmentCount < 0) {
+            throw new IllegalArgumentException("firstSegmentCount should not be negative");
+        }
+        mFirstSegmentCount = firstSegmentCount;
+    }
+
+    @Override
+    public int getTier(int distance) {
+        return distance >= 1 && distance <= mFirstSegmentCount ? TIER_FIRST_SEGMENT : TIER_HEADER;
+    }
+
+    @Override
+    public long getPreLoadBytes(int distance, long bytesPerSecond, PreLoadHint hint) {
+        long bytes;
+        if (getTier(distance) == TIER_FIRST_SEGMENT) {
+            long playBytesPerSecond = hint != null ? hint.getBytesPerSecond() : -1;
+            bytes = playBytesPerSecond > 0 ? HEADER_BYTES + playBytesPerSecond * NEXT_PLAY_SECONDS : DEFAULT_NEXT_BYTES;
+            if (bytesPerSecond > 0) {
+                bytes = Math.max(HEADER_BYTES, Math.min(bytes, bytesPerSecond * MAX_LOAD_SECONDS));
+            }
+        } else {
+            bytes = HEADER_BYTES;
+        }
+
+        return limitToSize(bytes, hint);
+    }
+
+    /**
+     * 链路空闲时才会扩展，不按带宽限制
+     * */
+    @Override
+    public long getExtendedBytes(long bytesPerSecond, PreLoadHint hint) {
+        long playBytesPerSecond = hint != null ? hint.getBytesPerSecond() : -1;
+        long bytes = playBytesPerSecond > 0 ? HEADER_BYTES + playBytesPerSecond * EXTENDED_PLAY_SECONDS : DEFAULT_EXTENDED_BYTES;
+        return limitToSize(bytes, hint);
+    }
+
+    private static long limitToSize(long bytes, PreLoadHint hint) {
+        if (hint != null && hint.size > 0) {
+            bytes = Math.min(bytes, hint.size);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,24 @@
+package com.gibbon.videopreload.adapter;
+
+/**
+ * 默认窗口【mCurrentIndex - 3， mCurrentIndex + 4】，与滑动方向和带宽无关
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-06-23
+ */
+public class DefaultPreLoadWindowAdapter implements IPreLoadWindowAdapter {
+
+    @Override
+    public void onPlayIndexChanged(int lastIndex, int currentIndex, long timeMillis) {
+    }
+
+    @Override
+    public int getBackwardCount(long bytesPerSecond) {
+        return 3;
+    }
+
+    @Override
+    public int getForwardCount(long bytesPerSecond) {
+        return 4;
+    }
+}
@@ -0,0 +1,73 @@
+package com.gibbon.videopreload.adapter;
+
+/**
+ * 根据滑动方向和速度调整的预加载窗口：
+ * 1. 窗口偏向滑动方向，反方向只保留少量；
+ * 2. 快速滑动（fling）时扩大滑动方向的窗口；
+ * 3. 带宽较差时缩小窗口，只预加载滑动方向上最近的几个。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-06-23
+ */
+public class DirectionalPreLoadWindowAdapter implements IPreLoadWindowAdapter {
+
+    private static final int AHEAD_COUNT = 4;
+    private static final int BEHIND_COUNT = 1;
+    private static final int MAX_FLING_EXTRA_COUNT = 4;
+
+    /**
+     * 每秒滑过超过2个视频视为fling
+     * */
+    private static final float FLING_ITEMS_PER_SECOND = 2f;
+    private static final long POOR_BANDWIDTH = 200 * 1024;
+
+    private volatile boolean mForward = true;
+    private volatile float mItemsPerSecond;
+    private long mLastTimeMillis = -1;
+
+    @Override
+    public void onPlayIndexChanged(int lastIndex, int currentIndex, long timeMillis) {
+        if (lastIndex < 0 || lastIndex == currentIndex) {
+            mLastTimeMillis = timeMillis;
+            return;
+        }
+
+        mForward = currentIndex > lastIndex;
+        if (mLastTimeMillis > 0 && timeMillis > mLastTimeMillis) {
+            float itemsPerSecond = Math.abs(currentIndex - lastIndex) * 1000f / (timeMillis - mLastTimeMillis);
+            // 平滑处理，避免单次误触导致窗口抖动
+            mItemsPerSecond = mItemsPerSecond * 0.5f + itemsPerSecond * 0.5f;
+        }
+        mLastTimeMillis = timeMillis;
+    }
+
+    @Override
+    public int getBackwardCount(long bytesPerSecond) {
+        return mForward ? behindCount(bytesPerSecond) : aheadCount(bytesPerSecond);
+    }
+
+    @Override
+    public int getForwardCount(long bytesPerSecond) {
+        return mForward ? aheadCount(bytesPerSecond) : behindCount(bytesPerSecond);
+    }
+
+    private int aheadCount(long bytesPerSecond) {
+        int count = AHEAD_COUNT;
+        if (mItemsPerSecond > FLING_ITEMS_PER_SECOND) {
+            count += Math.min(MAX_FLING_EXTRA_COUNT, (int) (mItemsPerSecond / FLING_ITEMS_PER_SECOND));
+        }
+
+        if (isPoorBandwidth(bytesPerSecond)) {
+            count = Math.max(1, count / 2);
+        }
+        return count;
+    }
+
+    private int behindCount(long bytesPerSecond) {
+        return isPoorBandwidth(bytesPerSecond) ? 0 : BEHIND_COUNT;
+    }
+
+    private boolean isPoorBandwidth(long bytesPerSecond) {
+        return bytesPerSecond > 0 && bytesPerSecond < POOR_BANDWIDTH;
+    }
+}
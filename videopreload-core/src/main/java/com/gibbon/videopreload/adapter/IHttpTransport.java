@@ -0,0 +1,30 @@
+package com.gibbon.videopreload.adapter;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * 预加载使用的HTTP传输层，可以替换成自己的实现（例如基于OkHttp共享App的连接池）
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-20
+ */
+public interface IHttpTransport {
+
+    /**
+     * 发起[from, to)的Range请求并完成连接
+     * */
+    HttpURLConnection open(String url, long from, long to) throws IOException;
+
+    /**
+     * 每个{@link #open(String, long, long)}返回的连接结束后都要调用一次
+     *
+     * @param reusable 响应已经完整读完，连接可以留给下一个请求复用
+     * */
+    void release(HttpURLConnection connection, boolean reusable);
+
+    /**
+     * 提前建立到url所在host的连接，在列表刚加载时调用，不能阻塞调用线程
+     * */
+    void warmUp(String url);
+}
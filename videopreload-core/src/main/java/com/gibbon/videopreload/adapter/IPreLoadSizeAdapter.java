@@ -0,0 +1,20 @@
+package com.gibbon.videopreload.adapter;
+
+import com.gibbon.videopreload.PreLoadHint;
+
+/**
+ * 预加载字节数策略，决定每个预加载任务下载多少数据
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-06-24
+ */
+public interface IPreLoadSizeAdapter {
+
+    /**
+     * @param distance 与当前播放位置的距离，负数表示在当前播放位置之前
+     * @param bytesPerSecond 当前估算的下载带宽，未知时为-1
+     * @param hint 通过addUrls传入的码率/时长信息，可能为null
+     * @return 需要预加载的字节数
+     * */
+    long getPreLoadBytes(int distance, long bytesPerSecond, PreLoadHint hint);
+}
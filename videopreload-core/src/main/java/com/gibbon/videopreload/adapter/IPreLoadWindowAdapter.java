@@ -0,0 +1,31 @@
+package com.gibbon.videopreload.adapter;
+
+/**
+ * 预加载窗口策略，决定当前播放位置前后各预加载多少个视频
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-06-23
+ */
+public interface IPreLoadWindowAdapter {
+
+    /**
+     * 播放位置发生变化时回调
+     *
+     * @param lastIndex 上一次播放的位置，首次播放为-1
+     * @param currentIndex 当前播放的位置
+     * @param timeMillis 播放位置变化的时间，单调递增的毫秒数，与系统时间无关
+     * */
+    void onPlayIndexChanged(int lastIndex, int currentIndex, long timeMillis);
+
+    /**
+     * @param bytesPerSecond 当前估算的下载带宽，未知时为-1
+     * @return 当前播放位置之前（index更小）需要预加载的个数
+     * */
+    int getBackwardCount(long bytesPerSecond);
+
+    /**
+     * @param bytesPerSecond 当前估算的下载带宽，未知时为-1
+     * @return 当前播放位置之后（index更大）需要预加载的个数
+     * */
+    int getForwardCount(long bytesPerSecond);
+}
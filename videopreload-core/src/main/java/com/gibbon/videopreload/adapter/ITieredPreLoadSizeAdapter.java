@@ -0,0 +1,36 @@
+package com.gibbon.videopreload.adapter;
+
+import com.gibbon.videopreload.PreLoadHint;
+
+/**
+ * 分层的预加载字节数策略：
+ * 1. {@link #TIER_HEADER}：窗口内的视频只预加载容器头部；
+ * 2. {@link #TIER_FIRST_SEGMENT}：离播放位置最近的几个视频预加载开头几秒；
+ * 3. {@link #TIER_EXTENDED}：当前视频正常播放、预加载任务都结束之后，继续扩大下一个视频的缓冲。
+ *
+ * 播放位置移动时视频所在的层级随距离变化，升级的任务从已下载的位置继续下载到新的字节数
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-07
+ */
+public interface ITieredPreLoadSizeAdapter extends IPreLoadSizeAdapter {
+
+    int TIER_HEADER = 0;
+    int TIER_FIRST_SEGMENT = 1;
+    int TIER_EXTENDED = 2;
+
+    /**
+     * @param distance 与当前播放位置的距离，负数表示在当前播放位置之前
+     * @return 窗口内该位置的层级，TIER_HEADER或TIER_FIRST_SEGMENT
+     * */
+    int getTier(int distance);
+
+    /**
+     * 下一个视频在{@link #TIER_EXTENDED}需要预加载的字节数
+     *
+     * @param bytesPerSecond 当前估算的下载带宽，未知时为-1
+     * @param hint 通过addUrls传入的码率/时长信息，可能为null
+     * @return 小于等于0表示不扩展
+     * */
+    long getExtendedBytes(long bytesPerSecond, PreLoadHint hint);
+}
@@ -0,0 +1,201 @@
+package com.gibbon.videopreload.cache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于{@link CacheIndex}的缓存淘汰，替代AndroidVideoCache自带的LRU，
+ * 缓存总大小超过配额时按以下顺序删除：
+ * 1. 长时间没有访问的预加载残留（.download文件）；
+ * 2. 完整的缓存文件，最久没有访问的先删除；
+ * 3. 最近的预加载残留。
+ *
+ * 预加载窗口内的文件（由{@link ProtectionPolicy}决定）以及最近刚访问过、可能正在被读写的文件不会被删除。
+ * 淘汰在单独的线程上分批执行，每批最多删除{@link #MAX_EVICT_PER_PASS}个文件。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-27
+ */
+public class CacheEvictor {
+
+    public static final long DEFAULT_MAX_BYTES = 512 * 1024 * 1024;
+
+    /**
+     * 超过这个时间没有访问的预加载残留优先删除
+     * */
+    public static final long STALE_PARTIAL_MILLIS = 30 * 60 * 1000;
+
+    /**
+     * 这个时间内访问过的文件可能还被代理打开着，不删除
+     * */
+    public static final long IN_USE_MILLIS = 30 * 1000;
+
+    static final int MAX_EVICT_PER_PASS = 8;
+
+    private static final int RANK_STALE_PARTIAL = 0;
+    private static final int RANK_COMPLETE = 1;
+    private static final int RANK_PARTIAL = 2;
+
+    public interface ProtectionPolicy {
+        /**
+         * @param key 缓存文件名（不带.download后缀）
+         * @return 不能删除时返回true
+         * */
+        boolean isProtected(String key);
+    }
+
+    private final File mCacheDir;
+    private final CacheIndex mCacheIndex;
+    private final ProtectionPolicy mProtectionPolicy;
+    private volatile long mMaxBytes = DEFAULT_MAX_BYTES;
+    private final AtomicBoolean mTrimScheduled = new AtomicBoolean();
+    private ExecutorService mExecutor;
+
+    public CacheEvictor(File cacheDir, CacheIndex cacheIndex, ProtectionPolicy protectionPolicy) {
+        mCacheDir = cacheDir;
+        mCacheIndex = cacheIndex;
+        mProtectionPolicy = protectionPolicy;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes should be positive");
+        }
+        mMaxBytes = maxBytes;
+        requestTrim();
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * 在淘汰线程上检查一次配额，已经在等待执行时不重复提交
+     * */
+    public void requestTrim() {
+        if (!mTrimScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                mTrimScheduled.set(false);
+                if (mCacheIndex.isReady() && trim(System.currentTimeMillis()) == MAX_EVICT_PER_PASS) {
+                    // 这一批删满了，可能还超出配额，下一批重新排队，不长时间占用线程
+                    requestTrim();
+                }
+            }
+        });
+    }
+
+    /**
+     * 删除一批文件，直到总大小不超过配额或者这一批删满
+     *
+     * @return 删除的缓存数量
+     * */
+    public int trim(long now) {
+        long total = 0;
+        List<Candidate> candidates = new ArrayList<>();
+        for (Map.Entry<String, CacheIndex.Entry> item : mCacheIndex.getEntries().entrySet()) {
+            CacheIndex.Entry entry = item.getValue();
+            // 先读出来，避免排序过程中被其他线程修改
+            long size = entry.size;
+            long lastAccess = entry.lastAccess;
+            boolean complete = entry.complete;
+            total += size;
+            if (now - lastAccess < IN_USE_MILLIS || mProtectionPolicy.isProtected(item.getKey())) {
+                continue;
+            }
+
+            int rank = complete ? RANK_COMPLETE : (now - lastAccess >= STALE_PARTIAL_MILLIS ? RANK_STALE_PARTIAL : RANK_PARTIAL);
+            candidates.add(new Candidate(item.getKey(), size, lastAccess, rank));
+        }
+
+        long maxBytes = mMaxBytes;
+        if (total <= maxBytes) {
+            return 0;
+        }
+
+        Collections.sort(candidates, CANDIDATE_ORDER);
+        int evicted = 0;
+        for (int i = 0; i < candidates.size() && total > maxBytes && evicted < MAX_EVICT_PER_PASS; i++) {
+            Candidate candidate = candidates.get(i);
+            if (delete(candidate.key)) {
+                total -= candidate.size;
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    private boolean delete(String key) {
+        File complete = new File(mCacheDir, key);
+        File partial = new File(mCacheDir, key + CacheFileWriter.TEMP_POSTFIX);
+        boolean deleted = false;
+        if (complete.exists()) {
+            deleted = complete.delete();
+        }
+        if (partial.exists()) {
+            deleted |= partial.delete();
+        }
+
+        if (deleted || (!complete.exists() && !partial.exists())) {
+            mCacheIndex.remove(key + CacheFileWriter.TEMP_POSTFIX);
+            mCacheIndex.remove(key);
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized ExecutorService executor() {
+        if (mExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "preload-cache-evict");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            mExecutor = executor;
+        }
+        return mExecutor;
+    }
+
+    private static class Candidate {
+        final String key;
+        final long size;
+        final long lastAccess;
+        final int rank;
+
+        Candidate(String key, long size, long lastAccess, int rank) {
+            this.key = key;
+            this.size = size;
+            this.lastAccess = lastAccess;
+            this.rank = rank;
+        }
+    }
+
+    private static final Comparator<Candidate> CANDIDATE_ORDER = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate c1, Candidate c2) {
+            if (c1.rank != c2.rank) {
+                return c1.rank < c2.rank ? -1 : 1;
+            }
+            return c1.lastAccess < c2.lastAccess ? -1 : (c1.lastAccess == c2.lastAccess ? 0 : 1);
+        }
+    };
+}
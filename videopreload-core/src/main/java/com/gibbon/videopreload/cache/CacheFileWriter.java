@@ -0,0 +1,89 @@
+package com.gibbon.videopreload.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 按AndroidVideoCache的文件布局直接写缓存：未下载完的数据写在"文件名.download"中，
+ * 下载完整后重命名为正式的文件名。
+ *
+ * AndroidVideoCache把.download文件的长度当作已缓存的字节数，播放时会从这个位置继续下载，
+ * 所以这里只能从文件末尾开始连续写入。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-01
+ */
+public class CacheFileWriter {
+
+    public static final String TEMP_POSTFIX = ".download";
+
+    private final File mCompleteFile;
+    private final File mTempFile;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private ByteBuffer mByteBuffer;
+    private long mPosition;
+
+    public CacheFileWriter(File cacheDir, String fileName) {
+        mCompleteFile = new File(cacheDir, fileName);
+        mTempFile = new File(cacheDir, fileName + TEMP_POSTFIX);
+    }
+
+    /**
+     * @return 已经缓存完整时返回false，不需要再写入
+     * */
+    public boolean open() throws IOException {
+        if (mCompleteFile.exists()) {
+            return false;
+        }
+
+        mRandomAccessFile = new RandomAccessFile(mTempFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        mPosition = mChannel.size();
+        return true;
+    }
+
+    /**
+     * 已经缓存的字节数，下一次请求从这里开始
+     * */
+    public long getPosition() {
+        return mPosition;
+    }
+
+    public void write(byte[] buffer, int length) throws IOException {
+        if (mByteBuffer == null || mByteBuffer.array() != buffer) {
+            mByteBuffer = ByteBuffer.wrap(buffer);
+        }
+
+        mByteBuffer.clear();
+        mByteBuffer.limit(length);
+        while (mByteBuffer.hasRemaining()) {
+            mPosition += mChannel.write(mByteBuffer, mPosition);
+        }
+    }
+
+    /**
+     * @param totalLength 文件总长度，未知时为-1；写满时重命名为正式文件，与AndroidVideoCache的FileCache.complete()一致
+     * @return 最终的缓存文件
+     * */
+    public File close(long totalLength) {
+        try {
+            if (mChannel != null) {
+                mChannel.close();
+            }
+            if (mRandomAccessFile != null) {
+                mRandomAccessFile.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+
+        if (totalLength > 0 && mPosition == totalLength && mTempFile.renameTo(mCompleteFile)) {
+            return mCompleteFile;
+        }
+        return mTempFile;
+    }
+}
@@ -0,0 +1,153 @@
+package com.gibbon.videopreload.cache;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * video-cache目录的内存索引，启动时扫描一次目录，之后由预加载的写入以及目录监听更新，
+ * 查询缓存状态不再访问文件系统。
+ *
+ * key为AndroidVideoCache的缓存文件名（不带.download后缀）
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-03
+ */
+public class CacheIndex {
+
+    /**
+     * 完整的缓存文件小于这个大小时认为无效，与原来的判断保持一致
+     * */
+    public static final long MIN_COMPLETE_BYTES = 1024;
+
+    private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private volatile boolean mReady = false;
+
+    public static class Entry {
+        public volatile long size;
+        public volatile boolean complete;
+        public volatile long lastAccess;
+        /**
+         * 从预加载日志恢复、还没有被目录扫描确认的记录
+         * */
+        volatile boolean restored;
+    }
+
+    /**
+     * 扫描缓存目录，建立索引
+     * */
+    public void scan(File cacheDir) {
+        File[] files = cacheDir != null ? cacheDir.listFiles() : null;
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    update(file.getName(), file.length(), file.lastModified());
+                }
+            }
+        }
+
+        // 日志里有但目录里已经没有的文件
+        for (Map.Entry<String, Entry> item : mEntries.entrySet()) {
+            if (item.getValue().restored) {
+                mEntries.remove(item.getKey(), item.getValue());
+            }
+        }
+        mReady = true;
+    }
+
+    /**
+     * 扫描目录之前先用预加载日志的记录填充索引，扫描完成时以目录为准，
+     * 已经存在的记录不会被覆盖
+     *
+     * @param key 缓存文件名（不带.download后缀）
+     * @param bytes 已经预加载的字节数，按未下载完成处理
+     * */
+    public void restore(String key, long bytes, long lastAccess) {
+        Entry entry = new Entry();
+        entry.size = bytes;
+        entry.complete = false;
+        entry.lastAccess = lastAccess;
+        entry.restored = true;
+        mEntries.putIfAbsent(key, entry);
+    }
+
+    /**
+     * 扫描完成之前索引不完整，需要回退到文件系统查询
+     * */
+    public boolean isReady() {
+        return mReady;
+    }
+
+    /**
+     * @param fileName 缓存目录下的文件名，可以带.download后缀
+     * */
+    public void update(String fileName, long size, long lastAccess) {
+        boolean complete = !fileName.endsWith(CacheFileWriter.TEMP_POSTFIX);
+        String key = complete ? fileName : fileName.substring(0, fileName.length() - CacheFileWriter.TEMP_POSTFIX.length());
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            Entry old = mEntries.putIfAbsent(key, entry);
+            if (old != null) {
+                entry = old;
+            }
+        }
+
+        if (!complete && entry.complete) {
+            // 完整文件已经存在，忽略残留的临时文件
+            return;
+        }
+        entry.size = size;
+        entry.complete = complete;
+        entry.lastAccess = lastAccess;
+        entry.restored = false;
+    }
+
+    /**
+     * @param fileName 缓存目录下的文件名，可以带.download后缀
+     * */
+    public void remove(String fileName) {
+        if (fileName.endsWith(CacheFileWriter.TEMP_POSTFIX)) {
+            String key = fileName.substring(0, fileName.length() - CacheFileWriter.TEMP_POSTFIX.length());
+            Entry entry = mEntries.get(key);
+            // 临时文件被重命名为完整文件时，不能删掉完整文件的记录
+            if (entry != null && !entry.complete) {
+                mEntries.remove(key, entry);
+            }
+        } else {
+            mEntries.remove(fileName);
+        }
+    }
+
+    public Entry get(String key) {
+        return mEntries.get(key);
+    }
+
+    public boolean isComplete(String key) {
+        Entry entry = mEntries.get(key);
+        return entry != null && entry.complete && entry.size > MIN_COMPLETE_BYTES;
+    }
+
+    /**
+     * @param enoughBytes 未下载完成时至少需要的字节数
+     * */
+    public boolean hasEnoughCache(String key, long enoughBytes) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        return entry.complete ? entry.size > MIN_COMPLETE_BYTES : entry.size >= enoughBytes;
+    }
+
+    /**
+     * @return 已经缓存的字节数，没有缓存返回0
+     * */
+    public long getCachedBytes(String key) {
+        Entry entry = mEntries.get(key);
+        return entry != null ? entry.size : 0;
+    }
+
+    public Map<String, Entry> getEntries() {
+        return mEntries;
+    }
+}
@@ -0,0 +1,178 @@
+package com.gibbon.videopreload.cache;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * url到缓存key（md5）以及缓存文件名的计算，结果与AndroidVideoCache的Md5FileNameGenerator一致。
+ *
+ * 1. 每个线程复用一个MessageDigest以及输入/输出缓冲，ASCII的url计算时不产生临时对象；
+ * 2. 最近使用的url缓存计算结果，同一个url在一次会话中只计算一次。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-06
+ */
+public class CacheKeyGenerator {
+
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+
+    /**
+     * 与Md5FileNameGenerator保持一致
+     * */
+    private static final int MAX_EXTENSION_LENGTH = 4;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static volatile CacheKeyGenerator sDefault;
+
+    private final ThreadLocal<Md5Context> mMd5Context = new ThreadLocal<Md5Context>() {
+        @Override
+        protected Md5Context initialValue() {
+            return new Md5Context();
+        }
+    };
+    private final LruCache mKeys;
+    private final LruCache mFileNames;
+
+    public CacheKeyGenerator(int maxEntries) {
+        mKeys = new LruCache(maxEntries);
+        mFileNames = new LruCache(maxEntries);
+    }
+
+    public static CacheKeyGenerator getDefault() {
+        if (sDefault == null) {
+            synchronized (CacheKeyGenerator.class) {
+                if (sDefault == null) {
+                    sDefault = new CacheKeyGenerator(DEFAULT_MAX_ENTRIES);
+                }
+            }
+        }
+        return sDefault;
+    }
+
+    /**
+     * @return url的md5，32位小写十六进制
+     * */
+    public String md5(String url) {
+        String key;
+        synchronized (mKeys) {
+            key = mKeys.get(url);
+        }
+        if (key != null) {
+            return key;
+        }
+
+        key = computeMd5(url);
+        synchronized (mKeys) {
+            mKeys.put(url, key);
+        }
+        return key;
+    }
+
+    /**
+     * @return AndroidVideoCache中url对应的缓存文件名：md5加上url的扩展名
+     * */
+    public String fileName(String url) {
+        String name;
+        synchronized (mFileNames) {
+            name = mFileNames.get(url);
+        }
+        if (name != null) {
+            return name;
+        }
+
+        String key = md5(url);
+        int dotIndex = url.lastIndexOf('.');
+        int slashIndex = url.lastIndexOf('/');
+        // 以'.'结尾时扩展名为空，Md5FileNameGenerator只用md5
+        if (dotIndex != -1 && dotIndex > slashIndex && dotIndex + 2 + MAX_EXTENSION_LENGTH > url.length()
+                && dotIndex < url.length() - 1) {
+            name = key + "." + url.substring(dotIndex + 1);
+        } else {
+            name = key;
+        }
+
+        synchronized (mFileNames) {
+            mFileNames.put(url, name);
+        }
+        return name;
+    }
+
+    /**
+     * 不经过缓存直接计算md5
+     * */
+    public String computeMd5(String text) {
+        Md5Context context = mMd5Context.get();
+        MessageDigest digest = context.digest;
+        int length = text.length();
+        if (context.input.length < length) {
+            context.input = new byte[Math.max(length, context.input.length * 2)];
+        }
+
+        byte[] input = context.input;
+        boolean ascii = true;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                ascii = false;
+                break;
+            }
+            input[i] = (byte) c;
+        }
+
+        if (ascii) {
+            digest.update(input, 0, length);
+        } else {
+            digest.update(text.getBytes(UTF_8));
+        }
+
+        byte[] output = context.output;
+        try {
+            digest.digest(output, 0, output.length);
+        } catch (Exception e) {
+            // 16字节的缓冲不会出现这种情况
+            digest.reset();
+            return null;
+        }
+
+        char[] hex = context.hex;
+        for (int i = 0; i < output.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(output[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX_DIGITS[output[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    private static class Md5Context {
+        final MessageDigest digest;
+        byte[] input = new byte[256];
+        final byte[] output = new byte[16];
+        final char[] hex = new char[32];
+
+        Md5Context() {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("MD5 not supported", e);
+            }
+        }
+    }
+
+    private static class LruCache extends LinkedHashMap<String, String> {
+
+        private final int mMaxEntries;
+
+        LruCache(int maxEntries) {
+            super(16, 0.75f, true);
+            mMaxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > mMaxEntries;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.gibbon.videopreload.cache;
+
+import java.io.File;
+
+/**
+ * 判断视频是否已经有足够的缓存：索引扫描完成后只查{@link CacheIndex}，
+ * 扫描完成之前索引里（预加载日志恢复的）足够的记录直接使用，其余的查询文件系统
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-30
+ */
+public class CacheLookup {
+
+    public static final long DEFAULT_ENOUGH_CACHE_BYTES = 102400;
+
+    private final CacheIndex mIndex;
+    private final File mCacheRoot;
+
+    public CacheLookup(CacheIndex index, File cacheRoot) {
+        mIndex = index;
+        mCacheRoot = cacheRoot;
+    }
+
+    /**
+     * @param key 缓存文件名
+     * @param enoughBytes 未下载完成的缓存至少需要的字节数
+     * */
+    public boolean hasEnoughCache(String key, long enoughBytes) {
+        if (!mIndex.isReady()) {
+            return mIndex.hasEnoughCache(key, enoughBytes) || hasEnoughCacheOnDisk(mCacheRoot, key, enoughBytes);
+        }
+
+        return mIndex.hasEnoughCache(key, enoughBytes);
+    }
+
+    /**
+     * 直接查询文件系统，完整的缓存文件需要大于{@link CacheIndex#MIN_COMPLETE_BYTES}
+     * */
+    public static boolean hasEnoughCacheOnDisk(File cacheRoot, String key, long enoughBytes) {
+        if (cacheRoot == null || key == null || key.length() == 0) {
+            return false;
+        }
+
+        try {
+            File file = new File(cacheRoot, key);
+            if (file.exists() && file.canRead() && file.length() > CacheIndex.MIN_COMPLETE_BYTES) {
+                return true;
+            }
+
+            file = new File(cacheRoot, key + CacheFileWriter.TEMP_POSTFIX);
+            if (file.exists() && file.canRead() && file.length() >= enoughBytes) {
+                return true;
+            }
+        } catch (Throwable e) {
+        }
+        return false;
+    }
+}
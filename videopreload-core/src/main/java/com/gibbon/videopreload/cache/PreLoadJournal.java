@@ -0,0 +1,361 @@
+package com.gibbon.videopreload.cache;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 预加载记录的追加日志，进程重启后回放，恢复每个视频预加载到的位置以及是否被播放过。
+ *
+ * 文件格式：4字节魔数，之后是连续的记录[type(1) key(UTF) bytes(8) timestamp(8)]。
+ * 记录先写到内存，满{@link #FLUSH_RECORDS}条或者{@link #FLUSH_DELAY_MILLIS}之后由后台线程批量追加到文件，
+ * 进程被杀时最多丢失最后一批；文件末尾不完整的记录回放时忽略。
+ * 文件中的记录数超过有效记录的两倍时重写文件，每个视频只保留一条，最多保留{@link #MAX_ENTRIES}个视频。
+ * 文件读写都在mFile的锁内，加锁顺序为mFile、this。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-29
+ */
+public class PreLoadJournal {
+
+    public static final int MAX_ENTRIES = 1024;
+
+    static final int FLUSH_RECORDS = 32;
+    static final long FLUSH_DELAY_MILLIS = 5000;
+
+    /**
+     * 记录数少于这个值时不压缩
+     * */
+    private static final int MIN_COMPACT_RECORDS = 256;
+
+    private static final int MAGIC = 0x504c4a31;
+
+    private static final byte TYPE_PRELOAD = 1;
+    private static final byte TYPE_PLAYED = 2;
+    private static final byte TYPE_REMOVED = 3;
+
+    public static class Record {
+        public final String key;
+        /**
+         * 预加载到的字节数
+         * */
+        public long bytes;
+        public long timestamp;
+        /**
+         * 预加载之后是否被播放过
+         * */
+        public boolean played;
+
+        Record(String key) {
+            this.key = key;
+        }
+
+        Record copy() {
+            Record record = new Record(key);
+            record.bytes = bytes;
+            record.timestamp = timestamp;
+            record.played = played;
+            return record;
+        }
+    }
+
+    private final File mFile;
+
+    /**
+     * 按访问顺序排列，超过MAX_ENTRIES时淘汰最久没有更新的视频
+     * */
+    private final LinkedHashMap<String, Record> mRecords = new LinkedHashMap<String, Record>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final ByteArrayOutputStream mPending = new ByteArrayOutputStream(1024);
+    private final DataOutputStream mPendingOut = new DataOutputStream(mPending);
+    private int mPendingCount;
+    private boolean mFlushScheduled;
+    private int mFileRecords;
+    private ScheduledExecutorService mExecutor;
+
+    public PreLoadJournal(File file) {
+        mFile = file;
+    }
+
+    /**
+     * 读取日志文件，重建内存中的记录，启动时在子线程调用一次
+     *
+     * @return 回放之后每个视频的最新记录
+     * */
+    public List<Record> replay() {
+        synchronized (mFile) {
+            return replayLocked();
+        }
+    }
+
+    private List<Record> replayLocked() {
+        int fileRecords = 0;
+        synchronized (this) {
+            mRecords.clear();
+        }
+
+        if (mFile.exists()) {
+            DataInputStream in = null;
+            boolean valid = false;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+                valid = in.readInt() == MAGIC;
+                if (valid) {
+                    while (true) {
+                        byte type = in.readByte();
+                        String key = in.readUTF();
+                        long bytes = in.readLong();
+                        long timestamp = in.readLong();
+                        synchronized (this) {
+                            apply(type, key, bytes, timestamp);
+                        }
+                        fileRecords++;
+                    }
+                }
+            } catch (EOFException e) {
+                // 读到文件末尾，或者最后一条记录没有写完
+            } catch (IOException e) {
+                // 文件损坏时保留已经读到的记录，压缩时重写
+                fileRecords = Integer.MAX_VALUE;
+            } finally {
+                closeQuietly(in);
+            }
+
+            if (!valid) {
+                // 不是日志文件，之后从头写入
+                mFile.delete();
+            }
+        }
+
+        synchronized (this) {
+            mFileRecords = fileRecords;
+            if (needCompact()) {
+                compact();
+            }
+            List<Record> records = new ArrayList<>(mRecords.size());
+            for (Record record : mRecords.values()) {
+                records.add(record.copy());
+            }
+            return records;
+        }
+    }
+
+    public void recordPreload(String key, long bytes, long now) {
+        append(TYPE_PRELOAD, key, bytes, now);
+    }
+
+    public void recordPlayed(String key, long now) {
+        append(TYPE_PLAYED, key, 0, now);
+    }
+
+    public void recordRemoved(String key) {
+        append(TYPE_REMOVED, key, 0, 0);
+    }
+
+    /**
+     * 删除不在keys中的记录，例如缓存文件已经被删除
+     * */
+    public void retain(Set<String> keys) {
+        List<String> removed = new ArrayList<>();
+        synchronized (this) {
+            for (String key : mRecords.keySet()) {
+                if (!keys.contains(key)) {
+                    removed.add(key);
+                }
+            }
+        }
+        for (String key : removed) {
+            recordRemoved(key);
+        }
+    }
+
+    public synchronized Record get(String key) {
+        Record record = mRecords.get(key);
+        return record != null ? record.copy() : null;
+    }
+
+    public synchronized int size() {
+        return mRecords.size();
+    }
+
+    /**
+     * 把内存中的记录写入文件，在后台线程上调用
+     * */
+    public void flush() {
+        synchronized (mFile) {
+            flushLocked();
+        }
+    }
+
+    private void flushLocked() {
+        byte[] data;
+        synchronized (this) {
+            mFlushScheduled = false;
+            if (mPendingCount == 0) {
+                return;
+            }
+            data = mPending.toByteArray();
+            mFileRecords += mPendingCount;
+            mPending.reset();
+            mPendingCount = 0;
+        }
+
+        FileOutputStream out = null;
+        try {
+            boolean header = !mFile.exists() || mFile.length() == 0;
+            out = new FileOutputStream(mFile, true);
+            if (header) {
+                writeMagic(out);
+            }
+            out.write(data);
+        } catch (IOException e) {
+            // 写失败只影响下次启动的回放
+        } finally {
+            closeQuietly(out);
+        }
+
+        synchronized (this) {
+            if (needCompact()) {
+                compact();
+            }
+        }
+    }
+
+    private void append(byte type, String key, long bytes, long timestamp) {
+        if (key == null) {
+            return;
+        }
+
+        boolean flushNow;
+        synchronized (this) {
+            apply(type, key, bytes, timestamp);
+            try {
+                writeRecord(mPendingOut, type, key, bytes, timestamp);
+            } catch (IOException e) {
+                // ByteArrayOutputStream不会抛出IOException
+                return;
+            }
+            mPendingCount++;
+            flushNow = mPendingCount >= FLUSH_RECORDS;
+            if (!flushNow && mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = true;
+        }
+
+        executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushNow ? 0 : FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void apply(byte type, String key, long bytes, long timestamp) {
+        if (type == TYPE_REMOVED) {
+            mRecords.remove(key);
+            return;
+        }
+
+        Record record = mRecords.get(key);
+        if (record == null) {
+            record = new Record(key);
+            mRecords.put(key, record);
+        }
+        if (type == TYPE_PRELOAD) {
+            record.bytes = Math.max(record.bytes, bytes);
+        } else if (type == TYPE_PLAYED) {
+            record.played = true;
+        }
+        record.timestamp = Math.max(record.timestamp, timestamp);
+    }
+
+    private boolean needCompact() {
+        return mFileRecords > MIN_COMPACT_RECORDS && mFileRecords > mRecords.size() * 2;
+    }
+
+    /**
+     * 每个视频写一条记录到临时文件再替换原文件，调用时持有mFile和this的锁，还没写入文件的记录留给下一次flush
+     * */
+    private void compact() {
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(temp));
+            out.writeInt(MAGIC);
+            Iterator<Record> iterator = mRecords.values().iterator();
+            while (iterator.hasNext()) {
+                Record record = iterator.next();
+                writeRecord(out, TYPE_PRELOAD, record.key, record.bytes, record.timestamp);
+                if (record.played) {
+                    writeRecord(out, TYPE_PLAYED, record.key, 0, record.timestamp);
+                }
+            }
+            out.close();
+            out = null;
+            if (temp.renameTo(mFile)) {
+                mFileRecords = mRecords.size();
+            }
+        } catch (IOException e) {
+            temp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, String key, long bytes, long timestamp) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(key);
+        out.writeLong(bytes);
+        out.writeLong(timestamp);
+    }
+
+    private static void writeMagic(FileOutputStream out) throws IOException {
+        out.write(new byte[]{(byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC});
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private synchronized ScheduledExecutorService executor() {
+        if (mExecutor == null) {
+            mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "preload-journal");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mExecutor;
+    }
+}
@@ -0,0 +1,178 @@
+package com.gibbon.videopreload.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 首帧耗时（TTFF）统计：记录开始播放时视频的缓存状态，首帧渲染时按缓存状态和预加载大小分桶记录耗时，
+ * 用于调整预加载窗口和预加载字节数。
+ *
+ * 分桶：未缓存、部分缓存（按已缓存字节数分为{@link #PARTIAL_SIZE_BOUNDS}几档）、完整缓存
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-03
+ */
+public class FirstFrameTracker {
+
+    public static final int STATE_NOT_CACHED = 0;
+    public static final int STATE_PARTIAL = 1;
+    public static final int STATE_COMPLETE = 2;
+
+    /**
+     * 部分缓存按已缓存字节数分档的上界（不包含），最后一档为超过最大上界
+     * */
+    public static final long[] PARTIAL_SIZE_BOUNDS = {64 * 1024, 256 * 1024, 1024 * 1024};
+
+    /**
+     * 播放器没有回调首帧的请求最多保留的数量
+     * */
+    private static final int MAX_PENDING = 16;
+
+    private static final int BUCKET_COUNT = 1 + PARTIAL_SIZE_BOUNDS.length + 1 + 1;
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[BUCKET_COUNT];
+
+    private final LinkedHashMap<String, FirstFrame> mPending = new LinkedHashMap<String, FirstFrame>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FirstFrame> eldest) {
+            return size() > MAX_PENDING;
+        }
+    };
+
+    /**
+     * 一次播放的首帧耗时以及开始播放时的缓存状态
+     * */
+    public static class FirstFrame {
+        int state;
+        long cachedBytes;
+        long requestMillis;
+        long ttffMillis = -1;
+
+        /**
+         * @return STATE_*
+         * */
+        public int getState() {
+            return state;
+        }
+
+        public long getCachedBytes() {
+            return cachedBytes;
+        }
+
+        public long getTtffMillis() {
+            return ttffMillis;
+        }
+    }
+
+    public FirstFrameTracker() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * 开始播放
+     *
+     * @param key 视频的缓存key
+     * @param state STATE_*
+     * */
+    public synchronized void onPlayRequested(String key, int state, long cachedBytes, long nowMillis) {
+        FirstFrame pending = mPending.remove(key);
+        if (pending == null) {
+            pending = new FirstFrame();
+        }
+        pending.state = state;
+        pending.cachedBytes = cachedBytes;
+        pending.requestMillis = nowMillis;
+        mPending.put(key, pending);
+    }
+
+    /**
+     * 首帧渲染，没有对应的开始播放记录时忽略
+     *
+     * @return 这次播放的首帧耗时和缓存状态，没有对应记录时返回null
+     * */
+    public FirstFrame onFirstFrame(String key, long nowMillis) {
+        FirstFrame firstFrame;
+        synchronized (this) {
+            firstFrame = mPending.remove(key);
+        }
+        if (firstFrame == null) {
+            return null;
+        }
+
+        firstFrame.ttffMillis = Math.max(0, nowMillis - firstFrame.requestMillis);
+        mHistograms[bucketOf(firstFrame.state, firstFrame.cachedBytes)].record(firstFrame.ttffMillis);
+        return firstFrame;
+    }
+
+    /**
+     * 清除还没有收到首帧的记录，例如播放失败或者被切走
+     * */
+    public synchronized void cancel(String key) {
+        mPending.remove(key);
+    }
+
+    public Snapshot snapshot() {
+        LatencyHistogram.Snapshot[] histograms = new LatencyHistogram.Snapshot[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            histograms[i] = mHistograms[i].snapshot();
+        }
+        return new Snapshot(histograms);
+    }
+
+    /**
+     * @return 部分缓存的大小档位，0到PARTIAL_SIZE_BOUNDS.length
+     * */
+    public static int sizeBucketOf(long cachedBytes) {
+        int bucket = 0;
+        while (bucket < PARTIAL_SIZE_BOUNDS.length && cachedBytes >= PARTIAL_SIZE_BOUNDS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private static int bucketOf(int state, long cachedBytes) {
+        switch (state) {
+            case STATE_PARTIAL:
+                return 1 + sizeBucketOf(cachedBytes);
+            case STATE_COMPLETE:
+                return BUCKET_COUNT - 1;
+            default:
+                return 0;
+        }
+    }
+
+    public static class Snapshot {
+
+        private final LatencyHistogram.Snapshot[] mHistograms;
+
+        Snapshot(LatencyHistogram.Snapshot[] histograms) {
+            mHistograms = histograms;
+        }
+
+        public LatencyHistogram.Snapshot getNotCached() {
+            return mHistograms[0];
+        }
+
+        /**
+         * @param sizeBucket {@link #sizeBucketOf(long)}
+         * */
+        public LatencyHistogram.Snapshot getPartial(int sizeBucket) {
+            return mHistograms[1 + sizeBucket];
+        }
+
+        public LatencyHistogram.Snapshot getComplete() {
+            return mHistograms[mHistograms.length - 1];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("TTFF{notCached p50=").append(getNotCached().getPercentile(50));
+            for (int i = 0; i <= PARTIAL_SIZE_BOUNDS.length; i++) {
+                builder.append(", partial").append(i).append(" p50=").append(getPartial(i).getPercentile(50));
+            }
+            return builder.append(", complete p50=").append(getComplete().getPercentile(50)).append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.gibbon.videopreload.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定分桶的耗时直方图，记录只有原子自增，没有内存分配，可以在下载线程上调用
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-31
+ */
+public class LatencyHistogram {
+
+    /**
+     * 每个桶的上界（毫秒，包含），最后一个桶记录超过最大上界的值
+     * */
+    public static final long[] DEFAULT_BOUNDS_MILLIS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final long[] mBounds;
+    private final AtomicLongArray mCounts;
+    private final AtomicLong mSum = new AtomicLong();
+
+    public LatencyHistogram() {
+        this(DEFAULT_BOUNDS_MILLIS);
+    }
+
+    public LatencyHistogram(long[] boundsMillis) {
+        mBounds = boundsMillis.clone();
+        mCounts = new AtomicLongArray(boundsMillis.length + 1);
+    }
+
+    public void record(long millis) {
+        if (millis < 0) {
+            return;
+        }
+
+        int bucket = 0;
+        while (bucket < mBounds.length && millis > mBounds[bucket]) {
+            bucket++;
+        }
+        mCounts.incrementAndGet(bucket);
+        mSum.addAndGet(millis);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[mCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return new Snapshot(mBounds, counts, mSum.get());
+    }
+
+    public static class Snapshot {
+
+        private final long[] mBounds;
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+
+        Snapshot(long[] bounds, long[] counts, long sum) {
+            mBounds = bounds;
+            mCounts = counts;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            mCount = count;
+            mSum = sum;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMean() {
+            return mCount > 0 ? mSum / mCount : 0;
+        }
+
+        /**
+         * @return 每个桶的上界，长度比{@link #getCounts()}少一
+         * */
+        public long[] getBounds() {
+            return mBounds.clone();
+        }
+
+        public long[] getCounts() {
+            return mCounts.clone();
+        }
+
+        /**
+         * @param percentile 0-100
+         * @return 百分位所在桶的上界，落在最后一个桶时返回Long.MAX_VALUE，没有数据时返回0
+         * */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(mCount * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank && seen > 0) {
+                    return i < mBounds.length ? mBounds[i] : Long.MAX_VALUE;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}
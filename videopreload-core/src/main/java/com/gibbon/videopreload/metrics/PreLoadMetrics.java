@@ -0,0 +1,202 @@
+package com.gibbon.videopreload.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预加载效果统计：任务数、下载和被播放使用的字节数、播放时的命中率以及排队、下载耗时。
+ *
+ * 记录只有原子自增，没有内存分配和锁；{@link #snapshot()}返回某一时刻的拷贝，
+ * {@link Listener}在记录的线程上同步回调，用于转发到自己的统计系统，回调里不要做耗时操作
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-31
+ */
+public class PreLoadMetrics {
+
+    public static final int RESULT_COMPLETED = 0;
+    public static final int RESULT_CANCELLED = 1;
+    public static final int RESULT_FAILED = 2;
+    public static final int RESULT_SKIPPED_CACHED = 3;
+
+    public interface Listener {
+        /**
+         * 预加载任务结束
+         *
+         * @param result RESULT_*
+         * @param queueWaitMillis 提交到开始执行的时间，没有排队时为-1
+         * @param downloadMillis 下载耗时，没有下载时为-1
+         * @param bytes 本次下载的字节数
+         * */
+        void onPreLoadFinished(String url, int result, long queueWaitMillis, long downloadMillis, long bytes);
+
+        /**
+         * 开始播放
+         *
+         * @param hit 播放时已经有足够的缓存
+         * @param preLoadedBytes 之前预加载的字节数，这些数据会被播放使用
+         * */
+        void onPlay(String url, boolean hit, long preLoadedBytes);
+
+        /**
+         * 首帧渲染
+         *
+         * @param state 开始播放时的缓存状态，FirstFrameTracker.STATE_*
+         * @param cachedBytes 开始播放时已经缓存的字节数
+         * */
+        void onFirstFrame(String url, int state, long cachedBytes, long ttffMillis);
+    }
+
+    private final AtomicLong mStarted = new AtomicLong();
+    private final AtomicLong mCompleted = new AtomicLong();
+    private final AtomicLong mCancelled = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+    private final AtomicLong mSkippedCached = new AtomicLong();
+    private final AtomicLong mBytesDownloaded = new AtomicLong();
+    private final AtomicLong mBytesConsumed = new AtomicLong();
+    private final AtomicLong mPlays = new AtomicLong();
+    private final AtomicLong mPlayHits = new AtomicLong();
+    private final LatencyHistogram mQueueWait = new LatencyHistogram();
+    private final LatencyHistogram mDownload = new LatencyHistogram();
+    private final FirstFrameTracker mFirstFrameTracker = new FirstFrameTracker();
+    private volatile Listener mListener;
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 任务开始下载
+     * */
+    public void onPreLoadStarted(long queueWaitMillis) {
+        mStarted.incrementAndGet();
+        mQueueWait.record(queueWaitMillis);
+    }
+
+    public void onPreLoadFinished(String url, int result, long queueWaitMillis, long downloadMillis, long bytes) {
+        switch (result) {
+            case RESULT_COMPLETED:
+                mCompleted.incrementAndGet();
+                break;
+            case RESULT_CANCELLED:
+                mCancelled.incrementAndGet();
+                break;
+            case RESULT_SKIPPED_CACHED:
+                mSkippedCached.incrementAndGet();
+                break;
+            default:
+                mFailed.incrementAndGet();
+                break;
+        }
+
+        if (bytes > 0) {
+            mBytesDownloaded.addAndGet(bytes);
+        }
+        if (downloadMillis >= 0) {
+            mDownload.record(downloadMillis);
+        }
+
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onPreLoadFinished(url, result, queueWaitMillis, downloadMillis, bytes);
+        }
+    }
+
+    public void onPlay(String url, boolean hit, long preLoadedBytes) {
+        mPlays.incrementAndGet();
+        if (hit) {
+            mPlayHits.incrementAndGet();
+        }
+        if (preLoadedBytes > 0) {
+            mBytesConsumed.addAndGet(preLoadedBytes);
+        }
+
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onPlay(url, hit, preLoadedBytes);
+        }
+    }
+
+    /**
+     * 开始播放时记录缓存状态，首帧渲染时由{@link #onFirstFrame(String, String, long)}计算耗时
+     *
+     * @param state FirstFrameTracker.STATE_*
+     * */
+    public void onPlayRequested(String key, int state, long cachedBytes, long nowMillis) {
+        mFirstFrameTracker.onPlayRequested(key, state, cachedBytes, nowMillis);
+    }
+
+    public void onFirstFrame(String url, String key, long nowMillis) {
+        FirstFrameTracker.FirstFrame firstFrame = mFirstFrameTracker.onFirstFrame(key, nowMillis);
+        if (firstFrame == null) {
+            return;
+        }
+
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onFirstFrame(url, firstFrame.getState(), firstFrame.getCachedBytes(), firstFrame.getTtffMillis());
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    public static class Snapshot {
+        public final long started;
+        public final long completed;
+        public final long cancelled;
+        public final long failed;
+        public final long skippedCached;
+        public final long bytesDownloaded;
+        /**
+         * 预加载的数据中被播放使用的字节数
+         * */
+        public final long bytesConsumed;
+        public final long plays;
+        public final long playHits;
+        public final LatencyHistogram.Snapshot queueWait;
+        public final LatencyHistogram.Snapshot download;
+        /**
+         * 按开始播放时的缓存状态分桶的首帧耗时
+         * */
+        public final FirstFrameTracker.Snapshot firstFrame;
+
+        Snapshot(PreLoadMetrics metrics) {
+            started = metrics.mStarted.get();
+            completed = metrics.mCompleted.get();
+            cancelled = metrics.mCancelled.get();
+            failed = metrics.mFailed.get();
+            skippedCached = metrics.mSkippedCached.get();
+            bytesDownloaded = metrics.mBytesDownloaded.get();
+            bytesConsumed = metrics.mBytesConsumed.get();
+            plays = metrics.mPlays.get();
+            playHits = metrics.mPlayHits.get();
+            queueWait = metrics.mQueueWait.snapshot();
+            download = metrics.mDownload.snapshot();
+            firstFrame = metrics.mFirstFrameTracker.snapshot();
+        }
+
+        /**
+         * @return 播放时已经有足够缓存的比例，没有播放时返回0
+         * */
+        public double getHitRate() {
+            return plays > 0 ? (double) playHits / plays : 0;
+        }
+
+        /**
+         * @return 下载了但没有被播放使用的字节数，还没播放的预加载也计算在内
+         * */
+        public long getWastedBytes() {
+            return Math.max(0, bytesDownloaded - bytesConsumed);
+        }
+
+        @Override
+        public String toString() {
+            return "PreLoadMetrics{started=" + started + ", completed=" + completed + ", cancelled=" + cancelled
+                    + ", failed=" + failed + ", skippedCached=" + skippedCached + ", bytesDownloaded=" + bytesDownloaded
+                    + ", bytesConsumed=" + bytesConsumed + ", hitRate=" + getHitRate()
+                    + ", queueWaitP50=" + queueWait.getPercentile(50) + "ms, downloadP50=" + download.getPercentile(50) + "ms, "
+                    + firstFrame + "}";
+        }
+    }
+}
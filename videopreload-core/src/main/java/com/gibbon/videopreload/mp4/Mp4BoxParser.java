@@ -0,0 +1,277 @@
+package com.gibbon.videopreload.mp4;
+
+/**
+ * 轻量的MP4 box解析，只解析预加载需要的信息：
+ * 1. 顶层box（ftyp/moov/mdat...）的位置和大小，用来判断moov在文件头部还是尾部；
+ * 2. moov中第一个视频轨道的第一个关键帧在mdat中的位置。
+ *
+ * 只依赖byte[]，不做任何IO，便于直接用fixture文件做单元测试
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-06-28
+ */
+public final class Mp4BoxParser {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int LARGE_HEADER_SIZE = 16;
+
+    private static final int TYPE_MOOV = fourcc("moov");
+    private static final int TYPE_MDAT = fourcc("mdat");
+    private static final int TYPE_TRAK = fourcc("trak");
+    private static final int TYPE_MDIA = fourcc("mdia");
+    private static final int TYPE_MINF = fourcc("minf");
+    private static final int TYPE_STBL = fourcc("stbl");
+    private static final int TYPE_HDLR = fourcc("hdlr");
+    private static final int TYPE_STSS = fourcc("stss");
+    private static final int TYPE_STSC = fourcc("stsc");
+    private static final int TYPE_STSZ = fourcc("stsz");
+    private static final int TYPE_STCO = fourcc("stco");
+    private static final int TYPE_CO64 = fourcc("co64");
+    private static final int HANDLER_VIDE = fourcc("vide");
+
+    private Mp4BoxParser() {
+    }
+
+    /**
+     * 解析文件开头的顶层box头部
+     *
+     * @param data 从文件offset 0开始的数据
+     * @param length data中有效的字节数
+     * @param info 解析结果，会先被重置
+     * @return 是否是MP4（第一个box是ftyp或者能解析出moov/mdat）
+     * */
+    public static boolean parseTopLevel(byte[] data, int length, Mp4HeaderInfo info) {
+        return parseTopLevel(data, 0, length, 0, info);
+    }
+
+    /**
+     * 解析从文件fileOffset开始的一段数据中的顶层box头部，结果合并到info
+     * */
+    public static boolean parseTopLevel(byte[] data, int offset, int length, long fileOffset, Mp4HeaderInfo info) {
+        if (fileOffset == 0) {
+            info.reset();
+        }
+
+        boolean found = false;
+        long position = 0;
+        while (position + HEADER_SIZE <= length) {
+            int index = offset + (int) position;
+            long size = readUInt32(data, index);
+            int type = readInt32(data, index + 4);
+            int headerSize = HEADER_SIZE;
+            boolean toEnd = false;
+            if (size == 1) {
+                if (position + LARGE_HEADER_SIZE > length) {
+                    break;
+                }
+                size = readInt64(data, index + 8);
+                headerSize = LARGE_HEADER_SIZE;
+            } else if (size == 0) {
+                // box一直到文件末尾，只有最后一个box会这样，大小记为-1
+                toEnd = true;
+                size = -1;
+            }
+
+            if ((!toEnd && size < headerSize) || !isPrintable(type)) {
+                break;
+            }
+
+            found = true;
+            if (type == TYPE_MOOV) {
+                info.moovOffset = fileOffset + position;
+                info.moovSize = size;
+            } else if (type == TYPE_MDAT) {
+                info.mdatOffset = fileOffset + position;
+                info.mdatSize = size;
+            }
+
+            if (toEnd) {
+                info.nextBoxOffset = -1;
+                break;
+            }
+            position += size;
+            info.nextBoxOffset = fileOffset + position;
+        }
+
+        return found;
+    }
+
+    /**
+     * 从完整的moov box中找出第一个视频轨道的第一个关键帧位置
+     *
+     * @param data 包含完整moov box的数据
+     * @param moovIndex moov box在data中的起始位置（包含box头部）
+     * @param moovSize moov box的大小
+     * @return 是否找到，找到时写入info.keyframeOffset/keyframeSize
+     * */
+    public static boolean parseKeyframe(byte[] data, int moovIndex, int moovSize, Mp4HeaderInfo info) {
+        int headerSize = readUInt32(data, moovIndex) == 1 ? LARGE_HEADER_SIZE : HEADER_SIZE;
+        int end = moovIndex + moovSize;
+        int position = moovIndex + headerSize;
+        while (position + HEADER_SIZE <= end) {
+            int size = (int) readUInt32(data, position);
+            if (size < HEADER_SIZE || position + size > end) {
+                return false;
+            }
+
+            try {
+                if (readInt32(data, position + 4) == TYPE_TRAK && parseVideoTrack(data, position, size, info)) {
+                    return true;
+                }
+            } catch (ArrayIndexOutOfBoundsException e) {
+                // 表项数量和box大小对不上，当作解析失败
+                return false;
+            }
+            position += size;
+        }
+
+        return false;
+    }
+
+    private static boolean parseVideoTrack(byte[] data, int trakIndex, int trakSize, Mp4HeaderInfo info) {
+        int mdia = findChild(data, trakIndex, trakSize, TYPE_MDIA);
+        if (mdia < 0) {
+            return false;
+        }
+        int mdiaSize = (int) readUInt32(data, mdia);
+
+        int hdlr = findChild(data, mdia, mdiaSize, TYPE_HDLR);
+        // hdlr: header(8) + version/flags(4) + pre_defined(4) + handler_type(4)
+        if (hdlr < 0 || readUInt32(data, hdlr) < 20 || readInt32(data, hdlr + 16) != HANDLER_VIDE) {
+            return false;
+        }
+
+        int minf = findChild(data, mdia, mdiaSize, TYPE_MINF);
+        if (minf < 0) {
+            return false;
+        }
+        int stbl = findChild(data, minf, (int) readUInt32(data, minf), TYPE_STBL);
+        if (stbl < 0) {
+            return false;
+        }
+        int stblSize = (int) readUInt32(data, stbl);
+
+        int stsc = findChild(data, stbl, stblSize, TYPE_STSC);
+        int stsz = findChild(data, stbl, stblSize, TYPE_STSZ);
+        int stco = findChild(data, stbl, stblSize, TYPE_STCO);
+        int co64 = findChild(data, stbl, stblSize, TYPE_CO64);
+        if (stsc < 0 || stsz < 0 || (stco < 0 && co64 < 0)) {
+            return false;
+        }
+
+        // 没有stss表示所有sample都是关键帧
+        int stss = findChild(data, stbl, stblSize, TYPE_STSS);
+        long keySample = 1;
+        if (stss >= 0 && readUInt32(data, stss + 12) > 0) {
+            keySample = readUInt32(data, stss + 16);
+        }
+
+        // stsc: 找到关键帧所在的chunk以及它在chunk中的序号
+        long stscCount = readUInt32(data, stsc + 12);
+        long chunk = -1;
+        long firstSampleInChunk = 1;
+        long sampleCursor = 1;
+        for (int i = 0; i < stscCount && chunk < 0; i++) {
+            int entry = stsc + 16 + i * 12;
+            long firstChunk = readUInt32(data, entry);
+            long samplesPerChunk = readUInt32(data, entry + 4);
+            long nextFirstChunk = i + 1 < stscCount ? readUInt32(data, entry + 12) : Long.MAX_VALUE;
+            if (samplesPerChunk <= 0) {
+                return false;
+            }
+            boolean lastRun = nextFirstChunk == Long.MAX_VALUE;
+            long runSamples = lastRun ? 0 : (nextFirstChunk - firstChunk) * samplesPerChunk;
+            if (lastRun || keySample < sampleCursor + runSamples) {
+                long chunkInRun = (keySample - sampleCursor) / samplesPerChunk;
+                chunk = firstChunk + chunkInRun;
+                firstSampleInChunk = sampleCursor + chunkInRun * samplesPerChunk;
+            } else {
+                sampleCursor += runSamples;
+            }
+        }
+        if (chunk < 1) {
+            return false;
+        }
+
+        long chunkOffset;
+        if (stco >= 0) {
+            if (chunk > readUInt32(data, stco + 12)) {
+                return false;
+            }
+            chunkOffset = readUInt32(data, stco + 16 + (int) (chunk - 1) * 4);
+        } else {
+            if (chunk > readUInt32(data, co64 + 12)) {
+                return false;
+            }
+            chunkOffset = readInt64(data, co64 + 16 + (int) (chunk - 1) * 8);
+        }
+
+        // stsz: 关键帧之前同一个chunk里的sample大小累加
+        long sampleSize = readUInt32(data, stsz + 12);
+        long sampleCount = readUInt32(data, stsz + 16);
+        if (keySample > sampleCount) {
+            return false;
+        }
+        long offset = chunkOffset;
+        long size;
+        if (sampleSize != 0) {
+            offset += (keySample - firstSampleInChunk) * sampleSize;
+            size = sampleSize;
+        } else {
+            for (long sample = firstSampleInChunk; sample < keySample; sample++) {
+                offset += readUInt32(data, stsz + 20 + (int) (sample - 1) * 4);
+            }
+            size = readUInt32(data, stsz + 20 + (int) (keySample - 1) * 4);
+        }
+
+        info.keyframeOffset = offset;
+        info.keyframeSize = size;
+        return true;
+    }
+
+    /**
+     * @return 子box在data中的位置，找不到返回-1
+     * */
+    private static int findChild(byte[] data, int parentIndex, int parentSize, int type) {
+        int end = parentIndex + parentSize;
+        int position = parentIndex + HEADER_SIZE;
+        while (position + HEADER_SIZE <= end) {
+            int size = (int) readUInt32(data, position);
+            if (size < HEADER_SIZE || position + size > end) {
+                return -1;
+            }
+            if (readInt32(data, position + 4) == type) {
+                return position;
+            }
+            position += size;
+        }
+        return -1;
+    }
+
+    private static boolean isPrintable(int type) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            int c = (type >> shift) & 0xFF;
+            if (c < 0x20 || c > 0x7E) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int fourcc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    private static int readInt32(byte[] data, int index) {
+        return ((data[index] & 0xFF) << 24) | ((data[index + 1] & 0xFF) << 16)
+                | ((data[index + 2] & 0xFF) << 8) | (data[index + 3] & 0xFF);
+    }
+
+    private static long readUInt32(byte[] data, int index) {
+        return readInt32(data, index) & 0xFFFFFFFFL;
+    }
+
+    private static long readInt64(byte[] data, int index) {
+        return (readUInt32(data, index) << 32) | readUInt32(data, index + 4);
+    }
+}
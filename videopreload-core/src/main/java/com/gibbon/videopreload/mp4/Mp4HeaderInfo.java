@@ -0,0 +1,66 @@
+package com.gibbon.videopreload.mp4;
+
+/**
+ * MP4顶层box的解析结果，offset/size未知时为-1
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-06-28
+ */
+public class Mp4HeaderInfo {
+
+    public long moovOffset = -1;
+    public long moovSize = -1;
+    public long mdatOffset = -1;
+    public long mdatSize = -1;
+    /**
+     * 已解析的顶层box之后的第一个offset，moov在mdat之后时从这里开始请求moov，
+     * 最后一个box一直到文件末尾时为-1
+     * */
+    public long nextBoxOffset;
+
+    /**
+     * 第一个关键帧在文件中的位置，需要解析moov之后才能得到
+     * */
+    public long keyframeOffset = -1;
+    public long keyframeSize = -1;
+
+    public void reset() {
+        moovOffset = -1;
+        moovSize = -1;
+        mdatOffset = -1;
+        mdatSize = -1;
+        nextBoxOffset = 0;
+        keyframeOffset = -1;
+        keyframeSize = -1;
+    }
+
+    public boolean hasMoov() {
+        return moovOffset >= 0;
+    }
+
+    public boolean hasMdat() {
+        return mdatOffset >= 0;
+    }
+
+    /**
+     * moov在mdat之前，顺序下载即可
+     * */
+    public boolean isMoovAtFront() {
+        return hasMoov() && (!hasMdat() || moovOffset < mdatOffset);
+    }
+
+    /**
+     * 已经读到mdat但还没有moov，moov在文件尾部
+     * */
+    public boolean isMoovAtEnd() {
+        return !hasMoov() && hasMdat();
+    }
+
+    public boolean hasKeyframe() {
+        return keyframeOffset >= 0 && keyframeSize > 0;
+    }
+
+    public long getKeyframeEnd() {
+        return hasKeyframe() ? keyframeOffset + keyframeSize : -1;
+    }
+}
@@ -0,0 +1,391 @@
+package com.gibbon.videopreload.stream;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * 用SAX流式解析DASH MPD，只解析第一个Period，读完就停止。
+ *
+ * 支持SegmentTemplate（包括SegmentTimeline）、SegmentList和SegmentBase，
+ * AdaptationSet上的分片信息由其中的Representation继承，BaseURL逐级解析。
+ * SAX在JVM和Android上都可以使用，不依赖XmlPullParser。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-10
+ */
+public class DashManifestParser {
+
+    private DashManifestParser() {
+    }
+
+    /**
+     * @param mpdUrl MPD的地址，用于解析相对地址
+     * @param maxSegments 每个Representation最多生成的分片数
+     * */
+    public static StreamManifest parse(String mpdUrl, InputStream inputStream, int maxSegments) throws IOException {
+        MpdHandler handler = new MpdHandler(mpdUrl, maxSegments);
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.newSAXParser().parse(new InputSource(inputStream), handler);
+        } catch (StopParsingException e) {
+            // 第一个Period已经解析完
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new IOException("invalid mpd: " + mpdUrl + ", " + e.getMessage());
+        }
+
+        if (handler.mVideo.isEmpty() && handler.mAudio.isEmpty()) {
+            throw new IOException("no representation in mpd: " + mpdUrl);
+        }
+        return new StreamManifest(handler.mVideo, handler.mAudio);
+    }
+
+    /**
+     * 替换SegmentTemplate中的$RepresentationID$、$Number$、$Bandwidth$、$Time$，支持%0Nd格式
+     * */
+    static String expandTemplate(String template, String representationId, long number, long bandwidth, long time) {
+        StringBuilder builder = new StringBuilder(template.length() + 16);
+        int i = 0;
+        while (i < template.length()) {
+            int start = template.indexOf('$', i);
+            int end = start < 0 ? -1 : template.indexOf('$', start + 1);
+            if (end < 0) {
+                builder.append(template, i, template.length());
+                break;
+            }
+
+            builder.append(template, i, start);
+            String identifier = template.substring(start + 1, end);
+            String format = null;
+            int percent = identifier.indexOf('%');
+            if (percent >= 0) {
+                format = identifier.substring(percent);
+                identifier = identifier.substring(0, percent);
+            }
+
+            if (identifier.isEmpty()) {
+                builder.append('$');
+            } else if ("RepresentationID".equals(identifier)) {
+                builder.append(representationId);
+            } else if ("Number".equals(identifier)) {
+                builder.append(format(format, number));
+            } else if ("Bandwidth".equals(identifier)) {
+                builder.append(format(format, bandwidth));
+            } else if ("Time".equals(identifier)) {
+                builder.append(format(format, time));
+            } else {
+                builder.append(template, start, end + 1);
+            }
+            i = end + 1;
+        }
+        return builder.toString();
+    }
+
+    private static String format(String format, long value) {
+        if (format == null) {
+            return String.valueOf(value);
+        }
+        try {
+            return String.format(Locale.US, format, value);
+        } catch (RuntimeException e) {
+            return String.valueOf(value);
+        }
+    }
+
+    /**
+     * @param range "first-last"，包含last
+     * @return [offset, length]，格式不对时返回null
+     * */
+    static long[] parseRange(String range) {
+        if (range == null) {
+            return null;
+        }
+        int dash = range.indexOf('-');
+        if (dash <= 0) {
+            return null;
+        }
+        long first = HlsPlaylistParser.parseLong(range.substring(0, dash), -1);
+        long last = HlsPlaylistParser.parseLong(range.substring(dash + 1), -1);
+        if (first < 0 || last < first) {
+            return null;
+        }
+        return new long[]{first, last - first + 1};
+    }
+
+    /**
+     * 第一个Period结束时抛出，停止读取剩余的内容
+     * */
+    private static class StopParsingException extends SAXException {
+        StopParsingException() {
+            super("stop");
+        }
+    }
+
+    /**
+     * 一个AdaptationSet或Representation上的分片信息，Representation从AdaptationSet复制一份再覆盖
+     * */
+    private static class SegmentInfo {
+
+        static final int TYPE_NONE = 0;
+        static final int TYPE_TEMPLATE = 1;
+        static final int TYPE_LIST = 2;
+        static final int TYPE_BASE = 3;
+
+        int type = TYPE_NONE;
+        long timescale = 1;
+        long duration;
+        long startNumber = 1;
+        String media;
+        String initialization;
+        String initializationRange;
+        String indexRange;
+        /**
+         * SegmentTimeline的S元素，每项为[t, d, r]，t为-1表示紧接上一个
+         * */
+        List<long[]> timeline = new ArrayList<>();
+        /**
+         * SegmentList的SegmentURL，每项为[media, mediaRange]
+         * */
+        List<String[]> segmentUrls = new ArrayList<>();
+
+        SegmentInfo copy() {
+            SegmentInfo info = new SegmentInfo();
+            info.type = type;
+            info.timescale = timescale;
+            info.duration = duration;
+            info.startNumber = startNumber;
+            info.media = media;
+            info.initialization = initialization;
+            info.initializationRange = initializationRange;
+            info.indexRange = indexRange;
+            info.timeline = new ArrayList<>(timeline);
+            info.segmentUrls = new ArrayList<>(segmentUrls);
+            return info;
+        }
+
+        void readCommon(Attributes attributes) {
+            timescale = getLong(attributes, "timescale", timescale);
+            duration = getLong(attributes, "duration", duration);
+            startNumber = getLong(attributes, "startNumber", startNumber);
+        }
+    }
+
+    private static class MpdHandler extends DefaultHandler {
+
+        private final int mMaxSegments;
+        final List<StreamVariant> mVideo = new ArrayList<>();
+        final List<StreamVariant> mAudio = new ArrayList<>();
+
+        /**
+         * MPD、Period、AdaptationSet、Representation各一层的BaseURL
+         * */
+        private final Deque<String> mBaseUrls = new ArrayDeque<>();
+        private StringBuilder mBaseUrlText;
+
+        private boolean mInPeriod;
+        private SegmentInfo mAdaptationSegments;
+        private String mAdaptationType;
+        private SegmentInfo mRepresentationSegments;
+        private String mRepresentationId;
+        private String mRepresentationType;
+        private long mRepresentationBandwidth;
+
+        MpdHandler(String mpdUrl, int maxSegments) {
+            mMaxSegments = maxSegments;
+            mBaseUrls.push(mpdUrl);
+        }
+
+        private SegmentInfo current() {
+            return mRepresentationSegments != null ? mRepresentationSegments : mAdaptationSegments;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            String name = localName != null && localName.length() > 0 ? localName : qName;
+            if ("Period".equals(name)) {
+                mInPeriod = true;
+                mBaseUrls.push(mBaseUrls.peek());
+            } else if ("AdaptationSet".equals(name) && mInPeriod) {
+                mBaseUrls.push(mBaseUrls.peek());
+                mAdaptationSegments = new SegmentInfo();
+                mAdaptationType = getType(attributes, null);
+            } else if ("Representation".equals(name) && mAdaptationSegments != null) {
+                mBaseUrls.push(mBaseUrls.peek());
+                mRepresentationSegments = mAdaptationSegments.copy();
+                mRepresentationId = attributes.getValue("id");
+                mRepresentationType = getType(attributes, mAdaptationType);
+                mRepresentationBandwidth = getLong(attributes, "bandwidth", 0);
+            } else if ("BaseURL".equals(name)) {
+                mBaseUrlText = new StringBuilder();
+            } else if (current() != null) {
+                startSegmentElement(name, attributes, current());
+            }
+        }
+
+        private void startSegmentElement(String name, Attributes attributes, SegmentInfo info) {
+            if ("SegmentTemplate".equals(name)) {
+                info.type = SegmentInfo.TYPE_TEMPLATE;
+                info.readCommon(attributes);
+                String media = attributes.getValue("media");
+                if (media != null) {
+                    info.media = media;
+                }
+                String initialization = attributes.getValue("initialization");
+                if (initialization != null) {
+                    info.initialization = initialization;
+                }
+            } else if ("SegmentTimeline".equals(name)) {
+                info.timeline.clear();
+            } else if ("S".equals(name)) {
+                info.timeline.add(new long[]{getLong(attributes, "t", -1), getLong(attributes, "d", 0), getLong(attributes, "r", 0)});
+            } else if ("SegmentList".equals(name)) {
+                info.type = SegmentInfo.TYPE_LIST;
+                info.readCommon(attributes);
+                info.segmentUrls.clear();
+            } else if ("SegmentURL".equals(name)) {
+                info.segmentUrls.add(new String[]{attributes.getValue("media"), attributes.getValue("mediaRange")});
+            } else if ("SegmentBase".equals(name)) {
+                info.type = SegmentInfo.TYPE_BASE;
+                info.indexRange = attributes.getValue("indexRange");
+            } else if ("Initialization".equals(name)) {
+                // SegmentList的Initialization可以是单独的文件，SegmentBase的只有range
+                info.initialization = attributes.getValue("sourceURL");
+                info.initializationRange = attributes.getValue("range");
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (mBaseUrlText != null) {
+                mBaseUrlText.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            String name = localName != null && localName.length() > 0 ? localName : qName;
+            if ("BaseURL".equals(name)) {
+                String base = mBaseUrls.pop();
+                String text = mBaseUrlText.toString().trim();
+                mBaseUrlText = null;
+                try {
+                    mBaseUrls.push(text.length() > 0 ? HlsPlaylistParser.resolve(base, text) : base);
+                } catch (IOException e) {
+                    throw new SAXException(e.getMessage());
+                }
+            } else if ("Representation".equals(name) && mRepresentationSegments != null) {
+                String base = mBaseUrls.pop();
+                StreamVariant variant;
+                try {
+                    variant = buildVariant(base, mRepresentationSegments);
+                } catch (IOException e) {
+                    throw new SAXException(e.getMessage());
+                }
+                if (mRepresentationType != null && mRepresentationType.startsWith("audio")) {
+                    mAudio.add(variant);
+                } else if (mRepresentationType == null || mRepresentationType.startsWith("video")) {
+                    mVideo.add(variant);
+                }
+                mRepresentationSegments = null;
+            } else if ("AdaptationSet".equals(name) && mAdaptationSegments != null) {
+                mBaseUrls.pop();
+                mAdaptationSegments = null;
+            } else if ("Period".equals(name)) {
+                throw new StopParsingException();
+            }
+        }
+
+        private StreamVariant buildVariant(String base, SegmentInfo info) throws IOException {
+            long bandwidth = mRepresentationBandwidth;
+            String id = mRepresentationId != null ? mRepresentationId : "";
+            List<MediaSegment> segments = new ArrayList<>();
+            MediaSegment init = null;
+            switch (info.type) {
+                case SegmentInfo.TYPE_TEMPLATE:
+                    if (info.initialization != null) {
+                        init = new MediaSegment(HlsPlaylistParser.resolve(base, expandTemplate(info.initialization, id, info.startNumber, bandwidth, 0)));
+                    }
+                    if (info.media != null) {
+                        addTemplateSegments(base, info, id, bandwidth, segments);
+                    }
+                    return new StreamVariant(bandwidth, null, init, segments, null);
+                case SegmentInfo.TYPE_LIST:
+                    init = rangeSegment(info.initialization != null ? HlsPlaylistParser.resolve(base, info.initialization) : base,
+                            info.initializationRange, 0);
+                    if (info.initialization == null && info.initializationRange == null) {
+                        init = null;
+                    }
+                    long durationMs = info.duration * 1000 / Math.max(1, info.timescale);
+                    for (int i = 0; i < info.segmentUrls.size() && segments.size() < mMaxSegments; i++) {
+                        String[] segment = info.segmentUrls.get(i);
+                        String url = segment[0] != null ? HlsPlaylistParser.resolve(base, segment[0]) : base;
+                        segments.add(rangeSegment(url, segment[1], durationMs));
+                    }
+                    return new StreamVariant(bandwidth, null, init, segments, null);
+                default:
+                    // SegmentBase或者只有BaseURL：整个文件，头部到索引结束
+                    long[] initRange = parseRange(info.initializationRange);
+                    long[] index = parseRange(info.indexRange);
+                    long headerEnd = Math.max(initRange != null ? initRange[0] + initRange[1] : 0, index != null ? index[0] + index[1] : 0);
+                    init = headerEnd > 0 ? new MediaSegment(base, 0, headerEnd, 0) : null;
+                    return new StreamVariant(bandwidth, null, init, null, base);
+            }
+        }
+
+        private void addTemplateSegments(String base, SegmentInfo info, String id, long bandwidth, List<MediaSegment> segments) throws IOException {
+            long timescale = Math.max(1, info.timescale);
+            long number = info.startNumber;
+            if (!info.timeline.isEmpty()) {
+                long time = 0;
+                for (int i = 0; i < info.timeline.size() && segments.size() < mMaxSegments; i++) {
+                    long[] s = info.timeline.get(i);
+                    if (s[0] >= 0) {
+                        time = s[0];
+                    }
+                    // r为-1表示一直重复到Period结束，这里只需要开头的几个
+                    long repeat = s[2] < 0 ? Integer.MAX_VALUE : s[2];
+                    for (long r = 0; r <= repeat && segments.size() < mMaxSegments; r++) {
+                        String url = HlsPlaylistParser.resolve(base, expandTemplate(info.media, id, number++, bandwidth, time));
+                        segments.add(new MediaSegment(url, 0, -1, s[1] * 1000 / timescale));
+                        time += s[1];
+                    }
+                }
+            } else if (info.duration > 0) {
+                for (int i = 0; i < mMaxSegments; i++) {
+                    String url = HlsPlaylistParser.resolve(base, expandTemplate(info.media, id, number++, bandwidth, i * info.duration));
+                    segments.add(new MediaSegment(url, 0, -1, info.duration * 1000 / timescale));
+                }
+            }
+        }
+
+        private static MediaSegment rangeSegment(String url, String range, long durationMs) {
+            long[] parsed = parseRange(range);
+            return parsed != null ? new MediaSegment(url, parsed[0], parsed[1], durationMs) : new MediaSegment(url, 0, -1, durationMs);
+        }
+
+        private static String getType(Attributes attributes, String defaultType) {
+            String type = attributes.getValue("contentType");
+            if (type == null) {
+                type = attributes.getValue("mimeType");
+            }
+            return type != null ? type : defaultType;
+        }
+    }
+
+    private static long getLong(Attributes attributes, String name, long defaultValue) {
+        return HlsPlaylistParser.parseLong(attributes.getValue(name), defaultValue);
+    }
+}
@@ -0,0 +1,207 @@
+package com.gibbon.videopreload.stream;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按行解析HLS playlist，master playlist解析出各路码率，media playlist解析出EXT-X-MAP和开头的分片。
+ *
+ * 只处理预加载需要的标签，其余忽略；media playlist读到maxSegments个分片就停止，不读完整个文件。
+ * 相对地址按playlist的地址解析。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-10
+ */
+public class HlsPlaylistParser {
+
+    private static final String TAG_HEADER = "#EXTM3U";
+    private static final String TAG_STREAM_INF = "#EXT-X-STREAM-INF:";
+    private static final String TAG_MAP = "#EXT-X-MAP:";
+    private static final String TAG_INF = "#EXTINF:";
+    private static final String TAG_BYTERANGE = "#EXT-X-BYTERANGE:";
+
+    private HlsPlaylistParser() {
+    }
+
+    /**
+     * @param playlistUrl playlist的地址，用于解析相对地址
+     * @param maxSegments media playlist最多解析的分片数
+     * */
+    public static StreamManifest parse(String playlistUrl, Reader reader, int maxSegments) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        String line = nextLine(lines);
+        if (line == null || !line.startsWith(TAG_HEADER)) {
+            throw new IOException("not a m3u8 playlist: " + playlistUrl);
+        }
+
+        List<StreamVariant> variants = new ArrayList<>();
+        List<MediaSegment> segments = new ArrayList<>();
+        MediaSegment init = null;
+        long streamBandwidth = -1;
+        long segmentDurationMs = 0;
+        long rangeLength = -1;
+        long rangeOffset = -1;
+        String lastRangeUrl = null;
+        long lastRangeEnd = 0;
+        boolean media = false;
+
+        while ((line = nextLine(lines)) != null) {
+            if (line.startsWith(TAG_STREAM_INF)) {
+                String attributes = line.substring(TAG_STREAM_INF.length());
+                String bandwidth = getAttribute(attributes, "AVERAGE-BANDWIDTH");
+                if (bandwidth == null) {
+                    bandwidth = getAttribute(attributes, "BANDWIDTH");
+                }
+                streamBandwidth = parseLong(bandwidth, 0);
+            } else if (line.startsWith(TAG_MAP)) {
+                media = true;
+                String attributes = line.substring(TAG_MAP.length());
+                String uri = getAttribute(attributes, "URI");
+                if (uri != null) {
+                    String url = resolve(playlistUrl, uri);
+                    long[] range = parseByteRange(getAttribute(attributes, "BYTERANGE"), url, lastRangeUrl, lastRangeEnd);
+                    init = new MediaSegment(url, range[1] >= 0 ? range[1] : 0, range[0], 0);
+                    if (range[0] >= 0) {
+                        lastRangeUrl = url;
+                        lastRangeEnd = init.getEnd();
+                    }
+                }
+            } else if (line.startsWith(TAG_INF)) {
+                media = true;
+                String value = line.substring(TAG_INF.length());
+                int comma = value.indexOf(',');
+                segmentDurationMs = parseDurationMs(comma >= 0 ? value.substring(0, comma) : value);
+            } else if (line.startsWith(TAG_BYTERANGE)) {
+                String value = line.substring(TAG_BYTERANGE.length());
+                int at = value.indexOf('@');
+                rangeLength = parseLong(at >= 0 ? value.substring(0, at) : value, -1);
+                rangeOffset = at >= 0 ? parseLong(value.substring(at + 1), -1) : -1;
+            } else if (!line.startsWith("#")) {
+                String url = resolve(playlistUrl, line);
+                if (streamBandwidth >= 0) {
+                    variants.add(StreamVariant.ofPlaylist(streamBandwidth, url));
+                    streamBandwidth = -1;
+                    continue;
+                }
+
+                media = true;
+                long offset = 0;
+                if (rangeLength >= 0) {
+                    // 没有offset时紧接着同一个文件上一段的结尾
+                    offset = rangeOffset >= 0 ? rangeOffset : (url.equals(lastRangeUrl) ? lastRangeEnd : 0);
+                    lastRangeUrl = url;
+                    lastRangeEnd = offset + rangeLength;
+                }
+                segments.add(new MediaSegment(url, offset, rangeLength, segmentDurationMs));
+                segmentDurationMs = 0;
+                rangeLength = -1;
+                rangeOffset = -1;
+                if (segments.size() >= maxSegments) {
+                    break;
+                }
+            }
+        }
+
+        if (media) {
+            variants.clear();
+            variants.add(new StreamVariant(0, null, init, segments, null));
+        }
+        return new StreamManifest(variants, null);
+    }
+
+    /**
+     * EXT-X-MAP的BYTERANGE="length[@offset]"
+     *
+     * @return [length, offset]，没有时为-1
+     * */
+    private static long[] parseByteRange(String value, String url, String lastRangeUrl, long lastRangeEnd) {
+        if (value == null) {
+            return new long[]{-1, -1};
+        }
+
+        int at = value.indexOf('@');
+        long length = parseLong(at >= 0 ? value.substring(0, at) : value, -1);
+        long offset = at >= 0 ? parseLong(value.substring(at + 1), -1) : (url.equals(lastRangeUrl) ? lastRangeEnd : 0);
+        return new long[]{length, offset};
+    }
+
+    /**
+     * 读取属性列表中的值，例如BANDWIDTH=1280000,CODECS="avc1.4d401f,mp4a.40.2"，带引号的值去掉引号
+     * */
+    static String getAttribute(String attributes, String name) {
+        int i = 0;
+        int length = attributes.length();
+        while (i < length) {
+            int equals = attributes.indexOf('=', i);
+            if (equals < 0) {
+                return null;
+            }
+
+            String key = attributes.substring(i, equals).trim();
+            int start = equals + 1;
+            int end;
+            String value;
+            if (start < length && attributes.charAt(start) == '"') {
+                int quote = attributes.indexOf('"', start + 1);
+                end = quote < 0 ? length : quote;
+                value = attributes.substring(start + 1, end);
+                end = attributes.indexOf(',', end);
+            } else {
+                end = attributes.indexOf(',', start);
+                value = attributes.substring(start, end < 0 ? length : end).trim();
+            }
+
+            if (key.equals(name)) {
+                return value;
+            }
+            if (end < 0) {
+                return null;
+            }
+            i = end + 1;
+        }
+        return null;
+    }
+
+    static String resolve(String base, String uri) throws IOException {
+        try {
+            return new URI(base).resolve(uri.trim()).toString();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("invalid uri: " + uri);
+        }
+    }
+
+    private static String nextLine(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() > 0) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    private static long parseDurationMs(String seconds) {
+        try {
+            return (long) (Double.parseDouble(seconds.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static long parseLong(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.gibbon.videopreload.stream;
+
+/**
+ * 需要预加载的一段数据：url上[offset, offset + length)的字节，length为-1表示到文件结尾
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-10
+ */
+public class MediaSegment {
+
+    public final String url;
+    public final long offset;
+    public final long length;
+    /**
+     * 播放时长，未知或者是初始化分片时为0
+     * */
+    public final long durationMs;
+
+    public MediaSegment(String url, long offset, long length, long durationMs) {
+        this.url = url;
+        this.offset = offset;
+        this.length = length;
+        this.durationMs = durationMs;
+    }
+
+    public MediaSegment(String url) {
+        this(url, 0, -1, 0);
+    }
+
+    /**
+     * @return 结束位置（不包含），长度未知时返回-1
+     * */
+    public long getEnd() {
+        return length >= 0 ? offset + length : -1;
+    }
+
+    @Override
+    public String toString() {
+        return length >= 0 ? url + "@" + offset + "+" + length : url;
+    }
+}
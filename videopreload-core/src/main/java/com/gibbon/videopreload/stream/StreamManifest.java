@@ -0,0 +1,39 @@
+package com.gibbon.videopreload.stream;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 解析后的HLS playlist或者DASH MPD，只保留预加载需要的信息
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-10
+ */
+public class StreamManifest {
+
+    /**
+     * 视频（或者音视频混合）的各路码率
+     * */
+    public final List<StreamVariant> variants;
+    /**
+     * DASH中单独的音频，HLS的音频和视频混在同一路里，为空
+     * */
+    public final List<StreamVariant> audioVariants;
+
+    public StreamManifest(List<StreamVariant> variants, List<StreamVariant> audioVariants) {
+        this.variants = Collections.unmodifiableList(variants);
+        this.audioVariants = audioVariants != null ? Collections.unmodifiableList(audioVariants) : Collections.<StreamVariant>emptyList();
+    }
+
+    /**
+     * @return HLS master playlist，还需要请求选中码率的media playlist
+     * */
+    public boolean isMaster() {
+        for (int i = 0; i < variants.size(); i++) {
+            if (variants.get(i).needsPlaylist()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
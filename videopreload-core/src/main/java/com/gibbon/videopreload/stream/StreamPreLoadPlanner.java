@@ -0,0 +1,201 @@
+package com.gibbon.videopreload.stream;
+
+import com.gibbon.videopreload.adapter.DefaultPreLoadSizeAdapter;
+import com.gibbon.videopreload.adapter.IHttpTransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HLS/DASH的预加载计划：请求playlist（master playlist再请求选中码率的media playlist）或MPD，
+ * 按带宽选择码率，返回需要预加载的初始化分片和开头的几个分片。
+ *
+ * 预加载的字节数沿用{@link DefaultPreLoadSizeAdapter}的分层：只加载头部时取初始化分片
+ * （没有时取第一个分片的开头），其余按字节数取1到{@link #MAX_SEGMENTS}个分片。
+ * DASH单独的音频取最低码率，分片数和视频一致。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-10
+ */
+public class StreamPreLoadPlanner {
+
+    /**
+     * playlist只请求开头的这部分，HLS解析到需要的分片数就停止
+     * */
+    public static final int MAX_PLAYLIST_BYTES = 1024 * 1024;
+    public static final int MAX_SEGMENTS = 3;
+
+    private final IHttpTransport mTransport;
+
+    public StreamPreLoadPlanner(IHttpTransport transport) {
+        mTransport = transport;
+    }
+
+    /**
+     * @return url的路径以.m3u8或者.mpd结尾
+     * */
+    public static boolean isStreamUrl(String url) {
+        String path = getPath(url);
+        return path.endsWith(".m3u8") || path.endsWith(".mpd");
+    }
+
+    private static boolean isDashUrl(String url) {
+        return getPath(url).endsWith(".mpd");
+    }
+
+    private static String getPath(String url) {
+        if (url == null) {
+            return "";
+        }
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int fragment = url.indexOf('#');
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        return url.substring(0, end).toLowerCase();
+    }
+
+    /**
+     * 在下载线程上调用，会请求playlist
+     *
+     * @param bytesPerSecond 估算的带宽，单位byte/s，未知时小于等于0
+     * @param preLoadBytes 预加载的字节数，见{@link com.gibbon.videopreload.adapter.IPreLoadSizeAdapter}
+     * @return 按url合并了相邻范围的分片，按播放顺序排列
+     * */
+    public List<MediaSegment> plan(String url, long bytesPerSecond, long preLoadBytes) throws IOException {
+        StreamManifest manifest = fetch(url);
+        StreamVariant video = VariantSelector.select(manifest.variants, bytesPerSecond);
+        if (video == null) {
+            return Collections.emptyList();
+        }
+        if (video.needsPlaylist()) {
+            StreamManifest media = fetch(video.playlistUrl);
+            if (media.variants.isEmpty()) {
+                return Collections.emptyList();
+            }
+            StreamVariant variant = media.variants.get(0);
+            // media playlist没有码率，沿用master playlist中的
+            video = new StreamVariant(video.bandwidth, null, variant.init, variant.segments, variant.singleFileUrl);
+        }
+
+        List<MediaSegment> segments = new ArrayList<>();
+        int count = addVariant(video, preLoadBytes, -1, segments);
+
+        StreamVariant audio = VariantSelector.select(manifest.audioVariants, 0);
+        if (audio != null) {
+            long audioBytes = video.bandwidth > 0 && audio.bandwidth > 0
+                    ? preLoadBytes * audio.bandwidth / video.bandwidth : preLoadBytes / 8;
+            addVariant(audio, audioBytes, count, segments);
+        }
+        return coalesce(segments);
+    }
+
+    /**
+     * @param segmentCount 大于等于0时按个数取分片，否则按字节数
+     * @return 取了几个完整的分片
+     * */
+    private static int addVariant(StreamVariant variant, long preLoadBytes, int segmentCount, List<MediaSegment> out) {
+        MediaSegment init = variant.init;
+        if (variant.singleFileUrl != null) {
+            long end = Math.max(init != null ? init.getEnd() : 0, preLoadBytes);
+            if (end > 0) {
+                out.add(new MediaSegment(variant.singleFileUrl, 0, end, 0));
+            }
+            return 0;
+        }
+
+        if (init != null) {
+            out.add(init);
+        }
+        if (variant.segments.isEmpty()) {
+            return 0;
+        }
+
+        if (segmentCount < 0 && preLoadBytes <= DefaultPreLoadSizeAdapter.HEADER_BYTES) {
+            if (init == null) {
+                // 没有初始化分片（如TS），和mp4一样只加载第一个分片的开头
+                MediaSegment first = variant.segments.get(0);
+                long length = first.length >= 0 ? Math.min(first.length, preLoadBytes) : preLoadBytes;
+                out.add(new MediaSegment(first.url, first.offset, length, first.durationMs));
+            }
+            return 0;
+        }
+
+        int count = 0;
+        long bytes = 0;
+        for (int i = 0; i < variant.segments.size(); i++) {
+            MediaSegment segment = variant.segments.get(i);
+            long size = estimateBytes(segment, variant.bandwidth, preLoadBytes);
+            if (segmentCount >= 0 ? count >= segmentCount
+                    : count >= MAX_SEGMENTS || (count > 0 && bytes + size > preLoadBytes)) {
+                break;
+            }
+            out.add(segment);
+            bytes += size;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 分片长度未知时按码率和时长估算，都未知时按整个预加载字节数算，只取一个分片
+     * */
+    private static long estimateBytes(MediaSegment segment, long bandwidth, long preLoadBytes) {
+        if (segment.length >= 0) {
+            return segment.length;
+        }
+        if (bandwidth > 0 && segment.durationMs > 0) {
+            return bandwidth / 8 * segment.durationMs / 1000;
+        }
+        return preLoadBytes;
+    }
+
+    /**
+     * 同一个url上首尾相接的范围合并成一个请求，如SegmentBase或者EXT-X-BYTERANGE的分片
+     * */
+    static List<MediaSegment> coalesce(List<MediaSegment> segments) {
+        List<MediaSegment> result = new ArrayList<>(segments.size());
+        for (int i = 0; i < segments.size(); i++) {
+            MediaSegment segment = segments.get(i);
+            int last = result.size() - 1;
+            MediaSegment previous = last >= 0 ? result.get(last) : null;
+            if (previous != null && previous.length >= 0 && previous.url.equals(segment.url)
+                    && previous.getEnd() == segment.offset) {
+                long length = segment.length >= 0 ? previous.length + segment.length : -1;
+                result.set(last, new MediaSegment(segment.url, previous.offset, length, previous.durationMs + segment.durationMs));
+            } else {
+                result.add(segment);
+            }
+        }
+        return result;
+    }
+
+    private StreamManifest fetch(String url) throws IOException {
+        HttpURLConnection connection = mTransport.open(url, 0, MAX_PLAYLIST_BYTES);
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("request playlist failed, code: " + code + ", url: " + url);
+            }
+            // 重定向之后相对地址按最终的地址解析
+            String baseUrl = connection.getURL().toString();
+            InputStream inputStream = connection.getInputStream();
+            if (isDashUrl(url)) {
+                return DashManifestParser.parse(baseUrl, inputStream, MAX_SEGMENTS);
+            }
+            return HlsPlaylistParser.parse(baseUrl, new InputStreamReader(inputStream, "UTF-8"), MAX_SEGMENTS);
+        } finally {
+            // 解析到需要的分片就停止读取，连接不能复用
+            mTransport.release(connection, false);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.gibbon.videopreload.stream;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一路码率：HLS master playlist中的一个EXT-X-STREAM-INF（只有playlistUrl），
+ * HLS media playlist，或者DASH的一个Representation（直接包含分片）
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-10
+ */
+public class StreamVariant {
+
+    /**
+     * 码率，单位bit/s，未知时为0
+     * */
+    public final long bandwidth;
+    /**
+     * HLS master playlist中的media playlist地址，分片需要再请求这个地址才知道；其余为null
+     * */
+    public final String playlistUrl;
+    /**
+     * 初始化分片（EXT-X-MAP、DASH的Initialization），没有时为null
+     * */
+    public final MediaSegment init;
+    /**
+     * 开头的若干个分片，解析时只保留前面一部分
+     * */
+    public final List<MediaSegment> segments;
+    /**
+     * DASH SegmentBase：整个视频是一个文件，只有init给出头部范围，按字节数预加载开头的数据
+     * */
+    public final String singleFileUrl;
+
+    public StreamVariant(long bandwidth, String playlistUrl, MediaSegment init, List<MediaSegment> segments, String singleFileUrl) {
+        this.bandwidth = bandwidth;
+        this.playlistUrl = playlistUrl;
+        this.init = init;
+        this.segments = segments != null ? Collections.unmodifiableList(segments) : Collections.<MediaSegment>emptyList();
+        this.singleFileUrl = singleFileUrl;
+    }
+
+    public static StreamVariant ofPlaylist(long bandwidth, String playlistUrl) {
+        return new StreamVariant(bandwidth, playlistUrl, null, null, null);
+    }
+
+    public boolean needsPlaylist() {
+        return playlistUrl != null;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamVariant{bandwidth=" + bandwidth + (playlistUrl != null ? ", playlist=" + playlistUrl : "")
+                + (init != null ? ", init=" + init : "") + ", segments=" + segments.size() + "}";
+    }
+}
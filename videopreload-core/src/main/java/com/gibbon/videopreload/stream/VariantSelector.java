@@ -0,0 +1,38 @@
+package com.gibbon.videopreload.stream;
+
+import java.util.List;
+
+/**
+ * 按估算的带宽选择码率：带宽的3/4以内最高的一路，带宽未知或者都超过时选最低的一路，
+ * 和播放器自适应码率起播时的选择尽量一致，预加载的分片才能被用上
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-10
+ */
+public class VariantSelector {
+
+    static final double BANDWIDTH_FRACTION = 0.75;
+
+    private VariantSelector() {
+    }
+
+    /**
+     * @param bytesPerSecond 估算的带宽，单位byte/s，未知时小于等于0
+     * @return variants为空时返回null
+     * */
+    public static StreamVariant select(List<StreamVariant> variants, long bytesPerSecond) {
+        StreamVariant lowest = null;
+        StreamVariant best = null;
+        double limit = bytesPerSecond * 8 * BANDWIDTH_FRACTION;
+        for (int i = 0; i < variants.size(); i++) {
+            StreamVariant variant = variants.get(i);
+            if (lowest == null || variant.bandwidth < lowest.bandwidth) {
+                lowest = variant;
+            }
+            if (bytesPerSecond > 0 && variant.bandwidth <= limit && (best == null || variant.bandwidth > best.bandwidth)) {
+                best = variant;
+            }
+        }
+        return best != null ? best : lowest;
+    }
+}
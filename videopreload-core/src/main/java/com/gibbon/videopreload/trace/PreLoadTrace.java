@@ -0,0 +1,188 @@
+package com.gibbon.videopreload.trace;
+
+/**
+ * 预加载的日志和事件跟踪。
+ *
+ * 日志按级别过滤，调用方在拼接字符串之前先用{@link #isLoggable(int)}判断，关闭时不会有任何格式化和分配；
+ * {@link #ENABLED}为false时整个跟踪在编译期被去掉。
+ * 事件只记录基本类型和已有对象的引用，设置了{@link TraceRecorder}时写入环形缓冲，需要排查问题时再{@link #dump()}。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-20
+ */
+public final class PreLoadTrace {
+
+    /**
+     * 与PreLoadManager.TAG一致
+     * */
+    public static final String TAG = "PreLoadManager";
+
+    /**
+     * 编译期开关
+     * */
+    public static final boolean ENABLED = true;
+
+    public static final int LEVEL_NONE = 0;
+    public static final int LEVEL_ERROR = 1;
+    public static final int LEVEL_INFO = 2;
+    public static final int LEVEL_DEBUG = 3;
+    public static final int LEVEL_VERBOSE = 4;
+
+    /**
+     * 任务状态变化，arg0为旧状态，arg1为新状态
+     * */
+    public static final int EVENT_STATUS = 1;
+    /**
+     * 任务开始执行，arg0为排队耗时（ms）
+     * */
+    public static final int EVENT_RUN_BEGIN = 2;
+    /**
+     * 任务执行结束，arg0为结束时的状态
+     * */
+    public static final int EVENT_RUN_END = 3;
+    /**
+     * 已经有足够的缓存，跳过下载
+     * */
+    public static final int EVENT_SKIP_CACHED = 4;
+    /**
+     * 下载结束，arg0为本次下载的字节数，arg1为耗时（ms）
+     * */
+    public static final int EVENT_DOWNLOADED = 5;
+    /**
+     * 按新的播放位置调度，index为当前播放位置，arg0、arg1为窗口的起止位置
+     * */
+    public static final int EVENT_SCHEDULE = 6;
+    /**
+     * 任务提交到调度器，arg0为与播放位置的距离
+     * */
+    public static final int EVENT_SUBMIT = 7;
+    /**
+     * 同一个视频已经在下载，合并到已有的任务
+     * */
+    public static final int EVENT_COALESCE = 8;
+    /**
+     * 任务被取消
+     * */
+    public static final int EVENT_CANCEL = 9;
+    /**
+     * 任务回收到对象池，arg0为回收后池的大小
+     * */
+    public static final int EVENT_RECYCLE = 10;
+    /**
+     * 链路空闲时扩大下一个视频的缓冲，index为下一个视频的位置，arg0为预加载的字节数
+     * */
+    public static final int EVENT_EXTEND = 11;
+    /**
+     * 带宽不够，任务放回调度器等待，arg0为与播放位置的距离
+     * */
+    public static final int EVENT_DEFER = 12;
+
+    private static final String[] EVENT_NAMES = {
+            "unknown", "status", "run_begin", "run_end", "skip_cached", "downloaded",
+            "schedule", "submit", "coalesce", "cancel", "recycle", "extend", "defer"
+    };
+
+    public interface Printer {
+
+        void println(int level, String tag, String msg);
+    }
+
+    private static volatile int sLevel = LEVEL_ERROR;
+    private static volatile Printer sPrinter;
+    private static volatile TraceRecorder sRecorder;
+
+    private PreLoadTrace() {
+    }
+
+    public static void setLevel(int level) {
+        sLevel = level;
+    }
+
+    public static int getLevel() {
+        return sLevel;
+    }
+
+    public static void setPrinter(Printer printer) {
+        sPrinter = printer;
+    }
+
+    /**
+     * 只在还没有设置输出时生效，不覆盖使用方自己的设置
+     * */
+    public static synchronized void setPrinterIfAbsent(Printer printer) {
+        if (sPrinter == null) {
+            sPrinter = printer;
+        }
+    }
+
+    /**
+     * 设置为null关闭事件记录
+     * */
+    public static void setRecorder(TraceRecorder recorder) {
+        sRecorder = recorder;
+    }
+
+    public static TraceRecorder getRecorder() {
+        return sRecorder;
+    }
+
+    public static boolean isLoggable(int level) {
+        return ENABLED && level <= sLevel && sPrinter != null;
+    }
+
+    public static boolean isDebug() {
+        return isLoggable(LEVEL_DEBUG);
+    }
+
+    public static void log(int level, String tag, String msg) {
+        if (!ENABLED || level > sLevel) {
+            return;
+        }
+
+        Printer printer = sPrinter;
+        if (printer != null) {
+            printer.println(level, tag, msg);
+        }
+    }
+
+    public static void d(String tag, String msg) {
+        log(LEVEL_DEBUG, tag, msg);
+    }
+
+    public static void i(String tag, String msg) {
+        log(LEVEL_INFO, tag, msg);
+    }
+
+    public static void e(String tag, String msg) {
+        log(LEVEL_ERROR, tag, msg);
+    }
+
+    public static void event(int type, String url, int index, long arg0, long arg1) {
+        if (!ENABLED) {
+            return;
+        }
+
+        TraceRecorder recorder = sRecorder;
+        if (recorder != null) {
+            recorder.record(type, url, index, arg0, arg1);
+        }
+    }
+
+    /**
+     * 按时间顺序输出环形缓冲里的事件，没有开启记录时返回空字符串
+     * */
+    public static String dump() {
+        TraceRecorder recorder = sRecorder;
+        if (recorder == null) {
+            return "";
+        }
+
+        StringBuilder builder = new StringBuilder();
+        recorder.dump(builder);
+        return builder.toString();
+    }
+
+    public static String eventName(int type) {
+        return type > 0 && type < EVENT_NAMES.length ? EVENT_NAMES[type] : EVENT_NAMES[0];
+    }
+}
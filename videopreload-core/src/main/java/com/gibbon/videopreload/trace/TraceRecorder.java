@@ -0,0 +1,149 @@
+package com.gibbon.videopreload.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 定长的事件环形缓冲，写满后覆盖最旧的事件。
+ *
+ * 每个槽位按列存放在预先分配的数组里，记录时不分配对象也不加锁：
+ * 写入前把槽位的序号置为-1，写完后再设为事件序号，读取时前后两次序号一致才认为是完整的事件。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-20
+ */
+public class TraceRecorder {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int mMask;
+    private final AtomicLong mCursor = new AtomicLong();
+    private final AtomicLongArray mSequences;
+    private final long[] mTimes;
+    private final int[] mTypes;
+    private final String[] mUrls;
+    private final int[] mIndexes;
+    private final long[] mArgs0;
+    private final long[] mArgs1;
+
+    public TraceRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 向上取整到2的幂
+     * */
+    public TraceRecorder(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be positive");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, -1);
+        }
+        mTimes = new long[size];
+        mTypes = new int[size];
+        mUrls = new String[size];
+        mIndexes = new int[size];
+        mArgs0 = new long[size];
+        mArgs1 = new long[size];
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    public void record(int type, String url, int index, long arg0, long arg1) {
+        long sequence = mCursor.getAndIncrement();
+        int slot = (int) (sequence & mMask);
+        mSequences.set(slot, -1);
+        mTimes[slot] = System.nanoTime();
+        mTypes[slot] = type;
+        mUrls[slot] = url;
+        mIndexes[slot] = index;
+        mArgs0[slot] = arg0;
+        mArgs1[slot] = arg1;
+        mSequences.set(slot, sequence);
+    }
+
+    /**
+     * 按时间顺序返回还在缓冲里的事件，正在被覆盖的槽位跳过
+     * */
+    public List<Event> snapshot() {
+        long end = mCursor.get();
+        long start = Math.max(0, end - (mMask + 1));
+        List<Event> events = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & mMask);
+            if (mSequences.get(slot) != sequence) {
+                continue;
+            }
+
+            Event event = new Event(sequence, mTimes[slot], mTypes[slot], mUrls[slot], mIndexes[slot],
+                    mArgs0[slot], mArgs1[slot]);
+            if (mSequences.get(slot) == sequence) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    public void dump(StringBuilder builder) {
+        List<Event> events = snapshot();
+        long base = events.isEmpty() ? 0 : events.get(0).timeNanos;
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            builder.append('+').append((event.timeNanos - base) / 1000000).append("ms ")
+                    .append(PreLoadTrace.eventName(event.type))
+                    .append(" index=").append(event.index)
+                    .append(" arg0=").append(event.arg0)
+                    .append(" arg1=").append(event.arg1)
+                    .append(" url=").append(event.url)
+                    .append('\n');
+        }
+    }
+
+    /**
+     * 清空之后snapshot只返回之后记录的事件
+     * */
+    public void clear() {
+        for (int i = 0; i <= mMask; i++) {
+            mSequences.set(i, -1);
+            mUrls[i] = null;
+        }
+    }
+
+    public static class Event {
+
+        public final long sequence;
+        public final long timeNanos;
+        public final int type;
+        public final String url;
+        public final int index;
+        public final long arg0;
+        public final long arg1;
+
+        Event(long sequence, long timeNanos, int type, String url, int index, long arg0, long arg1) {
+            this.sequence = sequence;
+            this.timeNanos = timeNanos;
+            this.type = type;
+            this.url = url;
+            this.index = index;
+            this.arg0 = arg0;
+            this.arg1 = arg1;
+        }
+
+        @Override
+        public String toString() {
+            return PreLoadTrace.eventName(type) + "[index: " + index + ", arg0: " + arg0 + ", arg1: " + arg1 + ", url: " + url + "]";
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.gibbon.videopreload;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BandwidthEstimatorTest {
+
+    @Test
+    public void unknownWithoutSamples() {
+        BandwidthEstimator estimator = new BandwidthEstimator();
+        assertEquals(-1, estimator.getBandwidth());
+        assertEquals(-1, estimator.getBandwidthPercentile(0.5));
+        assertEquals(-1, estimator.getTtfb());
+        assertTrue(estimator.canPreLoad(500 * 1024));
+    }
+
+    @Test
+    public void smallSamplesOnlyCountForTtfb() {
+        BandwidthEstimator estimator = new BandwidthEstimator();
+        estimator.addSample(1024, 10, 80);
+
+        assertEquals(-1, estimator.getBandwidth());
+        assertEquals(80, estimator.getTtfb());
+        assertEquals(80, estimator.getTtfbPercentile(0.5));
+    }
+
+    @Test
+    public void ewmaConvergesToSteadyThroughput() {
+        BandwidthEstimator estimator = new BandwidthEstimator();
+        // 1000KB/s
+        for (int i = 0; i < 50; i++) {
+            estimator.addSample(200 * 1024, 200, 50);
+        }
+        assertEquals(1000 * 1024, estimator.getBandwidth(), 1024);
+
+        // 降到100KB/s之后估算值跟着下降
+        for (int i = 0; i < 50; i++) {
+            estimator.addSample(100 * 1024, 1000, 300);
+        }
+        assertEquals(100 * 1024, estimator.getBandwidth(), 1024);
+        assertEquals(300, estimator.getTtfb(), 1);
+    }
+
+    @Test
+    public void percentilesUseRecentWindow() {
+        BandwidthEstimator estimator = new BandwidthEstimator();
+        for (int i = 1; i <= 100; i++) {
+            // 吞吐量 i * 16KB/s，ttfb i ms
+            estimator.addSample(BandwidthEstimator.MIN_SAMPLE_BYTES * i, 1000, i);
+        }
+
+        // 只保留最近32个样本：69..100
+        assertEquals(69 * BandwidthEstimator.MIN_SAMPLE_BYTES, estimator.getBandwidthPercentile(0));
+        assertEquals(100 * BandwidthEstimator.MIN_SAMPLE_BYTES, estimator.getBandwidthPercentile(1));
+        assertEquals(85, estimator.getTtfbPercentile(0.5));
+        assertEquals(100, estimator.getTtfbPercentile(0.99));
+    }
+
+    @Test
+    public void pauseWhenBandwidthBelowBitrate() {
+        BandwidthEstimator estimator = new BandwidthEstimator();
+        for (int i = 0; i < 10; i++) {
+            // 200KB/s
+            estimator.addSample(200 * 1024, 1000, 100);
+        }
+
+        // 1Mbps的视频每秒需要128KB
+        assertTrue(estimator.canPreLoad(128 * 1024));
+        // 2Mbps的视频每秒需要256KB，带宽不够
+        assertFalse(estimator.canPreLoad(256 * 1024));
+        assertTrue(estimator.canPreLoad(-1));
+
+        estimator.reset();
+        assertTrue(estimator.canPreLoad(256 * 1024));
+    }
+}
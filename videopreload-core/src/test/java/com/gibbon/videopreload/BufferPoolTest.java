@@ -0,0 +1,41 @@
+package com.gibbon.videopreload;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void acquireRoundsUpToSizeClass() {
+        BufferPool pool = new BufferPool(new int[]{1024, 4096}, 2);
+        assertEquals(1024, pool.acquire(1).length);
+        assertEquals(1024, pool.acquire(1024).length);
+        assertEquals(4096, pool.acquire(1025).length);
+        // 超过最大一级时返回最大一级
+        assertEquals(4096, pool.acquire(100000).length);
+    }
+
+    @Test
+    public void releasedBufferIsReused() {
+        BufferPool pool = new BufferPool(new int[]{1024, 4096}, 2);
+        byte[] buffer = pool.acquire(2000);
+        pool.release(buffer);
+        assertEquals(1, pool.getFreeCount());
+        assertSame(buffer, pool.acquire(4096));
+        assertEquals(0, pool.getFreeCount());
+    }
+
+    @Test
+    public void releaseDropsForeignAndOverflow() {
+        BufferPool pool = new BufferPool(new int[]{1024}, 2);
+        pool.release(new byte[1000]);
+        pool.release(null);
+        assertEquals(0, pool.getFreeCount());
+
+        pool.release(new byte[1024]);
+        pool.release(new byte[1024]);
+        pool.release(new byte[1024]);
+        assertEquals(2, pool.getFreeCount());
+    }
+}
@@ -0,0 +1,37 @@
+package com.gibbon.videopreload;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ContentRangeTest {
+
+    @Test
+    public void parsesTotalLength() {
+        assertEquals(1234567, ContentRange.parseTotalLength("bytes 0-102399/1234567"));
+        // 416响应
+        assertEquals(49152, ContentRange.parseTotalLength("bytes */49152"));
+        assertEquals(-1, ContentRange.parseTotalLength("bytes 0-102399/*"));
+        assertEquals(-1, ContentRange.parseTotalLength(null));
+        assertEquals(-1, ContentRange.parseContentLength("abc"));
+        assertEquals(1024, ContentRange.parseContentLength(" 1024"));
+    }
+
+    @Test
+    public void fileShorterThanBudgetCompletesAtEnd() {
+        long budget = 100 * 1024;
+        long totalLength = 48 * 1024;
+
+        // 第一次请求时总长度未知，按预加载量请求
+        assertEquals(budget, ContentRange.clampTarget(budget, -1));
+        // 拿到总长度之后只下载到文件结尾，不再从结尾继续请求
+        assertEquals(totalLength, ContentRange.clampTarget(budget, totalLength));
+        assertTrue(ContentRange.isComplete(totalLength, budget, totalLength));
+        assertFalse(ContentRange.isComplete(totalLength - 1, budget, totalLength));
+        assertFalse(ContentRange.isComplete(totalLength, budget, -1));
+
+        // 文件比预加载量长时不受影响
+        assertEquals(budget, ContentRange.clampTarget(budget, 1024 * 1024));
+        assertFalse(ContentRange.isComplete(totalLength, budget, 1024 * 1024));
+    }
+}
@@ -0,0 +1,254 @@
+package com.gibbon.videopreload;
+
+import com.gibbon.videopreload.trace.PreLoadTrace;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 模拟VideoPreLoadFuture的用法：多个线程并发投递播放事件和任务结束事件，
+ * 状态（当前位置、正在加载的任务）只在事件循环线程上修改，使用非线程安全的集合
+ */
+public class EventLoopTest {
+
+    private static final int PLAY_THREADS = 4;
+    private static final int COMPLETE_THREADS = 8;
+    private static final int EVENTS_PER_THREAD = 20000;
+    private static final int WINDOW = 4;
+
+    /**
+     * 只在事件循环线程上访问
+     * */
+    private int currentIndex = -1;
+    private boolean toPreLoad;
+    private final Map<Integer, Integer> loading = new HashMap<>();
+    private int scheduled;
+    private int completed;
+    private int batches;
+    private Thread loopThread;
+    private volatile boolean confined = true;
+
+    @Test
+    public void concurrentPlayAndCompletionEvents() throws Exception {
+        final EventLoop loop = new EventLoop("event-loop-test", new EventLoop.Callback() {
+            @Override
+            public void onIdle() {
+                checkConfined();
+                batches++;
+                if (!toPreLoad) {
+                    return;
+                }
+                // 每批只按最后的播放位置调度一次
+                for (int i = currentIndex - WINDOW; i <= currentIndex + WINDOW; i++) {
+                    if (!loading.containsKey(i)) {
+                        loading.put(i, i);
+                        scheduled++;
+                    }
+                }
+                toPreLoad = false;
+            }
+        });
+
+        final AtomicInteger posted = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < PLAY_THREADS + COMPLETE_THREADS; t++) {
+            final boolean play = t < PLAY_THREADS;
+            final int seed = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+                        final int value = (seed * 31 + i) % 100;
+                        loop.post(play ? new Runnable() {
+                            @Override
+                            public void run() {
+                                checkConfined();
+                                if (value != currentIndex) {
+                                    currentIndex = value;
+                                    toPreLoad = true;
+                                }
+                            }
+                        } : new Runnable() {
+                            @Override
+                            public void run() {
+                                checkConfined();
+                                if (loading.remove(value) != null) {
+                                    completed++;
+                                }
+                            }
+                        });
+                        posted.incrementAndGet();
+                        if (i % 500 == 0) {
+                            // 让事件循环有机会在投递过程中处理，而不是最后一次处理完
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // 所有事件之后的最后一个事件处理完，说明之前投递的事件都已经执行
+        final CountDownLatch drained = new CountDownLatch(1);
+        final int[] snapshot = new int[3];
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                snapshot[0] = scheduled;
+                snapshot[1] = completed;
+                snapshot[2] = loading.size();
+                drained.countDown();
+            }
+        });
+        assertTrue(drained.await(10, TimeUnit.SECONDS));
+        loop.quit();
+
+        assertTrue("state touched outside the loop thread", confined);
+        assertEquals((PLAY_THREADS + COMPLETE_THREADS) * EVENTS_PER_THREAD, posted.get());
+        // 调度和完成的数量对得上，没有丢失或者重复处理的事件
+        assertEquals(snapshot[0], snapshot[1] + snapshot[2]);
+        // 多个事件合并成一批调度
+        assertTrue(batches < posted.get());
+    }
+
+    @Test
+    public void postAfterQuitIsIgnored() throws Exception {
+        EventLoop loop = new EventLoop("event-loop-quit", new EventLoop.Callback() {
+            @Override
+            public void onIdle() {
+            }
+        });
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch ran = new CountDownLatch(1);
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+        loop.quit();
+        assertTrue(loop.isQuit());
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        });
+        Thread.sleep(50);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void failingEventIsReportedAndLoopContinues() throws Exception {
+        final List<String> errors = new ArrayList<>();
+        PreLoadTrace.setPrinter(new PreLoadTrace.Printer() {
+            @Override
+            public void println(int level, String tag, String msg) {
+                // 只收集这个循环的输出，其他测试留下的线程也可能打日志
+                if (msg.startsWith("event-loop-error")) {
+                    synchronized (errors) {
+                        errors.add(msg);
+                    }
+                }
+            }
+        });
+        EventLoop loop = new EventLoop("event-loop-error", new EventLoop.Callback() {
+            @Override
+            public void onIdle() {
+            }
+        });
+        try {
+            loop.post(new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException("boom");
+                }
+            });
+            final CountDownLatch ran = new CountDownLatch(1);
+            loop.post(new Runnable() {
+                @Override
+                public void run() {
+                    ran.countDown();
+                }
+            });
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+            synchronized (errors) {
+                assertEquals(1, errors.size());
+                assertEquals("event-loop-error event failed: java.lang.IllegalStateException: boom", errors.get(0));
+            }
+        } finally {
+            loop.quit();
+            PreLoadTrace.setPrinter(null);
+        }
+    }
+
+    @Test
+    public void requestedIdleFiresWithoutEvents() throws Exception {
+        final AtomicInteger idles = new AtomicInteger();
+        final CountDownLatch deadlineIdle = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        final long[] firedAt = new long[1];
+        final EventLoop[] loop = new EventLoop[1];
+        loop[0] = new EventLoop("event-loop-deadline", new EventLoop.Callback() {
+            @Override
+            public void onIdle() {
+                // 第一次是处理完事件，推迟50ms再回调一次
+                if (idles.incrementAndGet() == 1) {
+                    deadline[0] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+                    loop[0].requestIdleAt(deadline[0]);
+                } else {
+                    firedAt[0] = System.nanoTime();
+                    deadlineIdle.countDown();
+                }
+            }
+        });
+        loop[0].post(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+
+        assertTrue(deadlineIdle.await(5, TimeUnit.SECONDS));
+        assertTrue(firedAt[0] - deadline[0] >= 0);
+        Thread.sleep(50);
+        assertEquals(2, idles.get());
+        loop[0].quit();
+    }
+
+    private void checkConfined() {
+        if (loopThread == null) {
+            loopThread = Thread.currentThread();
+        } else if (loopThread != Thread.currentThread()) {
+            confined = false;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.gibbon.videopreload;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InFlightRegistryTest {
+
+    @Test
+    public void secondRequestAttachesToOwner() {
+        InFlightRegistry<String> registry = new InFlightRegistry<>();
+        assertNull(registry.attach("key", "feed"));
+        assertEquals("feed", registry.attach("key", "player"));
+        // 重复登记不会重复挂载
+        assertEquals("feed", registry.attach("key", "player"));
+        assertNull(registry.attach("other", "player"));
+
+        assertTrue(registry.hasFollowers("key", "feed"));
+        assertEquals(Arrays.asList("player"), registry.complete("key", "feed"));
+        assertNull(registry.getOwner("key"));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void detachedFollowerIsNotCompleted() {
+        InFlightRegistry<String> registry = new InFlightRegistry<>();
+        registry.attach("key", "feed");
+        registry.attach("key", "player");
+
+        assertFalse(registry.detachFollower("key", "feed"));
+        assertTrue(registry.detachFollower("key", "player"));
+        assertFalse(registry.hasFollowers("key", "feed"));
+        assertTrue(registry.complete("key", "feed").isEmpty());
+    }
+
+    @Test
+    public void onlyOwnerCanComplete() {
+        InFlightRegistry<String> registry = new InFlightRegistry<>();
+        registry.attach("key", "feed");
+        registry.attach("key", "player");
+
+        List<String> followers = registry.complete("key", "player");
+        assertTrue(followers.isEmpty());
+        assertEquals("feed", registry.getOwner("key"));
+
+        // owner结束后同一个视频的新请求重新成为owner
+        registry.complete("key", "feed");
+        assertNull(registry.attach("key", "player"));
+    }
+}
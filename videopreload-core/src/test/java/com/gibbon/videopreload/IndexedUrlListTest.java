@@ -0,0 +1,82 @@
+package com.gibbon.videopreload;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IndexedUrlListTest {
+
+    @Test
+    public void indexOfMatchesList() {
+        IndexedUrlList urls = IndexedUrlList.of(Arrays.asList("a", "b", "c"))
+                .append(Arrays.asList("d", "b", null));
+
+        assertEquals(6, urls.size());
+        assertEquals(0, urls.indexOf("a"));
+        // 重复的url指向第一次出现的位置
+        assertEquals(1, urls.indexOf("b"));
+        assertEquals(3, urls.indexOf("d"));
+        assertEquals(-1, urls.indexOf("e"));
+        assertFalse(urls.contains(null));
+        assertEquals("b", urls.get(4));
+    }
+
+    @Test
+    public void ofRebuildsIndex() {
+        IndexedUrlList urls = IndexedUrlList.of(Arrays.asList("c", "a"));
+
+        assertEquals(2, urls.size());
+        assertEquals(0, urls.indexOf("c"));
+        assertEquals(1, urls.indexOf("a"));
+        assertFalse(urls.contains("b"));
+    }
+
+    @Test
+    public void appendKeepsOldSnapshot() {
+        IndexedUrlList first = IndexedUrlList.of(Arrays.asList("a", "b"));
+        IndexedUrlList second = first.append(Arrays.asList("c"));
+
+        assertEquals(2, first.size());
+        assertFalse(first.contains("c"));
+        assertEquals(3, second.size());
+        assertEquals(2, second.indexOf("c"));
+        assertEquals(0, IndexedUrlList.EMPTY.size());
+    }
+
+    @Test
+    public void appendToOlderSnapshotDoesNotLeak() {
+        IndexedUrlList first = IndexedUrlList.of(Arrays.asList("a", "b"));
+        IndexedUrlList second = first.append(Arrays.asList("c"));
+        // 在旧的快照后追加，和second互不影响
+        IndexedUrlList fork = first.append(Arrays.asList("d"));
+
+        assertEquals(3, fork.size());
+        assertEquals("d", fork.get(2));
+        assertEquals(2, fork.indexOf("d"));
+        assertFalse(fork.contains("c"));
+        assertEquals("c", second.get(2));
+        assertFalse(second.contains("d"));
+    }
+
+    @Test
+    public void pagesAcrossChunksKeepIndexes() {
+        IndexedUrlList urls = IndexedUrlList.EMPTY;
+        for (int page = 0; page < 20; page++) {
+            List<String> urlsOfPage = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                urlsOfPage.add("url-" + (page * 50 + i));
+            }
+            urls = urls.append(urlsOfPage);
+        }
+
+        assertEquals(1000, urls.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("url-" + i, urls.get(i));
+            assertEquals(i, urls.indexOf("url-" + i));
+        }
+    }
+}
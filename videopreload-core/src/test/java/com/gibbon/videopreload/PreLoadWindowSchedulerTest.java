@@ -0,0 +1,369 @@
+package com.gibbon.videopreload;
+
+import com.gibbon.videopreload.adapter.DefaultPreLoadSizeAdapter;
+import com.gibbon.videopreload.adapter.IPreLoadWindowAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PreLoadWindowSchedulerTest {
+
+    private RecordingHost host;
+    private PreLoadWindowScheduler<String> scheduler;
+
+    @Before
+    public void setUp() {
+        host = new RecordingHost();
+        scheduler = new PreLoadWindowScheduler<>("window-scheduler-test", host);
+        scheduler.updateUrls(urls(20));
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.destroy();
+    }
+
+    @Test
+    public void defaultWindowAroundPlayPosition() throws Exception {
+        scheduler.currentPlayUrl("url-5");
+        awaitSchedule(1);
+
+        // 默认窗口[index - 3, index + 4]，不包含当前播放的视频
+        assertEquals("[url-2, url-3, url-4, url-6, url-7, url-8, url-9]", host.created.toString());
+        assertEquals("2..9", host.window);
+        assertEquals(5, host.playIndex);
+    }
+
+    @Test
+    public void movingWindowKeepsOverlappingTasks() throws Exception {
+        scheduler.currentPlayUrl("url-5");
+        awaitSchedule(1);
+        host.created.clear();
+
+        scheduler.currentPlayUrl("url-6");
+        awaitSchedule(2);
+
+        // 之前正在播放的视频进入窗口
+        assertEquals("[url-5, url-10]", host.created.toString());
+        // 原来窗口内的任务按新的距离调整，不重复创建
+        assertTrue(host.updated.contains("url-4:-2"));
+        assertTrue(host.updated.contains("url-7:1"));
+        // 移出窗口的任务取消
+        assertEquals("[url-2]", host.cancelled.toString());
+    }
+
+    @Test
+    public void farJumpReplacesWholeWindow() throws Exception {
+        scheduler.currentPlayUrl("url-5");
+        awaitSchedule(1);
+        host.created.clear();
+
+        scheduler.currentPlayUrl("url-15");
+        awaitSchedule(2);
+
+        assertEquals("[url-2, url-3, url-4, url-6, url-7, url-8, url-9]", host.cancelled.toString());
+        assertEquals("[url-12, url-13, url-14, url-16, url-17, url-18, url-19]", host.created.toString());
+        assertTrue(host.updated.isEmpty());
+    }
+
+    @Test
+    public void flingIsCoalescedIntoOneWindow() throws Exception {
+        scheduler.setDebounceMillis(200);
+        for (int i = 1; i <= 10; i++) {
+            scheduler.currentPlayUrl("url-" + i);
+            Thread.sleep(5);
+        }
+        awaitSchedule(1);
+
+        // 划过的视频都没有创建任务，只按最后的位置调度一次
+        assertEquals(1, host.windows.get());
+        assertEquals("7..14", host.window);
+        assertEquals(7, host.created.size());
+        assertTrue(host.cancelled.isEmpty());
+    }
+
+    @Test
+    public void scrollingHoldsScheduleUntilSettled() throws Exception {
+        scheduler.setDebounceMillis(0);
+        scheduler.setScrolling(true);
+        scheduler.currentPlayUrl("url-5");
+        Thread.sleep(100);
+        assertEquals(0, host.windows.get());
+
+        long settledAt = System.nanoTime();
+        scheduler.setScrolling(false);
+        awaitSchedule(1);
+        assertEquals("2..9", host.window);
+        // 停止滑动后马上调度，不用等到MAX_DEBOUNCE_DELAY_MILLIS
+        assertTrue(System.nanoTime() - settledAt < TimeUnit.MILLISECONDS.toNanos(PreLoadWindowScheduler.MAX_DEBOUNCE_DELAY_MILLIS));
+    }
+
+    @Test
+    public void pauseCancelsAndResumeReschedules() throws Exception {
+        scheduler.currentPlayUrl("url-5");
+        awaitSchedule(1);
+        scheduler.pause();
+        awaitEvents();
+        assertEquals(7, host.cancelled.size());
+
+        host.created.clear();
+        scheduler.resume();
+        awaitSchedule(2);
+        assertEquals(7, host.created.size());
+    }
+
+    @Test
+    public void pendingUntilHostCanSchedule() throws Exception {
+        host.canSchedule = false;
+        scheduler.currentPlayUrl("url-5");
+        assertTrue(host.checked.tryAcquire(5, TimeUnit.SECONDS));
+        assertTrue(host.created.isEmpty());
+
+        host.canSchedule = true;
+        scheduler.wakeUp();
+        awaitSchedule(1);
+        assertEquals(7, host.created.size());
+    }
+
+    @Test
+    public void loadingTasksAreBounded() throws Exception {
+        // 窗口比任务上限大，超出的部分取消最早加入的任务
+        scheduler.setWindowAdapter(new IPreLoadWindowAdapter() {
+            @Override
+            public void onPlayIndexChanged(int lastIndex, int currentIndex, long timeMillis) {
+            }
+
+            @Override
+            public int getBackwardCount(long bytesPerSecond) {
+                return 0;
+            }
+
+            @Override
+            public int getForwardCount(long bytesPerSecond) {
+                return 20;
+            }
+        });
+        scheduler.currentPlayUrl("url-0");
+        awaitSchedule(1);
+
+        final int[] loading = new int[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                loading[0] = scheduler.getLoadingTaskCount();
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(PreLoadWindowScheduler.MAX_LOADING_TASKS, loading[0]);
+        assertEquals(19 - PreLoadWindowScheduler.MAX_LOADING_TASKS, host.cancelled.size());
+        assertEquals("[url-1, url-2, url-3]", host.cancelled.toString());
+    }
+
+    @Test
+    public void extendsNextItemOnceWhenLinkIsIdle() throws Exception {
+        scheduler.currentPlayUrl("url-5");
+        awaitSchedule(1);
+        finishCreatedTasks();
+        // 链路忙时不扩展
+        assertEquals(7, host.created.size());
+
+        long playedAt = System.nanoTime();
+        host.linkIdle = true;
+        scheduler.wakeUp();
+        awaitCreated(8);
+        // 当前视频播放一段时间之后才扩展
+        assertTrue(System.nanoTime() - playedAt >= TimeUnit.MILLISECONDS.toNanos(PreLoadWindowScheduler.EXTEND_AFTER_PLAY_MILLIS) / 2);
+        assertEquals("url-6", host.created.get(7));
+        assertEquals(DefaultPreLoadSizeAdapter.DEFAULT_EXTENDED_BYTES, (long) host.createdBytes.get(7));
+
+        // 同一个播放位置只扩展一次
+        scheduler.removeTask("url-6", "url-6");
+        scheduler.wakeUp();
+        awaitEvents();
+        assertEquals(8, host.created.size());
+    }
+
+    @Test
+    public void removedTaskIsReleasedAfterLoopDropsIt() throws Exception {
+        scheduler.currentPlayUrl("url-5");
+        awaitSchedule(1);
+
+        // 回调执行时调度线程已经不再持有这个任务，可以回收复用
+        final int[] loadingCount = new int[1];
+        final CountDownLatch removed = new CountDownLatch(1);
+        String task = host.created.get(host.created.indexOf("url-6"));
+        scheduler.removeTask(task, task, new Runnable() {
+            @Override
+            public void run() {
+                loadingCount[0] = scheduler.getLoadingTaskCount();
+                removed.countDown();
+            }
+        });
+        assertTrue(removed.await(5, TimeUnit.SECONDS));
+        assertEquals(6, loadingCount[0]);
+    }
+
+    @Test
+    public void extensionYieldsToNewWindow() throws Exception {
+        scheduler.currentPlayUrl("url-5");
+        awaitSchedule(1);
+        finishCreatedTasks();
+        host.linkIdle = true;
+        scheduler.wakeUp();
+        awaitCreated(8);
+
+        host.linkIdle = false;
+        scheduler.currentPlayUrl("url-6");
+        awaitSchedule(2);
+        assertEquals("[url-6]", host.cancelled.toString());
+    }
+
+    @Test
+    public void promotedTaskGetsMoreBytes() throws Exception {
+        scheduler.currentPlayUrl("url-5");
+        awaitSchedule(1);
+        scheduler.currentPlayUrl("url-6");
+        awaitSchedule(2);
+
+        // url-7从头部升级到开头几秒
+        assertTrue(host.updated.contains("url-7:1:" + DefaultPreLoadSizeAdapter.DEFAULT_NEXT_BYTES));
+        assertTrue(host.updated.contains("url-8:2:" + DefaultPreLoadSizeAdapter.HEADER_BYTES));
+    }
+
+    private void awaitCreated(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            final int[] created = new int[1];
+            final CountDownLatch latch = new CountDownLatch(1);
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    created[0] = host.created.size();
+                    latch.countDown();
+                }
+            });
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            if (created[0] >= count) {
+                return;
+            }
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private void finishCreatedTasks() throws InterruptedException {
+        for (String task : new ArrayList<>(host.created)) {
+            scheduler.removeTask(task, task);
+        }
+        awaitEvents();
+    }
+
+    /**
+     * 等到第windows次调度完成。调度在一批事件之后执行，投递的事件可能和播放事件在同一批，
+     * 所以先等调度开始，再投递一个事件等这次调度结束
+     * */
+    private void awaitSchedule(int windows) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (host.windows.get() < windows) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        awaitEvents();
+    }
+
+    /**
+     * 等到之前投递的事件都执行完
+     * */
+    private void awaitEvents() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private static List<String> urls(int count) {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            urls.add("url-" + i);
+        }
+        return urls;
+    }
+
+    /**
+     * 回调都在调度线程上，测试线程在awaitSchedule之后读取
+     * */
+    private static class RecordingHost implements PreLoadWindowScheduler.Host<String> {
+
+        final List<String> created = new ArrayList<>();
+        final List<String> updated = new ArrayList<>();
+        final List<String> cancelled = new ArrayList<>();
+        final List<Long> createdBytes = new ArrayList<>();
+        final AtomicInteger windows = new AtomicInteger();
+        final Semaphore checked = new Semaphore(0);
+        volatile boolean canSchedule = true;
+        volatile boolean linkIdle = false;
+        volatile String window;
+        volatile int playIndex = -1;
+
+        @Override
+        public boolean canSchedule() {
+            checked.release();
+            return canSchedule;
+        }
+
+        @Override
+        public long getBandwidth() {
+            return -1;
+        }
+
+        @Override
+        public void onPlayIndexChanged(String url, int index, PreLoadHint hint) {
+            playIndex = index;
+        }
+
+        @Override
+        public void onWindowChanged(IndexedUrlList urls, int currentIndex, int firstIndex, int lastIndex) {
+            window = firstIndex + ".." + lastIndex;
+            windows.incrementAndGet();
+        }
+
+        @Override
+        public String createTask(String url, int index, int distance, long preLoadBytes) {
+            created.add(url);
+            createdBytes.add(preLoadBytes);
+            return url;
+        }
+
+        @Override
+        public void updateTask(String task, int index, int distance, long preLoadBytes) {
+            updated.add(task + ":" + distance);
+            updated.add(task + ":" + distance + ":" + preLoadBytes);
+        }
+
+        @Override
+        public void cancelTask(String task) {
+            cancelled.add(task);
+        }
+
+        @Override
+        public boolean isLinkIdle() {
+            return linkIdle;
+        }
+    }
+}
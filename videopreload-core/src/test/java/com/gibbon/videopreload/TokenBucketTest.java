@@ -0,0 +1,54 @@
+package com.gibbon.videopreload;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    @Test
+    public void unlimitedNeverWaits() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket();
+        bucket.consume(10 * 1024 * 1024);
+        assertTrue(bucket.awaitTokens(0));
+    }
+
+    @Test
+    public void pausedBlocksUntilResumed() throws InterruptedException {
+        final TokenBucket bucket = new TokenBucket();
+        bucket.setRate(0);
+        bucket.consume(1024);
+        assertFalse(bucket.awaitTokens(50));
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                bucket.setRate(TokenBucket.UNLIMITED);
+            }
+        }).start();
+        assertTrue(bucket.awaitTokens(2000));
+    }
+
+    @Test
+    public void rateLimitsThroughput() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket();
+        // 100KB/s，从不限速切换过来时桶是空的
+        bucket.setRate(100 * 1024);
+        long start = System.nanoTime();
+        for (int i = 0; i < 36; i++) {
+            bucket.consume(1024);
+            while (!bucket.awaitTokens(100)) {
+                // keep waiting
+            }
+        }
+        long costMillis = (System.nanoTime() - start) / 1000000;
+        // 36KB至少需要约350ms
+        assertTrue("cost " + costMillis, costMillis >= 250);
+        assertTrue("cost " + costMillis, costMillis < 2000);
+    }
+}
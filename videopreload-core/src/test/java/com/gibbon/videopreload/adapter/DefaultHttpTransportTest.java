@@ -0,0 +1,153 @@
+package com.gibbon.videopreload.adapter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class DefaultHttpTransportTest {
+
+    private static final int VIDEO_BYTES = 64 * 1024;
+
+    private HttpServer server;
+    private String url;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/video.mp4", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                // 只支持bytes=from-to
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int from = Integer.parseInt(bounds[0]);
+                int to = Integer.parseInt(bounds[1]);
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + VIDEO_BYTES);
+                exchange.sendResponseHeaders(206, to - from + 1);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(new byte[to - from + 1]);
+                outputStream.close();
+            }
+        });
+        server.createContext("/redirect.mp4", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Location",
+                        "http://localhost:" + server.getAddress().getPort() + "/video.mp4");
+                exchange.sendResponseHeaders(302, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/video.mp4";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void fullyReadResponsesReuseConnection() throws IOException {
+        DefaultHttpTransport transport = new DefaultHttpTransport();
+        for (int i = 0; i < 5; i++) {
+            HttpURLConnection connection = transport.open(url, i * 1024, (i + 1) * 1024);
+            assertEquals(206, connection.getResponseCode());
+            assertEquals(1024, readAll(connection.getInputStream()));
+            transport.release(connection, true);
+        }
+
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void requestAfterWarmUpReusesConnection() throws Exception {
+        DefaultHttpTransport transport = new DefaultHttpTransport();
+        transport.warmUp(url);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (clientPorts.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // 等预热线程关闭响应、连接回到keep-alive池
+        Thread.sleep(100);
+
+        HttpURLConnection connection = transport.open(url, 0, 1024);
+        assertEquals(1024, readAll(connection.getInputStream()));
+        transport.release(connection, true);
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void connectionsPerHostAreBounded() throws Exception {
+        final DefaultHttpTransport transport = new DefaultHttpTransport(5000, 5000, 1);
+        HttpURLConnection first = transport.open(url, 0, 1024);
+
+        final CountDownLatch opened = new CountDownLatch(1);
+        final AtomicBoolean failed = new AtomicBoolean();
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    HttpURLConnection connection = transport.open(url, 1024, 2048);
+                    readAll(connection.getInputStream());
+                    transport.release(connection, true);
+                    opened.countDown();
+                } catch (IOException e) {
+                    failed.set(true);
+                }
+            }
+        });
+        second.start();
+
+        // 第一个连接没有归还之前第二个请求只能等待
+        assertFalse(opened.await(200, TimeUnit.MILLISECONDS));
+        readAll(first.getInputStream());
+        transport.release(first, true);
+        assertTrue(opened.await(5, TimeUnit.SECONDS));
+        assertFalse(failed.get());
+    }
+
+    @Test
+    public void redirectedRequestsReleaseOriginalHostPermit() throws IOException {
+        DefaultHttpTransport transport = new DefaultHttpTransport(500, 5000, 1);
+        String redirectUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/redirect.mp4";
+        for (int i = 0; i < 3; i++) {
+            HttpURLConnection connection = transport.open(redirectUrl, i * 1024, (i + 1) * 1024);
+            assertEquals(206, connection.getResponseCode());
+            assertEquals("localhost", connection.getURL().getHost());
+            assertEquals(1024, readAll(connection.getInputStream()));
+            // 归还的是127.0.0.1的连接数，否则第二次open会等到超时
+            transport.release(connection, true);
+        }
+    }
+
+    private static int readAll(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[4096];
+        int total = 0;
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            total += read;
+        }
+        return total;
+    }
+}
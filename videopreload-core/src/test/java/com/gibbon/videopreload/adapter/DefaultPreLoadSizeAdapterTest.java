@@ -0,0 +1,44 @@
+package com.gibbon.videopreload.adapter;
+
+import com.gibbon.videopreload.PreLoadHint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DefaultPreLoadSizeAdapterTest {
+
+    @Test
+    public void tierFollowsDistance() {
+        DefaultPreLoadSizeAdapter adapter = new DefaultPreLoadSizeAdapter();
+        assertEquals(ITieredPreLoadSizeAdapter.TIER_FIRST_SEGMENT, adapter.getTier(1));
+        // 往回滑的概率低，之前的视频只预加载头部
+        assertEquals(ITieredPreLoadSizeAdapter.TIER_HEADER, adapter.getTier(-1));
+        assertEquals(ITieredPreLoadSizeAdapter.TIER_HEADER, adapter.getTier(2));
+        assertEquals(DefaultPreLoadSizeAdapter.HEADER_BYTES, adapter.getPreLoadBytes(2, -1, null));
+        assertEquals(DefaultPreLoadSizeAdapter.HEADER_BYTES, adapter.getPreLoadBytes(-1, -1, null));
+
+        adapter = new DefaultPreLoadSizeAdapter(2);
+        assertEquals(ITieredPreLoadSizeAdapter.TIER_FIRST_SEGMENT, adapter.getTier(2));
+        assertEquals(ITieredPreLoadSizeAdapter.TIER_HEADER, adapter.getTier(-2));
+        assertEquals(ITieredPreLoadSizeAdapter.TIER_HEADER, adapter.getTier(3));
+    }
+
+    @Test
+    public void bytesGrowWithTier() {
+        DefaultPreLoadSizeAdapter adapter = new DefaultPreLoadSizeAdapter();
+        // 800kbps，每秒100KB
+        PreLoadHint hint = PreLoadHint.ofBitrate(800 * 1000);
+        long header = adapter.getPreLoadBytes(3, -1, hint);
+        long firstSegment = adapter.getPreLoadBytes(1, -1, hint);
+        long extended = adapter.getExtendedBytes(-1, hint);
+
+        assertEquals(DefaultPreLoadSizeAdapter.HEADER_BYTES + 2 * 100000, firstSegment);
+        assertEquals(DefaultPreLoadSizeAdapter.HEADER_BYTES + 8 * 100000, extended);
+        assertTrue(header < firstSegment);
+
+        // 不超过文件大小
+        assertEquals(300000, adapter.getExtendedBytes(-1, new PreLoadHint(800 * 1000, 0, 300000)));
+        assertEquals(DefaultPreLoadSizeAdapter.DEFAULT_EXTENDED_BYTES, adapter.getExtendedBytes(-1, null));
+    }
+}
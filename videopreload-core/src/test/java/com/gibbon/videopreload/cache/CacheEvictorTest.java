@@ -0,0 +1,103 @@
+package com.gibbon.videopreload.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CacheEvictorTest {
+
+    private static final long NOW = 100L * 24 * 60 * 60 * 1000;
+    private static final long MINUTE = 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final CacheIndex cacheIndex = new CacheIndex();
+    private final Set<String> protectedKeys = new HashSet<>();
+
+    @Test
+    public void stalePartialsGoBeforeCompleteFiles() throws IOException {
+        add("old.mp4", 1000, NOW - 60 * MINUTE);
+        add("newer.mp4", 1000, NOW - 10 * MINUTE);
+        add("stale" + CacheFileWriter.TEMP_POSTFIX, 1000, NOW - 40 * MINUTE);
+        add("fresh" + CacheFileWriter.TEMP_POSTFIX, 1000, NOW - 5 * MINUTE);
+
+        CacheEvictor evictor = newEvictor(2500);
+        assertEquals(2, evictor.trim(NOW));
+
+        // 先删除长时间没有访问的残留，再删除最久没有访问的完整文件
+        assertNull(cacheIndex.get("stale"));
+        assertFalse(new File(folder.getRoot(), "stale" + CacheFileWriter.TEMP_POSTFIX).exists());
+        assertNull(cacheIndex.get("old.mp4"));
+        assertFalse(new File(folder.getRoot(), "old.mp4").exists());
+        assertNotNull(cacheIndex.get("newer.mp4"));
+        assertNotNull(cacheIndex.get("fresh"));
+    }
+
+    @Test
+    public void freshPartialsAreEvictedLast() throws IOException {
+        add("fresh" + CacheFileWriter.TEMP_POSTFIX, 1000, NOW - 20 * MINUTE);
+        add("full.mp4", 1000, NOW - 5 * MINUTE);
+
+        assertEquals(1, newEvictor(1500).trim(NOW));
+        assertNull(cacheIndex.get("full.mp4"));
+        assertNotNull(cacheIndex.get("fresh"));
+    }
+
+    @Test
+    public void protectedAndInUseEntriesAreKept() throws IOException {
+        add("window.mp4", 1000, NOW - 60 * MINUTE);
+        add("playing.mp4", 1000, NOW - 1000);
+        add("other.mp4", 1000, NOW - 30 * MINUTE);
+        protectedKeys.add("window.mp4");
+
+        CacheEvictor evictor = newEvictor(500);
+        assertEquals(1, evictor.trim(NOW));
+        assertNull(cacheIndex.get("other.mp4"));
+        // 超出配额也不能删除预加载窗口内以及刚访问过的文件
+        assertEquals(0, evictor.trim(NOW));
+        assertNotNull(cacheIndex.get("window.mp4"));
+        assertNotNull(cacheIndex.get("playing.mp4"));
+    }
+
+    @Test
+    public void evictsIncrementally() throws IOException {
+        for (int i = 0; i < CacheEvictor.MAX_EVICT_PER_PASS + 4; i++) {
+            add("video" + i + ".mp4", 1000, NOW - (60 - i) * MINUTE);
+        }
+
+        CacheEvictor evictor = newEvictor(1000);
+        assertEquals(CacheEvictor.MAX_EVICT_PER_PASS, evictor.trim(NOW));
+        assertEquals(3, evictor.trim(NOW));
+        assertEquals(0, evictor.trim(NOW));
+        assertEquals(Collections.singleton("video" + (CacheEvictor.MAX_EVICT_PER_PASS + 3) + ".mp4"),
+                cacheIndex.getEntries().keySet());
+    }
+
+    private CacheEvictor newEvictor(long maxBytes) {
+        CacheEvictor evictor = new CacheEvictor(folder.getRoot(), cacheIndex, new CacheEvictor.ProtectionPolicy() {
+            @Override
+            public boolean isProtected(String key) {
+                return protectedKeys.contains(key);
+            }
+        });
+        evictor.setMaxBytes(maxBytes);
+        return evictor;
+    }
+
+    private void add(String name, int size, long lastAccess) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(folder.getRoot(), name), "rw");
+        file.setLength(size);
+        file.close();
+        cacheIndex.update(name, size, lastAccess);
+    }
+}
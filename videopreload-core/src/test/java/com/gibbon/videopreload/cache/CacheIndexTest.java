@@ -0,0 +1,92 @@
+package com.gibbon.videopreload.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class CacheIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void scanCompleteAndPartialFiles() throws IOException {
+        File dir = folder.getRoot();
+        createFile(dir, "complete.mp4", 4096);
+        createFile(dir, "partial" + CacheFileWriter.TEMP_POSTFIX, 2000);
+        createFile(dir, "tiny", 10);
+
+        CacheIndex cacheIndex = new CacheIndex();
+        assertFalse(cacheIndex.isReady());
+        cacheIndex.scan(dir);
+        assertTrue(cacheIndex.isReady());
+
+        assertTrue(cacheIndex.isComplete("complete.mp4"));
+        assertTrue(cacheIndex.hasEnoughCache("complete.mp4", 1024 * 1024));
+        assertFalse(cacheIndex.isComplete("partial"));
+        assertTrue(cacheIndex.hasEnoughCache("partial", 2000));
+        assertFalse(cacheIndex.hasEnoughCache("partial", 2001));
+        assertFalse(cacheIndex.isComplete("tiny"));
+        assertFalse(cacheIndex.hasEnoughCache("missing", 0));
+        assertEquals(2000, cacheIndex.getCachedBytes("partial"));
+    }
+
+    @Test
+    public void renameTempFileToComplete() {
+        CacheIndex cacheIndex = new CacheIndex();
+        cacheIndex.update("video" + CacheFileWriter.TEMP_POSTFIX, 5000, 1);
+
+        // 代理下载完成后重命名：先MOVED_FROM临时文件，再MOVED_TO完整文件，顺序也可能相反
+        cacheIndex.update("video", 8000, 2);
+        cacheIndex.remove("video" + CacheFileWriter.TEMP_POSTFIX);
+        assertTrue(cacheIndex.isComplete("video"));
+        assertEquals(8000, cacheIndex.getCachedBytes("video"));
+
+        cacheIndex.remove("video");
+        assertNull(cacheIndex.get("video"));
+    }
+
+    @Test
+    public void writerUpdatesIndexLayout() throws IOException {
+        File dir = folder.getRoot();
+        CacheFileWriter writer = new CacheFileWriter(dir, "direct");
+        assertTrue(writer.open());
+        byte[] buffer = new byte[1500];
+        writer.write(buffer, buffer.length);
+        writer.write(buffer, 500);
+        File file = writer.close(2000);
+
+        assertEquals("direct", file.getName());
+        assertEquals(2000, file.length());
+        assertFalse(new File(dir, "direct" + CacheFileWriter.TEMP_POSTFIX).exists());
+        assertFalse(new CacheFileWriter(dir, "direct").open());
+    }
+
+    @Test
+    public void restoredEntriesAreReconciledByScan() throws IOException {
+        File dir = folder.getRoot();
+        createFile(dir, "kept" + CacheFileWriter.TEMP_POSTFIX, 3000);
+
+        CacheIndex cacheIndex = new CacheIndex();
+        cacheIndex.restore("kept", 2000, 1);
+        cacheIndex.restore("deleted", 2000, 1);
+        // 扫描之前可以直接使用日志里的记录
+        assertTrue(cacheIndex.hasEnoughCache("deleted", 2000));
+
+        cacheIndex.scan(dir);
+        assertEquals(3000, cacheIndex.getCachedBytes("kept"));
+        assertNull(cacheIndex.get("deleted"));
+    }
+
+    private static void createFile(File dir, String name, long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(dir, name), "rw");
+        file.setLength(length);
+        file.close();
+    }
+}
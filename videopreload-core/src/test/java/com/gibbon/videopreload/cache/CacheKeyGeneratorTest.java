@@ -0,0 +1,92 @@
+package com.gibbon.videopreload.cache;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+
+import static org.junit.Assert.*;
+
+public class CacheKeyGeneratorTest {
+
+    private final CacheKeyGenerator generator = new CacheKeyGenerator(4);
+
+    @Test
+    public void md5MatchesMessageDigest() throws Exception {
+        String[] urls = {
+                "",
+                "30002464111",
+                "http://example.com/video/1.mp4?sign=abc&t=1593000000",
+                "http://example.com/视频/第一集.mp4",
+                longUrl(600),
+        };
+        for (String url : urls) {
+            assertEquals(url, legacyMd5(url), generator.computeMd5(url));
+            assertEquals(url, legacyMd5(url), generator.md5(url));
+        }
+    }
+
+    @Test
+    public void memoizedKeyIsReused() {
+        String url = "http://example.com/video/2.mp4";
+        assertSame(generator.md5(url), generator.md5(url));
+        assertSame(generator.fileName(url), generator.fileName(url));
+    }
+
+    @Test
+    public void fileNameKeepsShortExtension() {
+        String md5 = generator.md5("http://example.com/a.mp4");
+        assertEquals(md5 + ".mp4", generator.fileName("http://example.com/a.mp4"));
+
+        md5 = generator.md5("http://example.com/a.m3u8");
+        assertEquals(md5 + ".m3u8", generator.fileName("http://example.com/a.m3u8"));
+
+        // 扩展名超过4个字符、点在路径中、以点结尾或者没有扩展名时只用md5
+        String url = "http://example.com/a.mpeg4";
+        assertEquals(generator.md5(url), generator.fileName(url));
+        url = "http://example.com/dir.v2/video";
+        assertEquals(generator.md5(url), generator.fileName(url));
+        url = "30002464111";
+        assertEquals(generator.md5(url), generator.fileName(url));
+        url = "http://example.com/a.";
+        assertEquals(generator.md5(url), generator.fileName(url));
+    }
+
+    @Test
+    public void lruIsBounded() {
+        String first = generator.md5("url-0");
+        for (int i = 1; i <= 8; i++) {
+            generator.md5("url-" + i);
+        }
+        // 超出容量后重新计算，值不变但不是同一个对象
+        String again = generator.md5("url-0");
+        assertEquals(first, again);
+        assertNotSame(first, again);
+    }
+
+    private static String longUrl(int length) {
+        StringBuilder builder = new StringBuilder("http://example.com/");
+        while (builder.length() < length) {
+            builder.append('a');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 原来AndroidUtils.textToMD5的实现
+     * */
+    static String legacyMd5(String plainText) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        md.update(plainText.getBytes("UTF-8"));
+        byte[] b = md.digest();
+        StringBuilder buf = new StringBuilder();
+        for (final byte b1 : b) {
+            int i = b1;
+            if (i < 0)
+                i += 256;
+            if (i < 16)
+                buf.append("0");
+            buf.append(Integer.toHexString(i));
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package com.gibbon.videopreload.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PreLoadJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayRestoresLatestState() {
+        File file = new File(folder.getRoot(), "journal");
+        PreLoadJournal journal = new PreLoadJournal(file);
+        journal.recordPreload("a.mp4", 1000, 1);
+        journal.recordPreload("a.mp4", 3000, 2);
+        journal.recordPreload("b.mp4", 500, 3);
+        journal.recordPlayed("b.mp4", 4);
+        journal.recordPreload("c.mp4", 700, 5);
+        journal.recordRemoved("c.mp4");
+        journal.flush();
+
+        PreLoadJournal restored = new PreLoadJournal(file);
+        List<PreLoadJournal.Record> records = restored.replay();
+        assertEquals(2, records.size());
+        PreLoadJournal.Record a = restored.get("a.mp4");
+        assertEquals(3000, a.bytes);
+        assertEquals(2, a.timestamp);
+        assertFalse(a.played);
+        assertTrue(restored.get("b.mp4").played);
+        assertNull(restored.get("c.mp4"));
+    }
+
+    @Test
+    public void truncatedTailIsIgnored() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+        PreLoadJournal journal = new PreLoadJournal(file);
+        journal.recordPreload("a.mp4", 1000, 1);
+        journal.recordPreload("b.mp4", 2000, 2);
+        journal.flush();
+
+        // 模拟写到一半时进程被杀
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 5);
+        raf.close();
+
+        PreLoadJournal restored = new PreLoadJournal(file);
+        assertEquals(1, restored.replay().size());
+        assertEquals(1000, restored.get("a.mp4").bytes);
+    }
+
+    @Test
+    public void foreignFileIsDiscarded() throws IOException {
+        File file = new File(folder.getRoot(), "journal");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("not a journal".getBytes("UTF-8"));
+        out.close();
+
+        PreLoadJournal journal = new PreLoadJournal(file);
+        assertTrue(journal.replay().isEmpty());
+        journal.recordPreload("a.mp4", 1000, 1);
+        journal.flush();
+        assertEquals(1, new PreLoadJournal(file).replay().size());
+    }
+
+    @Test
+    public void compactionKeepsJournalBounded() {
+        File file = new File(folder.getRoot(), "journal");
+        PreLoadJournal journal = new PreLoadJournal(file);
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 20; i++) {
+                journal.recordPreload("video" + i + ".mp4", round * 100 + i, round);
+            }
+            journal.flush();
+        }
+
+        // 1000条记录只剩20个视频，压缩后每个视频一条；一条记录不超过32字节，压缩触发前最多有两倍有效记录
+        assertTrue("journal not compacted: " + file.length(), file.length() < 4 + 32 * 256 * 2);
+        PreLoadJournal restored = new PreLoadJournal(file);
+        assertEquals(20, restored.replay().size());
+        assertEquals(49 * 100 + 7, restored.get("video7.mp4").bytes);
+
+        restored.retain(Collections.singleton("video7.mp4"));
+        restored.flush();
+        assertEquals(1, new PreLoadJournal(file).replay().size());
+    }
+
+    @Test
+    public void entriesAreBounded() {
+        PreLoadJournal journal = new PreLoadJournal(new File(folder.getRoot(), "journal"));
+        for (int i = 0; i < PreLoadJournal.MAX_ENTRIES + 10; i++) {
+            journal.recordPreload("video" + i + ".mp4", 1000, i);
+        }
+
+        assertEquals(PreLoadJournal.MAX_ENTRIES, journal.size());
+        assertNull(journal.get("video0.mp4"));
+        assertNotNull(journal.get("video" + (PreLoadJournal.MAX_ENTRIES + 9) + ".mp4"));
+    }
+}
@@ -0,0 +1,56 @@
+package com.gibbon.videopreload.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FirstFrameTrackerTest {
+
+    @Test
+    public void ttffIsBucketedByCacheState() {
+        FirstFrameTracker tracker = new FirstFrameTracker();
+        tracker.onPlayRequested("none", FirstFrameTracker.STATE_NOT_CACHED, 0, 0);
+        tracker.onPlayRequested("small", FirstFrameTracker.STATE_PARTIAL, 10 * 1024, 0);
+        tracker.onPlayRequested("large", FirstFrameTracker.STATE_PARTIAL, 512 * 1024, 0);
+        tracker.onPlayRequested("full", FirstFrameTracker.STATE_COMPLETE, 4 * 1024 * 1024, 0);
+
+        assertEquals(900, tracker.onFirstFrame("none", 900).getTtffMillis());
+        assertEquals(400, tracker.onFirstFrame("small", 400).getTtffMillis());
+        FirstFrameTracker.FirstFrame large = tracker.onFirstFrame("large", 120);
+        assertEquals(FirstFrameTracker.STATE_PARTIAL, large.getState());
+        assertEquals(512 * 1024, large.getCachedBytes());
+        assertEquals(40, tracker.onFirstFrame("full", 40).getTtffMillis());
+
+        FirstFrameTracker.Snapshot snapshot = tracker.snapshot();
+        assertEquals(1000, snapshot.getNotCached().getPercentile(50));
+        assertEquals(500, snapshot.getPartial(FirstFrameTracker.sizeBucketOf(10 * 1024)).getPercentile(50));
+        assertEquals(250, snapshot.getPartial(FirstFrameTracker.sizeBucketOf(512 * 1024)).getPercentile(50));
+        assertEquals(0, snapshot.getPartial(FirstFrameTracker.sizeBucketOf(2 * 1024 * 1024)).getCount());
+        assertEquals(50, snapshot.getComplete().getPercentile(50));
+    }
+
+    @Test
+    public void firstFrameWithoutRequestIsIgnored() {
+        FirstFrameTracker tracker = new FirstFrameTracker();
+        assertNull(tracker.onFirstFrame("unknown", 100));
+
+        tracker.onPlayRequested("a", FirstFrameTracker.STATE_NOT_CACHED, 0, 0);
+        tracker.cancel("a");
+        assertNull(tracker.onFirstFrame("a", 100));
+
+        // 同一个视频重新开始播放时以最后一次为准
+        tracker.onPlayRequested("b", FirstFrameTracker.STATE_NOT_CACHED, 0, 0);
+        tracker.onPlayRequested("b", FirstFrameTracker.STATE_COMPLETE, 2048, 500);
+        FirstFrameTracker.FirstFrame firstFrame = tracker.onFirstFrame("b", 600);
+        assertEquals(100, firstFrame.getTtffMillis());
+        assertEquals(FirstFrameTracker.STATE_COMPLETE, firstFrame.getState());
+    }
+
+    @Test
+    public void sizeBuckets() {
+        assertEquals(0, FirstFrameTracker.sizeBucketOf(0));
+        assertEquals(0, FirstFrameTracker.sizeBucketOf(64 * 1024 - 1));
+        assertEquals(1, FirstFrameTracker.sizeBucketOf(64 * 1024));
+        assertEquals(3, FirstFrameTracker.sizeBucketOf(1024 * 1024));
+    }
+}
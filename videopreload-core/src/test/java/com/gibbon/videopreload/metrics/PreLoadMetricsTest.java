@@ -0,0 +1,138 @@
+package com.gibbon.videopreload.metrics;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PreLoadMetricsTest {
+
+    private static final String URL = "http://example.com/video/1.mp4";
+
+    @Test
+    public void countersAndHitRate() {
+        PreLoadMetrics metrics = new PreLoadMetrics();
+        metrics.onPreLoadStarted(5);
+        metrics.onPreLoadFinished(URL, PreLoadMetrics.RESULT_COMPLETED, 5, 300, 100 * 1024);
+        metrics.onPreLoadStarted(20);
+        metrics.onPreLoadFinished(URL, PreLoadMetrics.RESULT_CANCELLED, 20, 40, 10 * 1024);
+        metrics.onPreLoadFinished(URL, PreLoadMetrics.RESULT_SKIPPED_CACHED, 1, -1, 0);
+        metrics.onPreLoadFinished(URL, PreLoadMetrics.RESULT_FAILED, 1, 10, 0);
+        metrics.onPlay(URL, true, 100 * 1024);
+        metrics.onPlay(URL, false, 0);
+
+        PreLoadMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.started);
+        assertEquals(1, snapshot.completed);
+        assertEquals(1, snapshot.cancelled);
+        assertEquals(1, snapshot.skippedCached);
+        assertEquals(1, snapshot.failed);
+        assertEquals(110 * 1024, snapshot.bytesDownloaded);
+        assertEquals(100 * 1024, snapshot.bytesConsumed);
+        assertEquals(10 * 1024, snapshot.getWastedBytes());
+        assertEquals(0.5, snapshot.getHitRate(), 0.0001);
+        assertEquals(2, snapshot.queueWait.getCount());
+        // 跳过的任务没有下载耗时
+        assertEquals(3, snapshot.download.getCount());
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram(new long[]{10, 100, 1000});
+        for (int i = 0; i < 90; i++) {
+            histogram.record(5);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(500);
+        }
+        histogram.record(20000);
+        histogram.record(-1);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(10, snapshot.getPercentile(50));
+        assertEquals(10, snapshot.getPercentile(90));
+        assertEquals(1000, snapshot.getPercentile(99));
+        assertEquals(Long.MAX_VALUE, snapshot.getPercentile(100));
+        assertArrayEquals(new long[]{90, 0, 9, 1}, snapshot.getCounts());
+        assertEquals(0, new LatencyHistogram().snapshot().getPercentile(50));
+    }
+
+    @Test
+    public void listenerReceivesEvents() {
+        final List<String> events = new ArrayList<>();
+        PreLoadMetrics metrics = new PreLoadMetrics();
+        metrics.setListener(new PreLoadMetrics.Listener() {
+            @Override
+            public void onPreLoadFinished(String url, int result, long queueWaitMillis, long downloadMillis, long bytes) {
+                events.add("finish " + result + " " + bytes);
+            }
+
+            @Override
+            public void onPlay(String url, boolean hit, long preLoadedBytes) {
+                events.add("play " + hit + " " + preLoadedBytes);
+            }
+
+            @Override
+            public void onFirstFrame(String url, int state, long cachedBytes, long ttffMillis) {
+                events.add("first frame " + state + " " + cachedBytes + " " + ttffMillis);
+            }
+        });
+
+        metrics.onPreLoadFinished(URL, PreLoadMetrics.RESULT_COMPLETED, 1, 2, 3);
+        metrics.onPlay(URL, true, 3);
+        metrics.onPlayRequested("key", FirstFrameTracker.STATE_PARTIAL, 3, 1000);
+        metrics.onFirstFrame(URL, "key", 1250);
+        // 没有对应的开始播放记录
+        metrics.onFirstFrame(URL, "key", 1300);
+        assertEquals(3, events.size());
+        assertEquals("finish 0 3", events.get(0));
+        assertEquals("play true 3", events.get(1));
+        assertEquals("first frame 1 3 250", events.get(2));
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Method allocatedBytes = allocatedBytesMethod(threadMXBean);
+        Assume.assumeNotNull(allocatedBytes);
+
+        PreLoadMetrics metrics = new PreLoadMetrics();
+        for (int i = 0; i < 20000; i++) {
+            record(metrics, i);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = (Long) allocatedBytes.invoke(threadMXBean, threadId);
+        for (int i = 0; i < 100000; i++) {
+            record(metrics, i);
+        }
+        long after = (Long) allocatedBytes.invoke(threadMXBean, threadId);
+        // 允许测量本身的少量分配
+        assertTrue("allocated " + (after - before) + " bytes", after - before < 1024);
+    }
+
+    private static void record(PreLoadMetrics metrics, int i) {
+        metrics.onPreLoadStarted(i & 1023);
+        metrics.onPreLoadFinished(URL, i & 3, i & 1023, i & 4095, i);
+        metrics.onPlay(URL, (i & 1) == 0, i);
+    }
+
+    private static Method allocatedBytesMethod(ThreadMXBean threadMXBean) {
+        try {
+            Class<?> clazz = Class.forName("com.sun.management.ThreadMXBean");
+            if (!clazz.isInstance(threadMXBean)) {
+                return null;
+            }
+            return clazz.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.gibbon.videopreload.mp4;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * fixture文件：ftyp + moov + mdat（moov_front.mp4）和ftyp + free + mdat + moov（moov_end.mp4），
+ * 都包含一个音频轨道和一个视频轨道，视频轨道第3个sample为第一个关键帧
+ */
+public class Mp4BoxParserTest {
+
+    @Test
+    public void moovAtFront() throws IOException {
+        byte[] data = readFixture("mp4/moov_front.mp4");
+        Mp4HeaderInfo info = new Mp4HeaderInfo();
+
+        assertTrue(Mp4BoxParser.parseTopLevel(data, data.length, info));
+        assertTrue(info.isMoovAtFront());
+        assertEquals(24, info.moovOffset);
+        assertEquals(710, info.moovSize);
+        assertEquals(734, info.mdatOffset);
+        assertEquals(data.length, info.nextBoxOffset);
+
+        assertTrue(Mp4BoxParser.parseKeyframe(data, (int) info.moovOffset, (int) info.moovSize, info));
+        assertEquals(2142, info.keyframeOffset);
+        assertEquals(300, info.keyframeSize);
+    }
+
+    @Test
+    public void moovAtFrontHeadOnly() throws IOException {
+        // 只下载了前64字节，也能拿到moov的位置和大小
+        byte[] data = Arrays.copyOf(readFixture("mp4/moov_front.mp4"), 64);
+        Mp4HeaderInfo info = new Mp4HeaderInfo();
+
+        assertTrue(Mp4BoxParser.parseTopLevel(data, data.length, info));
+        assertTrue(info.isMoovAtFront());
+        assertEquals(734, info.moovOffset + info.moovSize);
+        assertFalse(info.hasMdat());
+    }
+
+    @Test
+    public void moovAtEnd() throws IOException {
+        byte[] data = readFixture("mp4/moov_end.mp4");
+        Mp4HeaderInfo info = new Mp4HeaderInfo();
+
+        // 头部只拿到ftyp/free/mdat的头
+        assertTrue(Mp4BoxParser.parseTopLevel(data, 256, info));
+        assertTrue(info.isMoovAtEnd());
+        assertEquals(40, info.mdatOffset);
+        assertEquals(2148, info.nextBoxOffset);
+
+        // 再请求尾部
+        int tail = (int) info.nextBoxOffset;
+        assertTrue(Mp4BoxParser.parseTopLevel(data, tail, data.length - tail, tail, info));
+        assertTrue(info.hasMoov());
+        assertFalse(info.isMoovAtFront());
+        assertEquals(2148, info.moovOffset);
+        assertEquals(710, info.moovSize);
+
+        assertTrue(Mp4BoxParser.parseKeyframe(data, tail, (int) info.moovSize, info));
+        assertEquals(1448, info.keyframeOffset);
+        assertEquals(300, info.keyframeSize);
+    }
+
+    @Test
+    public void largeSizeAndToEndBoxes() {
+        byte[] data = new byte[64];
+        writeBox(data, 0, 16, "ftyp");
+        // mdat使用64位大小
+        writeInt(data, 16, 1);
+        writeInt(data, 20, Mp4BoxParser.fourcc("mdat"));
+        writeInt(data, 24, 1);
+        writeInt(data, 28, 0);
+        Mp4HeaderInfo info = new Mp4HeaderInfo();
+
+        assertTrue(Mp4BoxParser.parseTopLevel(data, data.length, info));
+        assertEquals(16, info.mdatOffset);
+        assertEquals(1L << 32, info.mdatSize);
+        assertEquals(16 + (1L << 32), info.nextBoxOffset);
+
+        // size为0表示一直到文件末尾
+        writeBox(data, 16, 0, "mdat");
+        assertTrue(Mp4BoxParser.parseTopLevel(data, data.length, info));
+        assertEquals(16, info.mdatOffset);
+        assertEquals(-1, info.mdatSize);
+        assertEquals(-1, info.nextBoxOffset);
+    }
+
+    @Test
+    public void notMp4() {
+        byte[] data = "#EXTM3U\n#EXT-X-VERSION:3\n".getBytes();
+        Mp4HeaderInfo info = new Mp4HeaderInfo();
+
+        assertFalse(Mp4BoxParser.parseTopLevel(data, data.length, info));
+        assertFalse(info.hasMoov());
+        assertFalse(info.hasMdat());
+    }
+
+    private static void writeBox(byte[] data, int index, int size, String type) {
+        writeInt(data, index, size);
+        writeInt(data, index + 4, Mp4BoxParser.fourcc(type));
+    }
+
+    private static void writeInt(byte[] data, int index, int value) {
+        data[index] = (byte) (value >>> 24);
+        data[index + 1] = (byte) (value >>> 16);
+        data[index + 2] = (byte) (value >>> 8);
+        data[index + 3] = (byte) value;
+    }
+
+    private byte[] readFixture(String name) throws IOException {
+        InputStream inputStream = getClass().getClassLoader().getResourceAsStream(name);
+        assertNotNull(name, inputStream);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, length);
+        }
+        inputStream.close();
+        return outputStream.toByteArray();
+    }
+}
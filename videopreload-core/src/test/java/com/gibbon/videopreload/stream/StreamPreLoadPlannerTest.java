@@ -0,0 +1,198 @@
+package com.gibbon.videopreload.stream;
+
+import com.gibbon.videopreload.adapter.DefaultHttpTransport;
+import com.gibbon.videopreload.adapter.DefaultPreLoadSizeAdapter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StreamPreLoadPlannerTest {
+
+    private HttpServer server;
+    private String root;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // playlist和MPD从测试资源读取，其余路径当作分片，返回64KB的数据
+        server.createContext("/stream/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                requests.add(path.substring("/stream/".length()));
+                byte[] body = readResource(path.substring(1));
+                if (body == null) {
+                    body = new byte[64 * 1024];
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(body);
+                outputStream.close();
+            }
+        });
+        server.start();
+        root = "http://127.0.0.1:" + server.getAddress().getPort() + "/stream/";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void streamUrlIgnoresQuery() {
+        assertTrue(StreamPreLoadPlanner.isStreamUrl("http://cdn.example.com/a/master.m3u8?token=1"));
+        assertTrue(StreamPreLoadPlanner.isStreamUrl("http://cdn.example.com/a/Manifest.MPD"));
+        assertFalse(StreamPreLoadPlanner.isStreamUrl("http://cdn.example.com/a/video.mp4?f=.m3u8"));
+    }
+
+    @Test
+    public void hlsPicksVariantWithinBandwidth() throws IOException {
+        StreamPreLoadPlanner planner = new StreamPreLoadPlanner(new DefaultHttpTransport());
+
+        // 3Mbps的3/4可以选2Mbps，每个分片约500KB
+        List<MediaSegment> segments = planner.plan(root + "master.m3u8", 500 * 1000, 1200 * 1024);
+
+        assertEquals(Arrays.asList(root + "high/init.mp4", root + "high/seg1.m4s", root + "high/seg2.m4s"), urls(segments));
+        assertEquals(Arrays.asList("master.m3u8", "high/index.m3u8"), requests);
+    }
+
+    @Test
+    public void hlsFallsBackToLowestVariant() throws IOException {
+        StreamPreLoadPlanner planner = new StreamPreLoadPlanner(new DefaultHttpTransport());
+
+        // 两路都超过带宽，选最低的，没有EXT-X-MAP，按AVERAGE-BANDWIDTH估算约95KB一个分片
+        List<MediaSegment> segments = planner.plan(root + "master.m3u8", 50 * 1000, DefaultPreLoadSizeAdapter.DEFAULT_NEXT_BYTES);
+        assertEquals(Collections.singletonList(root + "low/seg1.ts"), urls(segments));
+        assertEquals(-1, segments.get(0).length);
+
+        // 只加载头部时取第一个分片的开头
+        segments = planner.plan(root + "master.m3u8", -1, DefaultPreLoadSizeAdapter.HEADER_BYTES);
+        assertEquals(1, segments.size());
+        assertEquals(root + "low/seg1.ts", segments.get(0).url);
+        assertEquals(DefaultPreLoadSizeAdapter.HEADER_BYTES, segments.get(0).length);
+    }
+
+    @Test
+    public void hlsHeaderTierLoadsInitSegmentOnly() throws IOException {
+        StreamPreLoadPlanner planner = new StreamPreLoadPlanner(new DefaultHttpTransport());
+
+        List<MediaSegment> segments = planner.plan(root + "master.m3u8", 500 * 1000, DefaultPreLoadSizeAdapter.HEADER_BYTES);
+
+        assertEquals(Collections.singletonList(root + "high/init.mp4"), urls(segments));
+    }
+
+    @Test
+    public void dashExpandsTemplatesAndAddsLowestAudio() throws IOException {
+        StreamPreLoadPlanner planner = new StreamPreLoadPlanner(new DefaultHttpTransport());
+
+        // 800kbps的3/4刚好是v360，每个分片约150KB
+        List<MediaSegment> segments = planner.plan(root + "manifest.mpd", 100 * 1000, 300 * 1000);
+
+        String base = root + "dash/";
+        assertEquals(Arrays.asList(base + "v360/init.mp4", base + "v360/seg-00001.m4s", base + "v360/seg-00002.m4s",
+                base + "audio/64000/init.mp4", base + "audio/64000/0.m4s", base + "audio/64000/96000.m4s"), urls(segments));
+        assertEquals(Collections.singletonList("manifest.mpd"), requests);
+    }
+
+    @Test
+    public void dashParsesFirstPeriodOnly() throws IOException {
+        StreamManifest manifest = DashManifestParser.parse(root + "manifest.mpd", openResource("stream/manifest.mpd"), 3);
+
+        assertEquals(2, manifest.variants.size());
+        assertEquals(2, manifest.audioVariants.size());
+        assertEquals(3, manifest.audioVariants.get(0).segments.size());
+        assertEquals(2000, manifest.variants.get(1).segments.get(0).durationMs);
+    }
+
+    @Test
+    public void dashSegmentBaseLoadsHeaderAndIndex() throws IOException {
+        String mpd = "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\"><Period><AdaptationSet mimeType=\"video/mp4\">"
+                + "<Representation id=\"1\" bandwidth=\"1000000\"><BaseURL>video.mp4</BaseURL>"
+                + "<SegmentBase indexRange=\"800-1599\"><Initialization range=\"0-799\"/></SegmentBase>"
+                + "</Representation></AdaptationSet></Period></MPD>";
+
+        StreamManifest manifest = DashManifestParser.parse("http://cdn.example.com/v/manifest.mpd",
+                new ByteArrayInputStream(mpd.getBytes("UTF-8")), 3);
+
+        StreamVariant variant = manifest.variants.get(0);
+        assertEquals("http://cdn.example.com/v/video.mp4", variant.singleFileUrl);
+        assertEquals(1600, variant.init.getEnd());
+    }
+
+    @Test
+    public void templateSubstitution() {
+        assertEquals("v1/seg-00042.m4s", DashManifestParser.expandTemplate("$RepresentationID$/seg-$Number%05d$.m4s", "v1", 42, 0, 0));
+        assertEquals("500000/9600-$.m4s", DashManifestParser.expandTemplate("$Bandwidth$/$Time$-$$.m4s", "v1", 1, 500000, 9600));
+    }
+
+    @Test
+    public void hlsByteRangesAreCoalesced() throws IOException {
+        String playlist = "#EXTM3U\n"
+                + "#EXT-X-MAP:URI=\"main.mp4\",BYTERANGE=\"720@0\"\n"
+                + "#EXTINF:2.0,\n#EXT-X-BYTERANGE:50000@720\nmain.mp4\n"
+                + "#EXTINF:2.0,\n#EXT-X-BYTERANGE:60000\nmain.mp4\n"
+                + "#EXTINF:2.0,\n#EXT-X-BYTERANGE:70000\nmain.mp4\n";
+
+        StreamVariant variant = HlsPlaylistParser.parse("http://cdn.example.com/v/index.m3u8", new StringReader(playlist), 2).variants.get(0);
+        assertEquals(2, variant.segments.size());
+        assertEquals(50720, variant.segments.get(1).offset);
+
+        List<MediaSegment> segments = new ArrayList<>();
+        segments.add(variant.init);
+        segments.addAll(variant.segments);
+        List<MediaSegment> coalesced = StreamPreLoadPlanner.coalesce(segments);
+        assertEquals(1, coalesced.size());
+        assertEquals("http://cdn.example.com/v/main.mp4", coalesced.get(0).url);
+        assertEquals(110720, coalesced.get(0).getEnd());
+    }
+
+    private static List<String> urls(List<MediaSegment> segments) {
+        List<String> urls = new ArrayList<>();
+        for (MediaSegment segment : segments) {
+            urls.add(segment.url);
+        }
+        return urls;
+    }
+
+    private InputStream openResource(String name) {
+        return getClass().getClassLoader().getResourceAsStream(name);
+    }
+
+    private byte[] readResource(String name) throws IOException {
+        InputStream inputStream = openResource(name);
+        if (inputStream == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
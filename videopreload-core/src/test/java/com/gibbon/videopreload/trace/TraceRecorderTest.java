@@ -0,0 +1,156 @@
+package com.gibbon.videopreload.trace;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class TraceRecorderTest {
+
+    private static final String URL = "http://example.com/a.mp4";
+
+    @Test
+    public void capacityIsRoundedToPowerOfTwo() {
+        assertEquals(8, new TraceRecorder(5).getCapacity());
+        assertEquals(8, new TraceRecorder(8).getCapacity());
+        assertEquals(1, new TraceRecorder(1).getCapacity());
+    }
+
+    @Test
+    public void keepsLatestEventsInOrder() {
+        TraceRecorder recorder = new TraceRecorder(4);
+        for (int i = 0; i < 10; i++) {
+            recorder.record(PreLoadTrace.EVENT_STATUS, URL, i, i, i + 1);
+        }
+
+        List<TraceRecorder.Event> events = recorder.snapshot();
+        assertEquals(4, events.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(6 + i, events.get(i).index);
+            assertEquals(7 + i, events.get(i).arg1);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        recorder.dump(builder);
+        assertTrue(builder.toString().startsWith("+0ms status index=6"));
+
+        recorder.clear();
+        assertTrue(recorder.snapshot().isEmpty());
+        recorder.record(PreLoadTrace.EVENT_RECYCLE, null, 1, 0, 0);
+        assertEquals(1, recorder.snapshot().size());
+    }
+
+    @Test
+    public void concurrentWritersDoNotLoseSlots() throws Exception {
+        final TraceRecorder recorder = new TraceRecorder(4096);
+        final int threads = 4;
+        final int perThread = 1000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        recorder.record(PreLoadTrace.EVENT_DOWNLOADED, URL, id, i, i);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        List<TraceRecorder.Event> events = recorder.snapshot();
+        assertEquals(threads * perThread, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            TraceRecorder.Event event = events.get(i);
+            assertEquals(i, event.sequence);
+            assertEquals(event.arg0, event.arg1);
+        }
+    }
+
+    @Test
+    public void disabledTraceDoesNotFormatOrRecord() {
+        final int[] printed = new int[1];
+        PreLoadTrace.setPrinter(new PreLoadTrace.Printer() {
+            @Override
+            public void println(int level, String tag, String msg) {
+                printed[0]++;
+            }
+        });
+        try {
+            PreLoadTrace.setLevel(PreLoadTrace.LEVEL_ERROR);
+            assertFalse(PreLoadTrace.isDebug());
+            PreLoadTrace.d("tag", "debug");
+            PreLoadTrace.e("tag", "error");
+            assertEquals(1, printed[0]);
+
+            // 没有设置recorder时事件直接丢弃
+            PreLoadTrace.event(PreLoadTrace.EVENT_STATUS, URL, 0, 0, 1);
+            assertEquals("", PreLoadTrace.dump());
+
+            TraceRecorder recorder = new TraceRecorder(16);
+            PreLoadTrace.setRecorder(recorder);
+            PreLoadTrace.event(PreLoadTrace.EVENT_STATUS, URL, 0, 0, 1);
+            assertTrue(PreLoadTrace.dump().contains("status index=0 arg0=0 arg1=1"));
+        } finally {
+            PreLoadTrace.setRecorder(null);
+            PreLoadTrace.setPrinter(null);
+        }
+    }
+
+    @Test
+    public void recordDoesNotAllocate() throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Method allocatedBytes = allocatedBytesMethod(threadMXBean);
+        Assume.assumeNotNull(allocatedBytes);
+
+        TraceRecorder recorder = new TraceRecorder(256);
+        PreLoadTrace.setRecorder(recorder);
+        try {
+            for (int i = 0; i < 20000; i++) {
+                PreLoadTrace.event(PreLoadTrace.EVENT_STATUS, URL, i, 1, 2);
+                PreLoadTrace.d("tag", "status");
+            }
+
+            long threadId = Thread.currentThread().getId();
+            long before = (Long) allocatedBytes.invoke(threadMXBean, threadId);
+            for (int i = 0; i < 100000; i++) {
+                PreLoadTrace.event(PreLoadTrace.EVENT_STATUS, URL, i, 1, 2);
+                PreLoadTrace.d("tag", "status");
+            }
+            long allocated = (Long) allocatedBytes.invoke(threadMXBean, threadId) - before;
+            // 允许测量本身的少量分配
+            assertTrue("allocated " + allocated, allocated < 4096);
+        } finally {
+            PreLoadTrace.setRecorder(null);
+        }
+    }
+
+    private static Method allocatedBytesMethod(ThreadMXBean threadMXBean) {
+        try {
+            Class<?> clazz = Class.forName("com.sun.management.ThreadMXBean");
+            if (!clazz.isInstance(threadMXBean)) {
+                return null;
+            }
+            return clazz.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.gibbon.videopreload.jmh;
+
+import com.gibbon.videopreload.cache.CacheKeyGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存key的计算：原来的textToMD5、CacheKeyGenerator直接计算以及命中缓存的耗时，
+ * 每次调用分配的内存用gc profiler查看：./gradlew :videopreload-jmh:jmh -Pjmh.include=CacheKey -Pjmh.prof=gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheKeyBenchmark {
+
+    private static final String URL = "http://example.com/video/30002464111.mp4?sign=0123456789abcdef&t=1593000000";
+
+    private CacheKeyGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        generator = new CacheKeyGenerator(CacheKeyGenerator.DEFAULT_MAX_ENTRIES);
+        generator.md5(URL);
+    }
+
+    @Benchmark
+    public String legacyTextToMd5() throws Exception {
+        return legacyMd5(URL);
+    }
+
+    @Benchmark
+    public String computeMd5() {
+        return generator.computeMd5(URL);
+    }
+
+    /**
+     * 命中缓存时只有查表
+     * */
+    @Benchmark
+    public String memoizedMd5() {
+        return generator.md5(URL);
+    }
+
+    @Benchmark
+    public String fileName() {
+        return generator.fileName(URL);
+    }
+
+    /**
+     * 原来AndroidUtils.textToMD5的实现
+     * */
+    private static String legacyMd5(String plainText) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        md.update(plainText.getBytes("UTF-8"));
+        byte[] b = md.digest();
+        StringBuilder buf = new StringBuilder();
+        for (final byte b1 : b) {
+            int i = b1;
+            if (i < 0)
+                i += 256;
+            if (i < 16)
+                buf.append("0");
+            buf.append(Integer.toHexString(i));
+        }
+        return buf.toString();
+    }
+}
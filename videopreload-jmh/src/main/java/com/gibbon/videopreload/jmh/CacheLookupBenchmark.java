@@ -0,0 +1,99 @@
+package com.gibbon.videopreload.jmh;
+
+import com.gibbon.videopreload.cache.CacheFileWriter;
+import com.gibbon.videopreload.cache.CacheIndex;
+import com.gibbon.videopreload.cache.CacheKeyGenerator;
+import com.gibbon.videopreload.cache.CacheLookup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * hasEnoughCache的耗时：索引扫描完成后只查内存，扫描完成之前回退到文件系统。
+ * 缓存目录里一半是完整文件，一半是下载了一部分的临时文件，另有同样数量的url没有缓存
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheLookupBenchmark {
+
+    private static final long ENOUGH_BYTES = 64 * 1024;
+
+    @Param({"1000"})
+    public int cachedFiles;
+
+    @Param({"true", "false"})
+    public boolean indexReady;
+
+    private File cacheRoot;
+    private String[] urls;
+    private CacheLookup lookup;
+    private CacheKeyGenerator keyGenerator;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        cacheRoot = Files.createTempDirectory("preload-jmh").toFile();
+        keyGenerator = new CacheKeyGenerator(CacheKeyGenerator.DEFAULT_MAX_ENTRIES);
+        urls = new String[cachedFiles * 2];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = "https://video.example.com/feed/" + i + ".mp4";
+            if (i >= cachedFiles) {
+                continue;
+            }
+
+            String name = keyGenerator.fileName(urls[i]);
+            boolean complete = i % 2 == 0;
+            File file = new File(cacheRoot, complete ? name : name + CacheFileWriter.TEMP_POSTFIX);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(complete ? 512 * 1024 : (i % 4 == 1 ? ENOUGH_BYTES * 2 : ENOUGH_BYTES / 2));
+            }
+        }
+
+        CacheIndex index = new CacheIndex();
+        if (indexReady) {
+            index.scan(cacheRoot);
+        }
+        lookup = new CacheLookup(index, cacheRoot);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = cacheRoot.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheRoot.delete();
+    }
+
+    /**
+     * 包含由url生成缓存文件名的开销，与PreLoadManager.hasEnoughCache一致
+     * */
+    @Benchmark
+    public boolean hasEnoughCache() {
+        cursor = (cursor + 1) % urls.length;
+        return lookup.hasEnoughCache(keyGenerator.fileName(urls[cursor]), ENOUGH_BYTES);
+    }
+}
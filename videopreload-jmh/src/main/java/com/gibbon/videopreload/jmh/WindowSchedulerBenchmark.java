@@ -0,0 +1,199 @@
+package com.gibbon.videopreload.jmh;
+
+import com.gibbon.videopreload.IndexedUrlList;
+import com.gibbon.videopreload.PreLoadHint;
+import com.gibbon.videopreload.PreLoadWindowScheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * currentVideoPlay的事件吞吐以及在大列表上计算预加载窗口的耗时，
+ * 任务只在内存里登记，不做下载
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WindowSchedulerBenchmark {
+
+    private static final int PLAY_EVENTS = 256;
+    private static final int PAGES = 100;
+
+    @Param({"100", "10000"})
+    public int feedSize;
+
+    /**
+     * 链路是否空闲，空闲时调度线程在事件之间会检查是否扩大下一个视频的缓冲
+     * */
+    @Param({"false", "true"})
+    public boolean linkIdle;
+
+    private List<String> urls;
+    private IndexedUrlList urlList;
+    private List<String> page;
+    private CountingHost host;
+    private PreLoadWindowScheduler<String> scheduler;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        urls = new ArrayList<>(feedSize);
+        for (int i = 0; i < feedSize; i++) {
+            urls.add("https://video.example.com/feed/" + i + ".mp4?token=" + Integer.toHexString(i * 31));
+        }
+        urlList = IndexedUrlList.of(urls);
+        page = new ArrayList<>(urls.subList(0, 20));
+
+        host = new CountingHost();
+        host.linkIdle = linkIdle;
+        scheduler = new PreLoadWindowScheduler<>("jmh-window-scheduler", host);
+        scheduler.updateUrls(urls);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.destroy();
+    }
+
+    /**
+     * 连续快速滑动：一批播放事件只按最后的位置调度一次
+     * */
+    @Benchmark
+    @OperationsPerInvocation(PLAY_EVENTS)
+    public void currentPlayEvents() throws InterruptedException {
+        for (int i = 0; i < PLAY_EVENTS; i++) {
+            scheduler.currentPlayUrl(urls.get(nextIndex()));
+        }
+        drain();
+    }
+
+    /**
+     * 单次播放位置变化到窗口内的任务调整完成
+     * */
+    @Benchmark
+    public int scheduleWindow() throws InterruptedException {
+        int windows = host.windows.get();
+        scheduler.currentPlayUrl(urls.get(nextIndex()));
+        while (host.windows.get() == windows) {
+            Thread.yield();
+        }
+        drain();
+        return host.windows.get();
+    }
+
+    @Benchmark
+    public int indexOf() {
+        return urlList.indexOf(urls.get(nextIndex()));
+    }
+
+    /**
+     * 分页加载：在最新的列表后连续追加，每页的耗时与页的大小有关，与已有列表的长度无关
+     * */
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public IndexedUrlList appendPage(Feed feed) {
+        IndexedUrlList list = feed.list;
+        for (int i = 0; i < PAGES; i++) {
+            list = list.append(page);
+        }
+        return list;
+    }
+
+    /**
+     * 每次调用前重建列表，追加总是发生在最新的快照上；单独的State，不影响其他方法的计时
+     * */
+    @State(Scope.Thread)
+    public static class Feed {
+
+        IndexedUrlList list;
+
+        @Setup(Level.Invocation)
+        public void reset(WindowSchedulerBenchmark benchmark) {
+            list = IndexedUrlList.of(benchmark.urls);
+        }
+    }
+
+    private int nextIndex() {
+        // 跨度大于窗口，每次都是新的窗口
+        cursor = (cursor + 37) % feedSize;
+        return cursor;
+    }
+
+    /**
+     * 等到之前投递的事件以及随后的调度都执行完
+     * */
+    private void drain() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        latch.await();
+    }
+
+    private static class CountingHost implements PreLoadWindowScheduler.Host<String> {
+
+        final AtomicInteger windows = new AtomicInteger();
+        volatile boolean linkIdle;
+
+        @Override
+        public boolean canSchedule() {
+            return true;
+        }
+
+        @Override
+        public long getBandwidth() {
+            return 2 * 1024 * 1024;
+        }
+
+        @Override
+        public void onPlayIndexChanged(String url, int index, PreLoadHint hint) {
+        }
+
+        @Override
+        public void onWindowChanged(IndexedUrlList urls, int currentIndex, int firstIndex, int lastIndex) {
+            windows.incrementAndGet();
+        }
+
+        @Override
+        public String createTask(String url, int index, int distance, long preLoadBytes) {
+            return url;
+        }
+
+        @Override
+        public void updateTask(String task, int index, int distance, long preLoadBytes) {
+        }
+
+        @Override
+        public void cancelTask(String task) {
+        }
+
+        @Override
+        public boolean isLinkIdle() {
+            return linkIdle;
+        }
+    }
+}
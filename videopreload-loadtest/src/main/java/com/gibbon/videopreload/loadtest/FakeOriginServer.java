@@ -0,0 +1,224 @@
+package com.gibbon.videopreload.loadtest;
+
+import com.gibbon.videopreload.TokenBucket;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地的假源站，/video/{id}.mp4返回合成的MP4：ftyp、moov之后是mdat，内容由id和偏移量决定，不占内存。
+ *
+ * 可以配置首字节延迟、所有连接共享的带宽上限，以及是否支持Range请求，
+ * 不支持时忽略Range，总是从头返回完整文件，用来模拟不支持断点续传的CDN。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-05
+ */
+public class FakeOriginServer {
+
+    public static final String PATH_PREFIX = "/video/";
+    public static final long DEFAULT_VIDEO_BYTES = 2 * 1024 * 1024;
+
+    private static final int CHUNK_BYTES = 16 * 1024;
+    private static final int FTYP_BYTES = 24;
+    private static final int MOOV_BYTES = 4 * 1024;
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+    private final TokenBucket mBandwidth = new TokenBucket();
+    private final AtomicLong mBytesServed = new AtomicLong();
+    private final AtomicLong mRequests = new AtomicLong();
+    private volatile long mVideoBytes = DEFAULT_VIDEO_BYTES;
+    private volatile long mLatencyMillis = 0;
+    private volatile boolean mRangeSupported = true;
+
+    public FakeOriginServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext(PATH_PREFIX, new VideoHandler());
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+    }
+
+    public void start() {
+        mServer.start();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    public String urlOf(int id) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + PATH_PREFIX + id + ".mp4";
+    }
+
+    public void setVideoBytes(long videoBytes) {
+        if (videoBytes < FTYP_BYTES + MOOV_BYTES + 8) {
+            throw new IllegalArgumentException("videoBytes too small");
+        }
+        mVideoBytes = videoBytes;
+    }
+
+    public long getVideoBytes() {
+        return mVideoBytes;
+    }
+
+    /**
+     * 每个请求在返回响应头之前等待的时间
+     * */
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * 所有连接共享的带宽上限，{@link TokenBucket#UNLIMITED}表示不限速
+     * */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        mBandwidth.setRate(bytesPerSecond);
+    }
+
+    public void setRangeSupported(boolean rangeSupported) {
+        mRangeSupported = rangeSupported;
+    }
+
+    public long getBytesServed() {
+        return mBytesServed.get();
+    }
+
+    public long getRequests() {
+        return mRequests.get();
+    }
+
+    /**
+     * 合成文件在offset处的字节
+     * */
+    static byte byteAt(int id, long videoBytes, long offset) {
+        if (offset < FTYP_BYTES) {
+            return boxByte(offset, FTYP_BYTES, "ftyp", id);
+        }
+        if (offset < FTYP_BYTES + MOOV_BYTES) {
+            return boxByte(offset - FTYP_BYTES, MOOV_BYTES, "moov", id);
+        }
+        return boxByte(offset - FTYP_BYTES - MOOV_BYTES, videoBytes - FTYP_BYTES - MOOV_BYTES, "mdat", id);
+    }
+
+    /**
+     * box头部是4字节大小加4字节类型，其余是由id和偏移量决定的内容
+     * */
+    private static byte boxByte(long offset, long size, String type, int id) {
+        if (offset < 4) {
+            return (byte) (size >>> (8 * (3 - offset)));
+        }
+        if (offset < 8) {
+            return (byte) type.charAt((int) offset - 4);
+        }
+        return (byte) (offset * 31 + id);
+    }
+
+    private class VideoHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            mRequests.incrementAndGet();
+            try {
+                serve(exchange);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void serve(HttpExchange exchange) throws IOException {
+            int id = parseId(exchange.getRequestURI().getPath());
+            if (id < 0) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            long length = mVideoBytes;
+            long from = 0;
+            long to = length - 1;
+            boolean partial = false;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (mRangeSupported && range != null && range.startsWith("bytes=")) {
+                int dash = range.indexOf('-');
+                try {
+                    from = Long.parseLong(range.substring(6, dash).trim());
+                    String end = range.substring(dash + 1).trim();
+                    if (!end.isEmpty()) {
+                        to = Math.min(Long.parseLong(end), length - 1);
+                    }
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    exchange.sendResponseHeaders(400, -1);
+                    return;
+                }
+                if (from >= length || from > to) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                partial = true;
+            }
+
+            sleep(mLatencyMillis);
+            exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+            exchange.getResponseHeaders().set("Accept-Ranges", mRangeSupported ? "bytes" : "none");
+            if (partial) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + length);
+            }
+            long count = to - from + 1;
+            exchange.sendResponseHeaders(partial ? 206 : 200, count);
+
+            OutputStream outputStream = exchange.getResponseBody();
+            byte[] chunk = new byte[CHUNK_BYTES];
+            long offset = from;
+            while (offset <= to) {
+                int size = (int) Math.min(CHUNK_BYTES, to - offset + 1);
+                try {
+                    while (!mBandwidth.awaitTokens(1000)) {
+                        // 限速为0时一直等待，客户端断开后写入会失败
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                mBandwidth.consume(size);
+                for (int i = 0; i < size; i++) {
+                    chunk[i] = byteAt(id, length, offset + i);
+                }
+                // 客户端取消时断开连接，这里抛出IOException结束
+                outputStream.write(chunk, 0, size);
+                mBytesServed.addAndGet(size);
+                offset += size;
+            }
+            outputStream.close();
+        }
+
+        private int parseId(String path) {
+            if (!path.startsWith(PATH_PREFIX) || !path.endsWith(".mp4")) {
+                return -1;
+            }
+            try {
+                return Integer.parseInt(path.substring(PATH_PREFIX.length(), path.length() - 4));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private void sleep(long millis) {
+            if (millis <= 0) {
+                return;
+            }
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package com.gibbon.videopreload.loadtest;
+
+import com.gibbon.videopreload.BandwidthEstimator;
+import com.gibbon.videopreload.IndexedUrlList;
+import com.gibbon.videopreload.PreLoadHint;
+import com.gibbon.videopreload.PreLoadWindowScheduler;
+import com.gibbon.videopreload.adapter.DefaultPreLoadSizeAdapter;
+import com.gibbon.videopreload.adapter.DefaultPreLoadWindowAdapter;
+import com.gibbon.videopreload.adapter.IHttpTransport;
+import com.gibbon.videopreload.adapter.IPreLoadSizeAdapter;
+import com.gibbon.videopreload.adapter.IPreLoadWindowAdapter;
+import com.gibbon.videopreload.cache.CacheLookup;
+import com.gibbon.videopreload.metrics.PreLoadMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按{@link SwipeTrace}回放播放事件，驱动{@link PreLoadWindowScheduler}的预加载，
+ * 下载通过{@link IHttpTransport}请求源站，数据只计数不落盘。
+ *
+ * 与PreLoadManager一致：所有任务共用一个有限并发的下载队列，新的播放位置优先，同一位置下离得近的优先；
+ * 被取消的视频下次从已经下载到的位置继续。回放结束后取消剩余的任务，等下载线程都退出再出报告。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-05
+ */
+public class LoadTestDriver {
+
+    public static final int DEFAULT_MAX_CONCURRENT = 3;
+
+    private static final int READ_BUFFER_BYTES = 32 * 1024;
+
+    private final List<String> mUrls;
+    private final IHttpTransport mTransport;
+    private int mMaxConcurrent = DEFAULT_MAX_CONCURRENT;
+    private long mHitBytes = CacheLookup.DEFAULT_ENOUGH_CACHE_BYTES;
+    private IPreLoadWindowAdapter mWindowAdapter = new DefaultPreLoadWindowAdapter();
+    private IPreLoadSizeAdapter mSizeAdapter = new DefaultPreLoadSizeAdapter();
+    private long mDebounceMillis = PreLoadWindowScheduler.DEFAULT_DEBOUNCE_MILLIS;
+
+    /**
+     * 以下状态每次run重新创建
+     * */
+    private PreLoadMetrics mMetrics;
+    private BandwidthEstimator mBandwidth;
+    private PreLoadWindowScheduler<LoadTask> mScheduler;
+    private ThreadPoolExecutor mExecutor;
+    private final AtomicLong mGeneration = new AtomicLong();
+    private final AtomicLong mSequence = new AtomicLong();
+    private final Map<String, Long> mPreLoaded = new ConcurrentHashMap<>();
+    private final Set<String> mFullyCached = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final List<Long> mCompletionMillis = new ArrayList<>();
+
+    public LoadTestDriver(List<String> urls, IHttpTransport transport) {
+        mUrls = new ArrayList<>(urls);
+        mTransport = transport;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent should be positive");
+        }
+        mMaxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * 播放时预加载了至少这么多字节（或者已经下载完整）算命中，默认与hasEnoughCache一致
+     * */
+    public void setHitBytes(long hitBytes) {
+        mHitBytes = hitBytes;
+    }
+
+    public void setWindowAdapter(IPreLoadWindowAdapter windowAdapter) {
+        mWindowAdapter = windowAdapter;
+    }
+
+    public void setSizeAdapter(IPreLoadSizeAdapter sizeAdapter) {
+        mSizeAdapter = sizeAdapter;
+    }
+
+    public void setDebounceMillis(long debounceMillis) {
+        mDebounceMillis = debounceMillis;
+    }
+
+    public LoadTestReport run(SwipeTrace trace) throws InterruptedException {
+        if (trace.getMaxIndex() >= mUrls.size()) {
+            throw new IllegalArgumentException("trace plays index " + trace.getMaxIndex() + " but feed has " + mUrls.size() + " urls");
+        }
+
+        mMetrics = new PreLoadMetrics();
+        mBandwidth = new BandwidthEstimator();
+        mPreLoaded.clear();
+        mFullyCached.clear();
+        synchronized (mCompletionMillis) {
+            mCompletionMillis.clear();
+        }
+        mExecutor = new ThreadPoolExecutor(mMaxConcurrent, mMaxConcurrent, 0, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(16, new TaskComparator()));
+        mScheduler = new PreLoadWindowScheduler<>("loadtest-" + trace.getName(), new DriverHost());
+        mScheduler.setWindowAdapter(mWindowAdapter);
+        mScheduler.setSizeAdapter(mSizeAdapter);
+        mScheduler.setDebounceMillis(mDebounceMillis);
+        mScheduler.updateUrls(mUrls);
+
+        Set<String> played = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        long start = System.nanoTime();
+        for (SwipeTrace.Event event : trace.getEvents()) {
+            long waitNanos = start + TimeUnit.MILLISECONDS.toNanos(event.atMillis) - System.nanoTime();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+
+            String url = mUrls.get(event.index);
+            long preLoaded = preLoadedOf(url);
+            mMetrics.onPlay(url, preLoaded >= mHitBytes || mFullyCached.contains(url), preLoaded);
+            played.add(url);
+            mScheduler.currentPlayUrl(url);
+        }
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // pause取消剩余的任务并停止调度，等它执行完再关闭线程池，避免调度线程往已关闭的线程池提交任务
+        mScheduler.pause();
+        final CountDownLatch paused = new CountDownLatch(1);
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                paused.countDown();
+            }
+        });
+        paused.await();
+        mScheduler.destroy();
+        mExecutor.shutdown();
+        if (!mExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+            mExecutor.shutdownNow();
+        }
+
+        long wasted = 0;
+        for (Map.Entry<String, Long> entry : mPreLoaded.entrySet()) {
+            if (!played.contains(entry.getKey())) {
+                wasted += entry.getValue();
+            }
+        }
+
+        long[] completion;
+        synchronized (mCompletionMillis) {
+            completion = new long[mCompletionMillis.size()];
+            for (int i = 0; i < completion.length; i++) {
+                completion[i] = mCompletionMillis.get(i);
+            }
+        }
+        return new LoadTestReport(trace.getName(), durationMillis, mMetrics.snapshot(), wasted, completion);
+    }
+
+    private long preLoadedOf(String url) {
+        Long bytes = mPreLoaded.get(url);
+        return bytes != null ? bytes : 0;
+    }
+
+    /**
+     * 以下回调都在调度线程上执行
+     * */
+    private class DriverHost implements PreLoadWindowScheduler.Host<LoadTask> {
+
+        @Override
+        public boolean canSchedule() {
+            return true;
+        }
+
+        @Override
+        public long getBandwidth() {
+            return mBandwidth.getBandwidth();
+        }
+
+        @Override
+        public void onPlayIndexChanged(String url, int index, PreLoadHint hint) {
+        }
+
+        @Override
+        public void onWindowChanged(IndexedUrlList urls, int currentIndex, int firstIndex, int lastIndex) {
+            mGeneration.incrementAndGet();
+        }
+
+        @Override
+        public LoadTask createTask(String url, int index, int distance, long preLoadBytes) {
+            LoadTask task = new LoadTask(url, preLoadBytes);
+            submit(task, distance);
+            return task;
+        }
+
+        @Override
+        public void updateTask(LoadTask task, int index, int distance, long preLoadBytes) {
+            if (mExecutor.remove(task)) {
+                task.target = preLoadBytes;
+                long submitNanos = task.submitNanos;
+                submit(task, distance);
+                task.submitNanos = submitNanos;
+            } else if (preLoadBytes > task.target) {
+                // 正在下载的任务只升级，不降级
+                task.target = preLoadBytes;
+            }
+        }
+
+        @Override
+        public void cancelTask(LoadTask task) {
+            task.cancel();
+            if (mExecutor.remove(task)) {
+                mMetrics.onPreLoadFinished(task.url, PreLoadMetrics.RESULT_CANCELLED, -1, -1, 0);
+            }
+        }
+
+        @Override
+        public boolean isLinkIdle() {
+            return mExecutor.getQueue().isEmpty();
+        }
+
+        private void submit(LoadTask task, int distance) {
+            task.generation = mGeneration.get();
+            task.distance = distance;
+            task.sequence = mSequence.incrementAndGet();
+            task.submitNanos = System.nanoTime();
+            mExecutor.execute(task);
+        }
+    }
+
+    private class LoadTask implements Runnable {
+
+        final String url;
+        final long createNanos = System.nanoTime();
+        volatile long target;
+        volatile boolean cancelled;
+        volatile HttpURLConnection connection;
+
+        /**
+         * 排队优先级，由调度线程在提交前设置
+         * */
+        volatile long generation;
+        volatile int distance;
+        volatile long sequence;
+        volatile long submitNanos;
+
+        /**
+         * 以下只在下载线程上访问
+         * */
+        private long start;
+        private long ttfb = -1;
+        private long received;
+        private boolean eof;
+
+        LoadTask(String url, long target) {
+            this.url = url;
+            this.target = target;
+        }
+
+        void cancel() {
+            cancelled = true;
+            HttpURLConnection connection = this.connection;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+
+        @Override
+        public void run() {
+            long queueWaitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitNanos);
+            try {
+                download(queueWaitMillis);
+            } finally {
+                mScheduler.removeTask(url, this);
+            }
+        }
+
+        private void download(long queueWaitMillis) {
+            if (cancelled) {
+                mMetrics.onPreLoadFinished(url, PreLoadMetrics.RESULT_CANCELLED, queueWaitMillis, -1, 0);
+                return;
+            }
+
+            long offset = preLoadedOf(url);
+            if (offset >= target || mFullyCached.contains(url)) {
+                mMetrics.onPreLoadFinished(url, PreLoadMetrics.RESULT_SKIPPED_CACHED, queueWaitMillis, -1, 0);
+                return;
+            }
+
+            mMetrics.onPreLoadStarted(queueWaitMillis);
+            start = System.nanoTime();
+            int result = PreLoadMetrics.RESULT_FAILED;
+            try {
+                // 下载过程中升级到更高的层级时target变大，从已下载的位置继续请求
+                long target;
+                while (!cancelled && !eof && offset < (target = this.target)) {
+                    offset = fetch(offset, target);
+                }
+
+                if (eof) {
+                    mFullyCached.add(url);
+                }
+                if (!cancelled && (eof || offset >= this.target)) {
+                    result = PreLoadMetrics.RESULT_COMPLETED;
+                }
+            } catch (IOException | RuntimeException e) {
+                // 取消时断开连接，读取会抛出异常，请求还没发出时HttpURLConnection可能抛出RuntimeException
+            }
+
+            if (cancelled && result != PreLoadMetrics.RESULT_COMPLETED) {
+                result = PreLoadMetrics.RESULT_CANCELLED;
+            }
+            long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            mMetrics.onPreLoadFinished(url, result, queueWaitMillis, cost, received);
+            mBandwidth.addSample(received, cost, ttfb);
+            if (result == PreLoadMetrics.RESULT_COMPLETED) {
+                synchronized (mCompletionMillis) {
+                    mCompletionMillis.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createNanos));
+                }
+            }
+        }
+
+        /**
+         * 请求[from, target)的数据
+         *
+         * @return 下载到的位置，源站不支持Range时从0开始计算
+         * */
+        private long fetch(long from, long target) throws IOException {
+            HttpURLConnection connection = mTransport.open(url, from, target);
+            this.connection = connection;
+            boolean reusable = false;
+            try {
+                if (cancelled) {
+                    throw new IOException("cancelled");
+                }
+                int code = connection.getResponseCode();
+                if (ttfb < 0) {
+                    ttfb = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                }
+                // 源站不支持Range时返回完整文件，只能从头下载
+                long offset = code == HttpURLConnection.HTTP_PARTIAL ? from : 0;
+                InputStream inputStream = connection.getInputStream();
+                byte[] buffer = new byte[READ_BUFFER_BYTES];
+                while (!cancelled && offset < target) {
+                    int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, target - offset));
+                    if (read < 0) {
+                        eof = true;
+                        break;
+                    }
+                    offset += read;
+                    received += read;
+                    if (offset > preLoadedOf(url)) {
+                        mPreLoaded.put(url, offset);
+                    }
+                }
+
+                // 206按请求的范围返回，读到target就是读完了响应
+                reusable = !cancelled && (eof || (code == HttpURLConnection.HTTP_PARTIAL && offset >= target));
+                return offset;
+            } finally {
+                this.connection = null;
+                mTransport.release(connection, reusable);
+            }
+        }
+    }
+
+    /**
+     * 与PreLoadScheduler的排队顺序一致：新的播放位置优先，其次离播放位置近的，距离相同时向后的优先
+     * */
+    private static class TaskComparator implements Comparator<Runnable> {
+
+        @Override
+        public int compare(Runnable r1, Runnable r2) {
+            LoadTask t1 = (LoadTask) r1;
+            LoadTask t2 = (LoadTask) r2;
+            if (t1.generation != t2.generation) {
+                return t1.generation > t2.generation ? -1 : 1;
+            }
+
+            int d1 = Math.abs(t1.distance);
+            int d2 = Math.abs(t2.distance);
+            if (d1 != d2) {
+                return d1 < d2 ? -1 : 1;
+            }
+
+            if (t1.distance != t2.distance) {
+                return t1.distance > t2.distance ? -1 : 1;
+            }
+
+            return t1.sequence < t2.sequence ? -1 : (t1.sequence == t2.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.gibbon.videopreload.loadtest;
+
+import com.gibbon.videopreload.PreLoadWindowScheduler;
+import com.gibbon.videopreload.adapter.DefaultHttpTransport;
+import com.gibbon.videopreload.adapter.DirectionalPreLoadWindowAdapter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 命令行入口：启动本地源站，按轨迹回放并打印报告，例如
+ * <pre>
+ * ./gradlew :videopreload-loadtest:run --args="--trace traces/fast-swipe.trace --bandwidth 1000000 --latency 80"
+ * </pre>
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-05
+ */
+public class LoadTestMain {
+
+    private static final String USAGE = "usage: LoadTestMain [--trace <resource|file>] [--random <seed>] [--feed <count>]\n"
+            + "    [--size <bytes>] [--latency <ms>] [--bandwidth <bytes/s>] [--no-range]\n"
+            + "    [--concurrency <n>] [--directional] [--debounce <ms>]";
+
+    public static void main(String[] args) throws Exception {
+        String tracePath = "traces/fast-swipe.trace";
+        long randomSeed = -1;
+        int feed = -1;
+        long videoBytes = FakeOriginServer.DEFAULT_VIDEO_BYTES;
+        long latencyMillis = 50;
+        long bytesPerSecond = 2 * 1024 * 1024;
+        boolean rangeSupported = true;
+        int concurrency = LoadTestDriver.DEFAULT_MAX_CONCURRENT;
+        boolean directional = false;
+        long debounceMillis = PreLoadWindowScheduler.DEFAULT_DEBOUNCE_MILLIS;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--trace".equals(arg)) {
+                tracePath = value(args, ++i);
+            } else if ("--random".equals(arg)) {
+                randomSeed = Long.parseLong(value(args, ++i));
+            } else if ("--feed".equals(arg)) {
+                feed = Integer.parseInt(value(args, ++i));
+            } else if ("--size".equals(arg)) {
+                videoBytes = Long.parseLong(value(args, ++i));
+            } else if ("--latency".equals(arg)) {
+                latencyMillis = Long.parseLong(value(args, ++i));
+            } else if ("--bandwidth".equals(arg)) {
+                bytesPerSecond = Long.parseLong(value(args, ++i));
+            } else if ("--no-range".equals(arg)) {
+                rangeSupported = false;
+            } else if ("--concurrency".equals(arg)) {
+                concurrency = Integer.parseInt(value(args, ++i));
+            } else if ("--directional".equals(arg)) {
+                directional = true;
+            } else if ("--debounce".equals(arg)) {
+                debounceMillis = Long.parseLong(value(args, ++i));
+            } else {
+                System.err.println(USAGE);
+                System.exit(1);
+                return;
+            }
+        }
+
+        SwipeTrace trace = randomSeed >= 0 ? SwipeTrace.random(randomSeed, 60, 300, 5000, 0.1) : loadTrace(tracePath);
+        if (feed <= trace.getMaxIndex()) {
+            // 默认多留一屏，窗口可以延伸到轨迹之后
+            feed = trace.getMaxIndex() + 8;
+        }
+
+        FakeOriginServer server = new FakeOriginServer();
+        server.setVideoBytes(videoBytes);
+        server.setLatencyMillis(latencyMillis);
+        server.setBytesPerSecond(bytesPerSecond);
+        server.setRangeSupported(rangeSupported);
+        server.start();
+        try {
+            List<String> urls = new ArrayList<>(feed);
+            for (int i = 0; i < feed; i++) {
+                urls.add(server.urlOf(i));
+            }
+
+            LoadTestDriver driver = new LoadTestDriver(urls, new DefaultHttpTransport());
+            driver.setMaxConcurrent(concurrency);
+            driver.setDebounceMillis(debounceMillis);
+            if (directional) {
+                driver.setWindowAdapter(new DirectionalPreLoadWindowAdapter());
+            }
+            LoadTestReport report = driver.run(trace);
+            System.out.println(report);
+            System.out.println("  origin: " + server.getRequests() + " requests, " + server.getBytesServed() + " bytes served");
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static SwipeTrace loadTrace(String path) throws IOException {
+        File file = new File(path);
+        if (!file.isFile()) {
+            return SwipeTrace.fromResource(path);
+        }
+
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            return SwipeTrace.parse(file.getName(), reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        return args[i];
+    }
+}
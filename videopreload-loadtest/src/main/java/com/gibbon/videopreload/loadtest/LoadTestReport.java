@@ -0,0 +1,72 @@
+package com.gibbon.videopreload.loadtest;
+
+import com.gibbon.videopreload.metrics.PreLoadMetrics;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 一次回放的结果
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-05
+ */
+public class LoadTestReport {
+
+    public final String traceName;
+    public final long durationMillis;
+    public final PreLoadMetrics.Snapshot metrics;
+    /**
+     * 回放结束时还没有被播放过的视频预加载的字节数
+     * */
+    public final long bytesWasted;
+    private final long[] mCompletionMillis;
+
+    LoadTestReport(String traceName, long durationMillis, PreLoadMetrics.Snapshot metrics, long bytesWasted, long[] completionMillis) {
+        this.traceName = traceName;
+        this.durationMillis = durationMillis;
+        this.metrics = metrics;
+        this.bytesWasted = bytesWasted;
+        mCompletionMillis = completionMillis.clone();
+        Arrays.sort(mCompletionMillis);
+    }
+
+    public double getHitRate() {
+        return metrics.getHitRate();
+    }
+
+    public long getCompletedCount() {
+        return mCompletionMillis.length;
+    }
+
+    /**
+     * 从任务创建到预加载完成的耗时，包含排队时间
+     *
+     * @param percentile 0-100
+     * @return 没有完成的任务时返回-1
+     * */
+    public long getCompletionPercentile(double percentile) {
+        if (mCompletionMillis.length == 0) {
+            return -1;
+        }
+
+        int rank = (int) Math.ceil(mCompletionMillis.length * percentile / 100.0);
+        return mCompletionMillis[Math.max(0, Math.min(mCompletionMillis.length - 1, rank - 1))];
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "trace %s (%d ms)%n"
+                        + "  plays: %d, hit rate: %.1f%%%n"
+                        + "  tasks: %d started, %d completed, %d cancelled, %d failed, %d skipped%n"
+                        + "  bytes: %d downloaded, %d wasted (%.1f%%)%n"
+                        + "  completion latency: p50 %d ms, p99 %d ms",
+                traceName, durationMillis,
+                metrics.plays, getHitRate() * 100,
+                metrics.started, metrics.completed, metrics.cancelled, metrics.failed, metrics.skippedCached,
+                metrics.bytesDownloaded, bytesWasted,
+                metrics.bytesDownloaded > 0 ? bytesWasted * 100.0 / metrics.bytesDownloaded : 0.0,
+                getCompletionPercentile(50), getCompletionPercentile(99));
+    }
+}
@@ -0,0 +1,147 @@
+package com.gibbon.videopreload.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 脚本化的滑动轨迹：按时间顺序的播放事件，每个事件是相对开始的时间和播放的列表位置。
+ *
+ * 文本格式每行一个事件：{@code <毫秒> <位置>}，#开头的行和空行忽略，例如
+ * <pre>
+ * # 停留1.2s后快速划过两个视频
+ * 0 0
+ * 1200 1
+ * 1500 2
+ * 1800 3
+ * </pre>
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-08-05
+ */
+public class SwipeTrace {
+
+    public static class Event {
+
+        public final long atMillis;
+        public final int index;
+
+        public Event(long atMillis, int index) {
+            this.atMillis = atMillis;
+            this.index = index;
+        }
+    }
+
+    private final String mName;
+    private final List<Event> mEvents;
+
+    public SwipeTrace(String name, List<Event> events) {
+        long last = 0;
+        for (Event event : events) {
+            if (event.index < 0 || event.atMillis < last) {
+                throw new IllegalArgumentException("events should be ordered by time with non-negative index");
+            }
+            last = event.atMillis;
+        }
+        mName = name;
+        mEvents = Collections.unmodifiableList(new ArrayList<>(events));
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public List<Event> getEvents() {
+        return mEvents;
+    }
+
+    /**
+     * @return 播放到的最大位置，列表至少需要这么长
+     * */
+    public int getMaxIndex() {
+        int max = -1;
+        for (Event event : mEvents) {
+            max = Math.max(max, event.index);
+        }
+        return max;
+    }
+
+    public long getDurationMillis() {
+        return mEvents.isEmpty() ? 0 : mEvents.get(mEvents.size() - 1).atMillis;
+    }
+
+    public static SwipeTrace parse(String name, Reader reader) throws IOException {
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        List<Event> events = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = bufferedReader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = line.split("\\s+");
+            if (fields.length != 2) {
+                throw new IOException(name + ":" + lineNumber + ": expected '<millis> <index>'");
+            }
+            try {
+                events.add(new Event(Long.parseLong(fields[0]), Integer.parseInt(fields[1])));
+            } catch (NumberFormatException e) {
+                throw new IOException(name + ":" + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return new SwipeTrace(name, events);
+    }
+
+    /**
+     * 读取classpath下的轨迹，例如traces/fast-swipe.trace
+     * */
+    public static SwipeTrace fromResource(String resource) throws IOException {
+        InputStream inputStream = SwipeTrace.class.getClassLoader().getResourceAsStream(resource);
+        if (inputStream == null) {
+            throw new IOException("trace not found: " + resource);
+        }
+        try {
+            return parse(resource, new InputStreamReader(inputStream, "UTF-8"));
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * 每个视频停留相同的时间，一直向后滑
+     * */
+    public static SwipeTrace steady(int count, long dwellMillis) {
+        List<Event> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(new Event(i * dwellMillis, i));
+        }
+        return new SwipeTrace("steady-" + count + "x" + dwellMillis + "ms", events);
+    }
+
+    /**
+     * 固定种子的随机轨迹，同样的参数每次生成的事件都一样
+     *
+     * @param backProbability 往回滑的概率
+     * */
+    public static SwipeTrace random(long seed, int count, long minDwellMillis, long maxDwellMillis, double backProbability) {
+        Random random = new Random(seed);
+        List<Event> events = new ArrayList<>(count);
+        long at = 0;
+        int index = 0;
+        for (int i = 0; i < count; i++) {
+            events.add(new Event(at, index));
+            at += minDwellMillis + (long) (random.nextDouble() * (maxDwellMillis - minDwellMillis));
+            index = index > 0 && random.nextDouble() < backProbability ? index - 1 : index + 1;
+        }
+        return new SwipeTrace("random-" + seed, events);
+    }
+}
@@ -0,0 +1,83 @@
+package com.gibbon.videopreload.loadtest;
+
+import com.gibbon.videopreload.adapter.DefaultHttpTransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LoadTestDriverTest {
+
+    private static final long VIDEO_BYTES = 512 * 1024;
+
+    private FakeOriginServer server;
+    private List<String> urls;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeOriginServer();
+        server.setVideoBytes(VIDEO_BYTES);
+        server.setLatencyMillis(5);
+        server.start();
+        urls = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            urls.add(server.urlOf(i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void originServesRangeOfSyntheticFile() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(server.urlOf(3)).openConnection();
+        connection.setRequestProperty("Range", "bytes=100-199");
+        assertEquals(206, connection.getResponseCode());
+        assertEquals("bytes 100-199/" + VIDEO_BYTES, connection.getHeaderField("Content-Range"));
+
+        InputStream inputStream = connection.getInputStream();
+        for (int i = 100; i < 200; i++) {
+            assertEquals(FakeOriginServer.byteAt(3, VIDEO_BYTES, i), (byte) inputStream.read());
+        }
+        assertEquals(-1, inputStream.read());
+        inputStream.close();
+    }
+
+    @Test
+    public void steadyTraceHitsPreloadedVideos() throws Exception {
+        LoadTestReport report = new LoadTestDriver(urls, new DefaultHttpTransport()).run(SwipeTrace.steady(5, 400));
+
+        assertEquals(5, report.metrics.plays);
+        // 第一个视频没有机会预加载，之后的都在上一个视频播放时下载完成
+        assertEquals(4, report.metrics.playHits);
+        assertTrue(report.metrics.completed >= 4);
+        assertTrue(report.getCompletionPercentile(50) >= 0);
+        assertEquals(report.metrics.bytesDownloaded, server.getBytesServed());
+    }
+
+    @Test
+    public void originWithoutRangeStillPreloads() throws Exception {
+        server.setRangeSupported(false);
+        // 不支持Range时每次都从头下载，间隔留足余量，避免冷启动时的下载耗时造成偶发未命中
+        LoadTestReport report = new LoadTestDriver(urls, new DefaultHttpTransport()).run(SwipeTrace.steady(3, 1000));
+
+        assertEquals(3, report.metrics.plays);
+        assertEquals(2, report.metrics.playHits);
+        assertEquals(0, report.metrics.failed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void traceLongerThanFeedIsRejected() throws Exception {
+        new LoadTestDriver(urls.subList(0, 2), new DefaultHttpTransport()).run(SwipeTrace.steady(3, 0));
+    }
+}
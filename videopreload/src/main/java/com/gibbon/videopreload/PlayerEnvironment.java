@@ -4,7 +4,9 @@ import android.content.Context;
 import android.text.TextUtils;
 
 import com.danikula.videocache.HttpProxyCacheServer;
-import com.danikula.videocache.file.Md5FileNameGenerator;
+import com.gibbon.videopreload.cache.CacheKeyGenerator;
+import com.gibbon.videopreload.cache.PreLoadDiskUsage;
+import com.gibbon.videopreload.cache.PreLoadFileNameGenerator;
 import com.gibbon.videopreload.util.StorageUtils;
 
 import java.io.File;
@@ -17,6 +19,11 @@ public class PlayerEnvironment {
 
     private static HttpProxyCacheServer proxy;
 
+    /**
+     * 缓存淘汰交给{@link PreLoadManager#cacheEvictor}，由PreLoadManager创建时绑定
+     * */
+    private static final PreLoadDiskUsage diskUsage = new PreLoadDiskUsage();
+
     public static final String VIDEO_CACHE_ID = "videoCacheId";
 
     public static HttpProxyCacheServer getProxy(Context context) {
@@ -25,20 +32,32 @@ public class PlayerEnvironment {
 
     private static HttpProxyCacheServer newProxy(Context context) {
         return new HttpProxyCacheServer.Builder(context.getApplicationContext())
+                .fileNameGenerator(new PreLoadFileNameGenerator(CacheKeyGenerator.getDefault()))
+                .diskUsage(diskUsage)
                 .build();
     }
 
+    static PreLoadDiskUsage getDiskUsage() {
+        return diskUsage;
+    }
+
 
 
     private static String path;
 
     public static String getCompleteCachePath(Context context, String url) {
         try {
+            PreLoadManager preLoadManager = PreLoadManager.getInstance(context);
+            if (preLoadManager.cacheIndex.isReady()) {
+                String name = preLoadManager.fileNameGenerator.generate(url);
+                return preLoadManager.cacheIndex.isComplete(name) ? new File(preLoadManager.getCacheRoot(), name).getAbsolutePath() : null;
+            }
+
             if (TextUtils.isEmpty(path)) {
                 File cacheRoot = StorageUtils.getIndividualCacheDirectory(context);
                 path = cacheRoot.getAbsolutePath();
             }
-            String name = new Md5FileNameGenerator().generate(url);
+            String name = CacheKeyGenerator.getDefault().fileName(url);
             if(TextUtils.isEmpty(name)){
                 return null;
             }
@@ -59,6 +78,11 @@ public class PlayerEnvironment {
             if (TextUtils.isEmpty(cacheKey) || context == null) {
                 return null;
             }
+
+            PreLoadManager preLoadManager = PreLoadManager.getInstance(context);
+            if (preLoadManager.cacheIndex.isReady()) {
+                return preLoadManager.cacheIndex.isComplete(cacheKey) ? new File(preLoadManager.getCacheRoot(), cacheKey).getAbsolutePath() : null;
+            }
             if (TextUtils.isEmpty(path)) {
                 File cacheRoot = StorageUtils.getIndividualCacheDirectory(context);
                 path = cacheRoot.getAbsolutePath();
@@ -4,19 +4,41 @@ package com.gibbon.videopreload;
 import android.content.Context;
 import android.os.Build;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.ArrayMap;
-import android.util.Log;
 
 import androidx.annotation.RequiresApi;
 
+import com.danikula.videocache.CacheListener;
 import com.danikula.videocache.HttpProxyCacheServer;
-import com.danikula.videocache.file.Md5FileNameGenerator;
+import com.danikula.videocache.file.FileNameGenerator;
+import com.gibbon.videopreload.adapter.DefaultHttpTransport;
+import com.gibbon.videopreload.adapter.IHttpTransport;
+import com.gibbon.videopreload.cache.CacheDirObserver;
+import com.gibbon.videopreload.cache.CacheEvictor;
+import com.gibbon.videopreload.cache.CacheFileWriter;
+import com.gibbon.videopreload.cache.CacheIndex;
+import com.gibbon.videopreload.cache.CacheKeyGenerator;
+import com.gibbon.videopreload.cache.CacheLookup;
+import com.gibbon.videopreload.cache.PreLoadFileNameGenerator;
+import com.gibbon.videopreload.cache.PreLoadJournal;
+import com.gibbon.videopreload.metrics.FirstFrameTracker;
+import com.gibbon.videopreload.metrics.PreLoadMetrics;
+import com.gibbon.videopreload.trace.AndroidLogPrinter;
+import com.gibbon.videopreload.trace.PreLoadTrace;
 import com.gibbon.videopreload.util.AndroidUtils;
+import com.gibbon.videopreload.util.StorageUtils;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author zhipeng.zhuo
@@ -33,10 +55,112 @@ public class PreLoadManager {
 
     public String currentBusId;
 
+    /**
+     * 所有预加载任务的下载耗时都会汇总到这里估算带宽
+     * */
+    public BandwidthEstimator bandwidthEstimator = new BandwidthEstimator();
+
+    /**
+     * 正在播放的视频每秒需要的字节数，未知时为-1
+     * */
+    private volatile long playBytesPerSecond = -1;
+
+    /**
+     * 正在播放的视频缓冲不足时，通过令牌桶暂停或限速所有预加载下载
+     * */
+    public static final long DEFAULT_FOREGROUND_BUFFER_MILLIS = 3000;
+    private static final long FOREGROUND_PAUSE_BUFFER_MILLIS = 1000;
+    private static final long MIN_THROTTLE_BYTES_PER_SECOND = 32 * 1024;
+    public TokenBucket throttle = new TokenBucket();
+
+    /**
+     * 预加载效果统计，见{@link #getMetrics()}
+     * */
+    public final PreLoadMetrics metrics = new PreLoadMetrics();
+
+    /**
+     * 所有预加载任务共用的读缓冲
+     * */
+    public BufferPool bufferPool = new BufferPool();
+
+    /**
+     * 所有busId正在下载的视频，按缓存key合并重复的预加载
+     * */
+    private final InFlightRegistry<PreLoadTask> inFlightTasks = new InFlightRegistry<>();
+
+    private volatile IHttpTransport httpTransport = new DefaultHttpTransport();
+    /**
+     * 只预热列表开头的几个url，大部分列表的视频都在少数几个CDN域名上
+     * */
+    private static final int MAX_WARM_UP_URLS = 8;
+    private volatile long foregroundBufferMillis = DEFAULT_FOREGROUND_BUFFER_MILLIS;
+    private boolean foregroundStalled = false;
+    private long foregroundBufferedMillis = -1;
+
+    private volatile boolean mp4HeaderPreLoad = false;
+
+    private volatile boolean directCacheWrite = false;
+    private volatile File cacheRoot;
+    /**
+     * 正在直接写缓存的任务，key为缓存文件名
+     * */
+    private ConcurrentHashMap<String, PreLoadTask> cacheWritingTasks = new ConcurrentHashMap<>();
+    /**
+     * 每个busId正在播放的视频的缓存文件名，播放器会通过代理写这些文件，不能再直接写入
+     * */
+    private final ConcurrentHashMap<String, String> playingCacheKeys = new ConcurrentHashMap<>();
+    /**
+     * 代理最近写入过的缓存文件名以及时间，这段时间内代理可能还打开着文件，不能直接写入
+     * */
+    private static final long PROXY_WRITE_HOLD_MILLIS = 10 * 1000;
+    private final ConcurrentHashMap<String, Long> proxyWriteMillis = new ConcurrentHashMap<>();
+    /**
+     * 直接写缓存期间监听代理对同一个url的写入，代理开始写时马上停止预加载
+     * */
+    private final CacheListener proxyWriteListener = new CacheListener() {
+        @Override
+        public void onCacheAvailable(File cacheFile, String url, int percentsAvailable) {
+            proxyWriteMillis.put(fileNameGenerator.generate(url), SystemClock.elapsedRealtime());
+            stopCacheWrite(url);
+        }
+    };
+
+    public CacheIndex cacheIndex = new CacheIndex();
+    private CacheLookup cacheLookup;
+
+    /**
+     * 按配额淘汰缓存，代替AndroidVideoCache自带的LRU
+     * */
+    public CacheEvictor cacheEvictor;
+
+    /**
+     * 预加载日志，和缓存目录放在同一个目录下，进程重启后恢复预加载进度
+     * */
+    public PreLoadJournal journal;
+    private static final String JOURNAL_FILE_NAME = "video-preload.journal";
+
+    /**
+     * 每个busId当前预加载窗口内的缓存文件名，淘汰时跳过
+     * */
+    private final ConcurrentHashMap<String, Set<String>> protectedCacheKeys = new ConcurrentHashMap<>();
+
+    /**
+     * 每个缓存文件预加载到的位置，任务取消后再次预加载时从这里继续
+     * */
+    private static final int MAX_RESUME_ENTRIES = 256;
+    private final LinkedHashMap<String, Long> preLoadedBytes = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_RESUME_ENTRIES;
+        }
+    };
+    private CacheDirObserver cacheDirObserver;
+
     public HttpProxyCacheServer httpProxyCacheServer;
-    public Md5FileNameGenerator fileNameGenerator;
+    public FileNameGenerator fileNameGenerator;
     public Context context;
     public Handler handler;
+    public PreLoadScheduler scheduler;
 
     private static volatile PreLoadManager sInstance;
 
@@ -81,9 +205,78 @@ public class PreLoadManager {
     };
 
     private PreLoadManager(Context context) {
-        httpProxyCacheServer = PlayerEnvironment.getProxy(context);
-        fileNameGenerator = new Md5FileNameGenerator();
         this.context = context;
+        PreLoadTrace.setPrinterIfAbsent(new AndroidLogPrinter());
+        cacheEvictor = new CacheEvictor(getCacheRoot(), cacheIndex, new CacheEvictor.ProtectionPolicy() {
+            @Override
+            public boolean isProtected(String key) {
+                if (cacheWritingTasks.containsKey(key)) {
+                    return true;
+                }
+                for (Set<String> keys : protectedCacheKeys.values()) {
+                    if (keys.contains(key)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        });
+        PlayerEnvironment.getDiskUsage().attach(cacheIndex, cacheEvictor);
+        cacheLookup = new CacheLookup(cacheIndex, getCacheRoot());
+        journal = new PreLoadJournal(new File(getCacheRoot().getParentFile(), JOURNAL_FILE_NAME));
+        httpProxyCacheServer = PlayerEnvironment.getProxy(context);
+        fileNameGenerator = new PreLoadFileNameGenerator(CacheKeyGenerator.getDefault());
+        scheduler = new PreLoadScheduler(PreLoadScheduler.DEFAULT_MAX_CONCURRENT);
+        scheduler.setDispatchGate(new PreLoadScheduler.DispatchGate() {
+            @Override
+            public boolean canDispatch() {
+                return canPreLoad();
+            }
+        });
+        initCacheIndex();
+    }
+
+    /**
+     * 子线程扫描一次缓存目录，之后通过目录监听和预加载的写入更新
+     * */
+    private void initCacheIndex() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                File root = getCacheRoot();
+                restoreFromJournal();
+                cacheDirObserver = new CacheDirObserver(root, cacheIndex);
+                cacheDirObserver.startWatching();
+                cacheIndex.scan(root);
+                if (PreLoadTrace.isLoggable(PreLoadTrace.LEVEL_INFO)) {
+                    PreLoadTrace.i(TAG, "cache index ready, size: " + cacheIndex.getEntries().size());
+                }
+                // 缓存文件已经被删除的记录不再保留
+                journal.retain(cacheIndex.getEntries().keySet());
+                cacheEvictor.requestTrim();
+            }
+        }, "preload-cache-index").start();
+    }
+
+    /**
+     * 回放预加载日志：扫描目录之前先恢复索引，没有播放过的预加载记录下载位置，之后从这个位置继续
+     * */
+    private void restoreFromJournal() {
+        List<PreLoadJournal.Record> records = journal.replay();
+        for (PreLoadJournal.Record record : records) {
+            if (record.bytes <= 0) {
+                continue;
+            }
+            cacheIndex.restore(record.key, record.bytes, record.timestamp);
+            if (!record.played) {
+                synchronized (preLoadedBytes) {
+                    preLoadedBytes.put(record.key, record.bytes);
+                }
+            }
+        }
+        if (PreLoadTrace.isLoggable(PreLoadTrace.LEVEL_INFO)) {
+            PreLoadTrace.i(TAG, "preload journal replayed, size: " + records.size());
+        }
     }
 
     public static PreLoadManager getInstance(Context context) {
@@ -105,6 +298,42 @@ public class PreLoadManager {
 
     protected void removeFuture(String busId) {
         videoPreLoadFutureArrayMap.remove(busId);
+        protectedCacheKeys.remove(busId);
+        playingCacheKeys.remove(busId);
+        synchronized (throttle) {
+            if (busId.equals(currentBusId)) {
+                currentBusId = null;
+                resetForegroundThrottle();
+            }
+        }
+    }
+
+    /**
+     * 当前播放的页面不可见时，播放器不会再上报缓冲和卡顿，限速不能一直保持到下一次播放
+     * */
+    protected void onFuturePaused(String busId) {
+        synchronized (throttle) {
+            if (busId.equals(currentBusId)) {
+                resetForegroundThrottle();
+            }
+        }
+    }
+
+    /**
+     * 预加载窗口变化时由VideoPreLoadFuture调用，窗口内的缓存不会被淘汰
+     *
+     * @param cacheKeys 缓存文件名，调用之后不能再修改
+     * */
+    protected void setProtectedCacheKeys(String busId, Set<String> cacheKeys) {
+        protectedCacheKeys.put(busId, cacheKeys);
+    }
+
+    /**
+     * 预加载和播放共用的缓存配额，默认{@link CacheEvictor#DEFAULT_MAX_BYTES}，
+     * 超出时优先删除长时间没有访问的预加载残留，再按LRU删除完整的缓存，当前预加载窗口内的缓存不会被删除
+     * */
+    public void setMaxCacheBytes(long maxCacheBytes) {
+        cacheEvictor.setMaxBytes(maxCacheBytes);
     }
 
     public VideoPreLoadFuture getVideoPreLoadFuture(String busId) {
@@ -116,6 +345,24 @@ public class PreLoadManager {
             return;
         }
 
+        // 播放器会通过代理写同一个缓存文件，直接写缓存的预加载需要马上停止；
+        // 先登记再停止，之后任何busId的任务都不会再直接写这个文件
+        String name = fileNameGenerator.generate(url);
+        playingCacheKeys.put(busId, name);
+        stopCacheWrite(url);
+        journal.recordPlayed(name, System.currentTimeMillis());
+        Long preLoaded;
+        synchronized (preLoadedBytes) {
+            preLoaded = preLoadedBytes.remove(name);
+        }
+        metrics.onPlay(url, hasEnoughCache(url), preLoaded != null ? preLoaded : 0);
+        recordPlayRequested(name);
+
+        synchronized (throttle) {
+            currentBusId = busId;
+            resetForegroundThrottle();
+        }
+
         VideoPreLoadFuture videoPreLoadFuture = getVideoPreLoadFuture(busId);
 
         if (videoPreLoadFuture != null) {
@@ -123,8 +370,361 @@ public class PreLoadManager {
         }
     }
 
+    /**
+     * 播放器渲染出第一帧时调用，与{@link #currentVideoPlay(String, String)}的时间差按开始播放时的缓存状态
+     * （未缓存/部分缓存的字节数/完整缓存）分桶统计，见{@link PreLoadMetrics.Snapshot#firstFrame}
+     * */
+    public void onFirstFrameRendered(String url) {
+        if (TextUtils.isEmpty(url)) {
+            return;
+        }
+
+        metrics.onFirstFrame(url, fileNameGenerator.generate(url), SystemClock.elapsedRealtime());
+    }
+
+    private void recordPlayRequested(String name) {
+        CacheIndex.Entry entry = cacheIndex.get(name);
+        int state = FirstFrameTracker.STATE_NOT_CACHED;
+        long cachedBytes = 0;
+        if (entry != null) {
+            cachedBytes = entry.size;
+            if (cacheIndex.isComplete(name)) {
+                state = FirstFrameTracker.STATE_COMPLETE;
+            } else if (cachedBytes > 0) {
+                state = FirstFrameTracker.STATE_PARTIAL;
+            }
+        }
+        metrics.onPlayRequested(name, state, cachedBytes, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * 设置所有busId共享的最大并发预加载数，默认{@link PreLoadScheduler#DEFAULT_MAX_CONCURRENT}
+     * */
+    public void setMaxConcurrentTasks(int maxConcurrentTasks) {
+        scheduler.setMaxConcurrent(maxConcurrentTasks);
+    }
+
+    /**
+     * 打开后预加载会解析mp4的box结构，保证moov以及第一个关键帧都被预加载，
+     * moov在文件尾部时会额外请求一次尾部数据，默认关闭
+     * */
+    public void setMp4HeaderPreLoad(boolean mp4HeaderPreLoad) {
+        this.mp4HeaderPreLoad = mp4HeaderPreLoad;
+    }
+
+    public boolean isMp4HeaderPreLoad() {
+        return mp4HeaderPreLoad;
+    }
+
+    /**
+     * 打开后预加载不再经过本地代理，直接请求源地址并按AndroidVideoCache的文件布局写入缓存，
+     * 减少一次loopback转发。播放前需要调用{@link #currentVideoPlay(String, String)}，
+     * 保证播放器和预加载不会同时写同一个缓存文件，默认关闭
+     * */
+    public void setDirectCacheWrite(boolean directCacheWrite) {
+        this.directCacheWrite = directCacheWrite;
+    }
+
+    /**
+     * @return 当前的预加载统计：任务数、下载/被播放使用的字节数、命中率以及排队和下载耗时分布
+     * */
+    public PreLoadMetrics.Snapshot getMetrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * 每个预加载任务结束以及每次播放时在对应线程上回调，用于转发到自己的统计系统
+     * */
+    public void setMetricsListener(PreLoadMetrics.Listener listener) {
+        metrics.setListener(listener);
+    }
+
+    /**
+     * 替换预加载使用的HTTP传输层，默认{@link DefaultHttpTransport}
+     * */
+    public void setHttpTransport(IHttpTransport httpTransport) {
+        if (httpTransport == null) {
+            throw new IllegalArgumentException("httpTransport should not be null");
+        }
+        this.httpTransport = httpTransport;
+    }
+
+    public IHttpTransport getHttpTransport() {
+        return httpTransport;
+    }
+
+    /**
+     * 列表加载时预先建立到视频所在host的连接，同一个host只预热一次
+     * */
+    public void warmUp(List<String> urls) {
+        if (urls == null) {
+            return;
+        }
+
+        IHttpTransport transport = this.httpTransport;
+        int count = Math.min(urls.size(), MAX_WARM_UP_URLS);
+        for (int i = 0; i < count; i++) {
+            String url = urls.get(i);
+            if (!TextUtils.isEmpty(url)) {
+                transport.warmUp(url);
+            }
+        }
+    }
+
+    public File getCacheRoot() {
+        if (cacheRoot == null) {
+            cacheRoot = StorageUtils.getIndividualCacheDirectory(context);
+        }
+        return cacheRoot;
+    }
+
+    /**
+     * @return 没有打开直接写缓存、已经缓存完整、同一个url正在被其他任务写入，
+     * 或者任何busId正在播放、代理正在写入这个url时返回null，走代理下载
+     * */
+    protected CacheFileWriter openCacheWriter(PreLoadTask task) {
+        if (!directCacheWrite) {
+            return null;
+        }
+
+        String name = fileNameGenerator.generate(task.url);
+        if (cacheWritingTasks.putIfAbsent(name, task) != null) {
+            return null;
+        }
+
+        // 先占用再检查，和currentVideoPlay的顺序相反，两边同时发生时至少有一边能看到对方
+        if (isPlayingOrProxyWriting(name)) {
+            cacheWritingTasks.remove(name, task);
+            return null;
+        }
+
+        if (httpProxyCacheServer != null) {
+            httpProxyCacheServer.registerCacheListener(proxyWriteListener, task.url);
+        }
+        CacheFileWriter writer = new CacheFileWriter(getCacheRoot(), name);
+        try {
+            if (writer.open()) {
+                return writer;
+            }
+        } catch (IOException e) {
+            PreLoadTrace.e(TAG, "openCacheWriter: " + e.getMessage());
+        }
+
+        writer.close(-1);
+        releaseCacheWriter(task, name);
+        return null;
+    }
+
+    private boolean isPlayingOrProxyWriting(String name) {
+        if (playingCacheKeys.containsValue(name)) {
+            return true;
+        }
+
+        Long writeMillis = proxyWriteMillis.get(name);
+        if (writeMillis == null) {
+            return false;
+        }
+        if (SystemClock.elapsedRealtime() - writeMillis < PROXY_WRITE_HOLD_MILLIS) {
+            return true;
+        }
+        proxyWriteMillis.remove(name, writeMillis);
+        return false;
+    }
+
+    private void releaseCacheWriter(PreLoadTask task, String name) {
+        if (httpProxyCacheServer != null) {
+            httpProxyCacheServer.unregisterCacheListener(proxyWriteListener, task.url);
+        }
+        cacheWritingTasks.remove(name, task);
+    }
+
+    protected void closeCacheWriter(PreLoadTask task, CacheFileWriter writer, long totalLength) {
+        File file = writer.close(totalLength);
+        cacheIndex.update(file.getName(), writer.getPosition(), System.currentTimeMillis());
+        releaseCacheWriter(task, fileNameGenerator.generate(task.url));
+        cacheEvictor.requestTrim();
+    }
+
+    private void stopCacheWrite(String url) {
+        PreLoadTask task = cacheWritingTasks.get(fileNameGenerator.generate(url));
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * @return 估算的带宽（字节/秒），未知时为-1
+     * */
+    public long getBandwidth() {
+        return bandwidthEstimator.getBandwidth();
+    }
+
+    protected void updateBandwidth(long bytes, long costMillis, long ttfbMillis) {
+        bandwidthEstimator.addSample(bytes, costMillis, ttfbMillis);
+        // 带宽恢复时等待中的任务重新排队
+        scheduler.onGateChanged();
+    }
+
+    protected void setPlayBytesPerSecond(long playBytesPerSecond) {
+        this.playBytesPerSecond = playBytesPerSecond;
+        scheduler.onGateChanged();
+    }
+
+    /**
+     * 带宽不够同时满足正在播放的视频和预加载时暂停预加载，避免正在播放的视频卡顿
+     * */
+    public boolean canPreLoad() {
+        return bandwidthEstimator.canPreLoad(playBytesPerSecond);
+    }
+
+    /**
+     * 正在播放的视频缓冲低于该值时限制预加载速度，默认{@link #DEFAULT_FOREGROUND_BUFFER_MILLIS}
+     * */
+    public void setForegroundBufferMillis(long foregroundBufferMillis) {
+        this.foregroundBufferMillis = foregroundBufferMillis;
+        synchronized (throttle) {
+            updateThrottle();
+        }
+    }
+
+    /**
+     * 播放器上报当前已缓冲的时长，建议在缓冲进度变化时调用
+     *
+     * @param busId 只处理当前正在播放的busId
+     * @param bufferedMillis 播放位置之后已缓冲的时长
+     * */
+    public void reportPlaybackBuffer(String busId, long bufferedMillis) {
+        synchronized (throttle) {
+            if (isForeground(busId)) {
+                foregroundBufferedMillis = bufferedMillis;
+                updateThrottle();
+            }
+        }
+    }
+
+    /**
+     * 播放器开始/结束卡顿（缓冲中）时调用，卡顿期间暂停所有预加载
+     * */
+    public void reportPlaybackStall(String busId, boolean stalled) {
+        synchronized (throttle) {
+            if (isForeground(busId)) {
+                foregroundStalled = stalled;
+                updateThrottle();
+            }
+        }
+    }
+
+    /**
+     * 没有排队的预加载任务、带宽足够并且正在播放的视频没有卡顿或缓冲不足时，链路视为空闲
+     * */
+    protected boolean isLinkIdle(String busId) {
+        synchronized (throttle) {
+            if (!isForeground(busId) || throttle.getRate() != TokenBucket.UNLIMITED) {
+                return false;
+            }
+        }
+        return scheduler.getQueuedCount() == 0 && canPreLoad();
+    }
+
+    private boolean isForeground(String busId) {
+        return currentBusId == null || currentBusId.equals(busId);
+    }
+
+    /**
+     * 清除卡顿和缓冲状态，限速恢复为{@link TokenBucket#UNLIMITED}，调用方需要持有throttle锁
+     * */
+    private void resetForegroundThrottle() {
+        foregroundStalled = false;
+        foregroundBufferedMillis = -1;
+        updateThrottle();
+    }
+
+    /**
+     * 卡顿或者缓冲低于1s时暂停，低于阈值时限速为带宽的1/4，否则不限速
+     * */
+    private void updateThrottle() {
+        long rate;
+        if (foregroundStalled || (foregroundBufferedMillis >= 0 && foregroundBufferedMillis < FOREGROUND_PAUSE_BUFFER_MILLIS)) {
+            rate = 0;
+        } else if (foregroundBufferedMillis >= 0 && foregroundBufferedMillis < foregroundBufferMillis) {
+            rate = Math.max(MIN_THROTTLE_BYTES_PER_SECOND, getBandwidth() / 4);
+        } else {
+            rate = TokenBucket.UNLIMITED;
+        }
+
+        if (rate != throttle.getRate()) {
+            if (PreLoadTrace.isDebug()) {
+                PreLoadTrace.d(TAG, "preload throttle rate: " + rate);
+            }
+            throttle.setRate(rate);
+            if (rate == TokenBucket.UNLIMITED && currentBusId != null) {
+                // 缓冲恢复之后可以继续扩大下一个视频的缓冲
+                VideoPreLoadFuture videoPreLoadFuture = getVideoPreLoadFuture(currentBusId);
+                if (videoPreLoadFuture != null) {
+                    videoPreLoadFuture.wakeUp();
+                }
+            }
+        }
+    }
+
     public boolean hasEnoughCache(String url) {
-        return AndroidUtils.hasEnoughCache(context, fileNameGenerator, url);
+        return hasEnoughCache(url, AndroidUtils.DEFAULT_ENOUGH_CACHE_BYTES);
+    }
+
+    /**
+     * @param preLoadBytes 未下载完成的缓存至少需要的字节数
+     * */
+    public boolean hasEnoughCache(String url, long preLoadBytes) {
+        // 扫描完成之前，预加载日志里足够的记录可以直接使用，其余的查询文件系统
+        return cacheLookup.hasEnoughCache(fileNameGenerator.generate(url), preLoadBytes);
+    }
+
+    protected void recordPreLoadedBytes(String url, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+
+        String name = fileNameGenerator.generate(url);
+        synchronized (preLoadedBytes) {
+            Long last = preLoadedBytes.get(name);
+            if (last == null || last < bytes) {
+                preLoadedBytes.put(name, bytes);
+            }
+        }
+        journal.recordPreload(name, bytes, System.currentTimeMillis());
+    }
+
+    /**
+     * @return 之前预加载到的位置，缓存已经被清理时以实际缓存的大小为准，
+     * 避免请求的位置离缓存太远，代理不再写缓存
+     * */
+    protected long getResumeOffset(String url) {
+        String name = fileNameGenerator.generate(url);
+        Long bytes;
+        synchronized (preLoadedBytes) {
+            bytes = preLoadedBytes.get(name);
+        }
+        if (bytes == null || !cacheIndex.isReady()) {
+            return 0;
+        }
+
+        return Math.min(bytes, cacheIndex.getCachedBytes(name));
+    }
+
+    /**
+     * 代理写缓存时只有关闭文件才会收到目录监听的回调，预加载结束后主动同步一次
+     * */
+    protected void refreshCacheIndex(String url) {
+        String name = fileNameGenerator.generate(url);
+        File root = getCacheRoot();
+        File file = new File(root, name);
+        if (!file.exists()) {
+            file = new File(root, name + CacheFileWriter.TEMP_POSTFIX);
+        }
+        if (file.exists()) {
+            cacheIndex.update(file.getName(), file.length(), System.currentTimeMillis());
+        }
+        cacheEvictor.requestTrim();
     }
 
     protected synchronized PreLoadTask createTask(final String busId, String url, int index) {
@@ -132,34 +732,96 @@ public class PreLoadManager {
         if (preLoadTaskPool.size() > 0) {
             preLoadTask = preLoadTaskPool.get(0);
             preLoadTaskPool.remove(0);
-            Log.d(TAG, "get PreLoadTask from pool");
         }
 
         if (preLoadTask == null) {
             preLoadTask = new PreLoadTask(context, url, index);
-            Log.d(TAG, "new PreLoadTask");
             final PreLoadTask tmpPreLoadTask = preLoadTask;
             preLoadTask.setiTaskCallback(new PreLoadTask.ITaskCallback() {
                 @Override
                 public void finish() {
-                    VideoPreLoadFuture videoPreLoadFuture = getVideoPreLoadFuture(busId);
+                    completeInFlight(tmpPreLoadTask);
+                    // 任务会被回收复用到其他busId，这里取任务当前所属的busId
+                    // 调度线程删除之前还可能取消或调整这个任务，删除之后才能回收；
+                    // busId已经销毁时调度线程可能还没退出，这种情况不回收
+                    VideoPreLoadFuture videoPreLoadFuture = getVideoPreLoadFuture(tmpPreLoadTask.busId);
                     if (videoPreLoadFuture != null) {
-                        videoPreLoadFuture.removeTask(tmpPreLoadTask);
+                        videoPreLoadFuture.removeTask(tmpPreLoadTask, new Runnable() {
+                            @Override
+                            public void run() {
+                                recyclerPreLoadTask(tmpPreLoadTask);
+                            }
+                        });
                     }
-                    recyclerPreLoadTask(tmpPreLoadTask);
                 }
             });
         } else {
             preLoadTask.init(url, index);
         }
 
+        preLoadTask.busId = busId;
+        preLoadTask.resumable = getResumeOffset(url) > 0;
         return preLoadTask;
     }
 
+    /**
+     * 同一个视频已经有其他busId在下载时不再提交，挂到已有的任务上，随它一起结束
+     * */
+    protected void submitTask(PreLoadTask task, int distance) {
+        PreLoadTask owner = inFlightTasks.attach(task.getCacheKey(), task);
+        if (owner == null) {
+            PreLoadTrace.event(PreLoadTrace.EVENT_SUBMIT, task.url, task.index, distance, 0);
+            scheduler.submit(task, distance);
+            return;
+        }
+
+        PreLoadTrace.event(PreLoadTrace.EVENT_COALESCE, task.url, task.index, distance, owner.index);
+        // 还在排队时按更近的距离和更大的预加载量下载
+        if (owner.preLoadBytes < task.preLoadBytes) {
+            owner.preLoadBytes = task.preLoadBytes;
+        }
+        if (Math.abs(distance) < Math.abs(owner.distance)) {
+            scheduler.reprioritize(owner, distance);
+        }
+    }
+
+    /**
+     * 取消任务，还在排队中的任务直接移出调度队列并回收。
+     * 其他busId还在等待的下载不取消，只结束当前busId的follower
+     * */
+    protected void cancelTask(PreLoadTask task) {
+        String key = task.getCacheKey();
+        if (inFlightTasks.detachFollower(key, task)) {
+            task.finish();
+            return;
+        }
+
+        if (inFlightTasks.hasFollowers(key, task)) {
+            return;
+        }
+
+        PreLoadTrace.event(PreLoadTrace.EVENT_CANCEL, task.url, task.index, 0, 0);
+        task.cancel();
+        if (scheduler.removeQueued(task)) {
+            metrics.onPreLoadFinished(task.url, PreLoadMetrics.RESULT_CANCELLED, -1, -1, 0);
+            task.finish();
+        }
+    }
+
+    /**
+     * 下载结束，挂在上面的follower一起结束
+     * */
+    private void completeInFlight(PreLoadTask task) {
+        List<PreLoadTask> followers = inFlightTasks.complete(task.getCacheKey(), task);
+        for (int i = 0; i < followers.size(); i++) {
+            followers.get(i).finish();
+        }
+    }
+
     protected synchronized void recyclerPreLoadTask(PreLoadTask task) {
         if (preLoadTaskPool.size() <= 20) {
-            Log.d(TAG, "recycler PreLoadTask into pool");
             preLoadTaskPool.add(task);
+            PreLoadTrace.event(PreLoadTrace.EVENT_RECYCLE, null, task.index, preLoadTaskPool.size(), 0);
         }
     }
 
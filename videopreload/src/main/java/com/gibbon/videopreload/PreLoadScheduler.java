@@ -0,0 +1,257 @@
+package com.gibbon.videopreload;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内共享的预加载调度器，由{@link PreLoadManager}持有，所有busId的预加载任务都在这里排队执行。
+ *
+ * 排队顺序：
+ * 1. 播放位置更新得越晚（generation越大）越优先，新的播放位置可以抢占所有busId下已排队的任务；
+ * 2. 同一generation下，离当前播放位置越近越优先，距离相同时可以续传的优先，其次向后（未播放方向）的优先；
+ * 3. 其余按提交顺序。
+ *
+ * 任务开始执行时检查{@link DispatchGate}，带宽不够时任务放回等待列表，不占用下载线程，
+ * {@link #onGateChanged()}或者等待超过{@link #MAX_DEFER_MILLIS}后重新排队。
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-06-22
+ */
+public class PreLoadScheduler {
+
+    public static final int DEFAULT_MAX_CONCURRENT = 3;
+
+    /**
+     * 带宽一直不够时最多等待的时间，之后照常下载，新的下载样本会更新带宽估算，避免一直暂停
+     * */
+    public static final long MAX_DEFER_MILLIS = 5000;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    public interface DispatchGate {
+        /**
+         * 在下载线程上调用，返回false时任务暂不执行
+         * */
+        boolean canDispatch();
+    }
+
+    private final AtomicLong mGeneration = new AtomicLong();
+    private final AtomicLong mSequence = new AtomicLong();
+    private final PriorityBlockingQueue<Runnable> mQueue;
+    private final ThreadPoolExecutor mExecutor;
+    /**
+     * 等待带宽的任务以及超时后放回队列的定时器，都由this保护
+     * */
+    private final List<PreLoadTask> mDeferred = new ArrayList<>();
+    private final ScheduledThreadPoolExecutor mTimer;
+    private boolean mReleaseScheduled;
+    private volatile DispatchGate mGate;
+
+    public PreLoadScheduler(int maxConcurrent) {
+        mQueue = new PriorityBlockingQueue<>(16, new TaskComparator());
+        mExecutor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                mQueue, new PreLoadThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+        mTimer = new ScheduledThreadPoolExecutor(1, new PreLoadThreadFactory());
+        mTimer.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        mTimer.allowCoreThreadTimeOut(true);
+    }
+
+    public void setDispatchGate(DispatchGate gate) {
+        mGate = gate;
+    }
+
+    /**
+     * 调整并发下载数上限
+     * */
+    public void setMaxConcurrent(int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent should be positive");
+        }
+
+        if (maxConcurrent > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(maxConcurrent);
+            mExecutor.setCorePoolSize(maxConcurrent);
+        } else {
+            mExecutor.setCorePoolSize(maxConcurrent);
+            mExecutor.setMaximumPoolSize(maxConcurrent);
+        }
+    }
+
+    public int getMaxConcurrent() {
+        return mExecutor.getMaximumPoolSize();
+    }
+
+    /**
+     * 播放位置发生变化时调用，之后提交或者重排的任务会排在所有旧任务之前
+     * */
+    public long newGeneration() {
+        return mGeneration.incrementAndGet();
+    }
+
+    /**
+     * @param distance 任务与所属VideoPreLoadFuture当前播放位置的距离，负数表示在当前播放位置之前
+     * */
+    public void submit(PreLoadTask task, int distance) {
+        task.generation = mGeneration.get();
+        task.distance = distance;
+        task.sequence = mSequence.incrementAndGet();
+        task.submitNanos = System.nanoTime();
+        mExecutor.execute(task);
+    }
+
+    /**
+     * 任务开始执行时调用，带宽不够时放回等待列表并返回false，调用方直接返回，不再下载。
+     * 等待超过{@link #MAX_DEFER_MILLIS}的任务不再检查
+     * */
+    boolean dispatch(PreLoadTask task) {
+        DispatchGate gate = mGate;
+        if (gate == null || gate.canDispatch()) {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        if (task.deferNanos > 0 && now - task.deferNanos >= TimeUnit.MILLISECONDS.toNanos(MAX_DEFER_MILLIS)) {
+            return true;
+        }
+
+        synchronized (this) {
+            if (task.deferNanos == 0) {
+                task.deferNanos = now;
+            }
+            mDeferred.add(task);
+            // 加入列表之前onGateChanged可能已经执行过，这里再检查一次，避免一直等到定时器
+            if (gate.canDispatch()) {
+                releaseDeferred();
+                return false;
+            }
+            if (!mReleaseScheduled) {
+                mReleaseScheduled = true;
+                mTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (PreLoadScheduler.this) {
+                            mReleaseScheduled = false;
+                        }
+                        releaseDeferred();
+                    }
+                }, MAX_DEFER_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 带宽估算或者正在播放的码率变化时调用，带宽足够时等待中的任务重新排队
+     * */
+    public void onGateChanged() {
+        DispatchGate gate = mGate;
+        if (gate == null || gate.canDispatch()) {
+            releaseDeferred();
+        }
+    }
+
+    private synchronized void releaseDeferred() {
+        // 保留原来的generation、距离和提交顺序，不重新排序
+        for (int i = 0; i < mDeferred.size(); i++) {
+            mExecutor.execute(mDeferred.get(i));
+        }
+        mDeferred.clear();
+    }
+
+    /**
+     * 已经在排队中的任务按新的播放位置重新排序，任务已经开始执行的话返回false
+     * */
+    public boolean reprioritize(PreLoadTask task, int distance) {
+        if (!removeQueued(task)) {
+            return false;
+        }
+
+        // 排队耗时从第一次提交开始计算
+        long submitNanos = task.submitNanos;
+        submit(task, distance);
+        task.submitNanos = submitNanos;
+        return true;
+    }
+
+    /**
+     * 把还在排队的任务移出队列（按引用比较），任务已经开始执行的话返回false
+     * */
+    public boolean removeQueued(PreLoadTask task) {
+        synchronized (this) {
+            for (int i = 0; i < mDeferred.size(); i++) {
+                if (mDeferred.get(i) == task) {
+                    mDeferred.remove(i);
+                    return true;
+                }
+            }
+        }
+
+        Iterator<Runnable> iterator = mQueue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == task) {
+                // PriorityBlockingQueue的迭代器remove按引用删除
+                iterator.remove();
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public int getQueuedCount() {
+        synchronized (this) {
+            return mQueue.size() + mDeferred.size();
+        }
+    }
+
+    private static class TaskComparator implements Comparator<Runnable> {
+
+        @Override
+        public int compare(Runnable r1, Runnable r2) {
+            PreLoadTask t1 = (PreLoadTask) r1;
+            PreLoadTask t2 = (PreLoadTask) r2;
+            if (t1.generation != t2.generation) {
+                return t1.generation > t2.generation ? -1 : 1;
+            }
+
+            int d1 = Math.abs(t1.distance);
+            int d2 = Math.abs(t2.distance);
+            if (d1 != d2) {
+                return d1 < d2 ? -1 : 1;
+            }
+
+            // 距离相同时先下载之前已经下载过一部分的，剩余的数据更少
+            if (t1.resumable != t2.resumable) {
+                return t1.resumable ? -1 : 1;
+            }
+
+            if (t1.distance != t2.distance) {
+                return t1.distance > t2.distance ? -1 : 1;
+            }
+
+            return t1.sequence < t2.sequence ? -1 : (t1.sequence == t2.sequence ? 0 : 1);
+        }
+    }
+
+    private static class PreLoadThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "preload-" + mCount.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -3,16 +3,24 @@ package com.gibbon.videopreload;
 
 import android.content.Context;
 import android.text.TextUtils;
-import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import com.gibbon.videopreload.adapter.DefaultPreLoadSizeAdapter;
+import com.gibbon.videopreload.adapter.IHttpTransport;
+import com.gibbon.videopreload.cache.CacheFileWriter;
+import com.gibbon.videopreload.metrics.PreLoadMetrics;
+import com.gibbon.videopreload.mp4.Mp4BoxParser;
+import com.gibbon.videopreload.mp4.Mp4HeaderInfo;
+import com.gibbon.videopreload.stream.MediaSegment;
+import com.gibbon.videopreload.stream.StreamPreLoadPlanner;
+import com.gibbon.videopreload.trace.PreLoadTrace;
 import com.gibbon.videopreload.util.AndroidUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.HttpURLConnection;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -32,11 +40,70 @@ public class PreLoadTask implements Runnable {
     private volatile int status = STATUS_INIT;
     public volatile String url;
     public volatile int index;
+    public volatile String busId;
+    /**
+     * 需要预加载的字节数，由{@link com.gibbon.videopreload.adapter.IPreLoadSizeAdapter}决定
+     * */
+    public volatile long preLoadBytes = DefaultPreLoadSizeAdapter.DEFAULT_NEXT_BYTES;
     private volatile String cacheKey;
 
+    /**
+     * 由{@link PreLoadScheduler}维护的排队优先级
+     * */
+    long generation;
+    int distance;
+    /**
+     * 之前预加载过一部分，可以从已下载的位置继续
+     * */
+    boolean resumable;
+    /**
+     * 提交到调度器的时间，用于统计排队耗时
+     * */
+    long submitNanos;
+    private long queueWaitMillis;
+    long sequence;
+    /**
+     * 第一次因为带宽不够放回调度器的时间，没有等待过时为0
+     * */
+    long deferNanos;
+
     private Context context;
     private long startTime;
 
+    /**
+     * mp4头部解析，只在{@link PreLoadManager#setMp4HeaderPreLoad(boolean)}打开时使用
+     * */
+    private static final int PROBE_BYTES = 64 * 1024;
+    private static final long KEYFRAME_BYTES = 64 * 1024;
+    private static final long MAX_MP4_PRELOAD_BYTES = 1024 * 1024;
+    private byte[] probeBuffer;
+    private int probeLength;
+    private boolean mp4Planned;
+    private long totalLength;
+    private long target;
+    private final Mp4HeaderInfo mp4Info = new Mp4HeaderInfo();
+
+    /**
+     * HLS/DASH分片长度未知时最多下载的字节数，一般读到分片结尾就结束
+     * */
+    private static final long MAX_SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * 从{@link PreLoadManager#bufferPool}借用的读缓冲，下载结束后归还
+     * */
+    private static final int MAX_READ_BUFFER_SIZE = 128 * 1024;
+    private byte[] buffer;
+
+    /**
+     * 当前的连接，取消时直接断开
+     * */
+    private volatile HttpURLConnection connection;
+    /**
+     * 从文件开头算起已经收到的连续字节数
+     * */
+    private volatile long receivedBytes;
+    private long ttfb = -1;
+
     private ITaskCallback iTaskCallback;
     private ReentrantLock lock = new ReentrantLock();
     private Condition waitCondition = lock.newCondition();
@@ -57,108 +124,443 @@ public class PreLoadTask implements Runnable {
             this.index = index;
             this.cacheKey = AndroidUtils.textToMD5(url);
             this.status = STATUS_INIT;
+            this.preLoadBytes = DefaultPreLoadSizeAdapter.DEFAULT_NEXT_BYTES;
+            this.deferNanos = 0;
         } finally {
             lock.unlock();
         }
     }
 
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
     public void setiTaskCallback(ITaskCallback callback) {
         this.iTaskCallback = callback;
     }
 
     public void setStatus(int status) {
+        int oldStatus;
         lock.lock();
         try {
+            oldStatus = this.status;
             this.status = status;
-            Log.d("TTTT", "status change1 " + this.status + " index: " + index);
         } finally {
             lock.unlock();
         }
+        // 锁外记录，不延长持锁时间
+        traceStatus(oldStatus, status);
+    }
+
+    private void traceStatus(int oldStatus, int newStatus) {
+        PreLoadTrace.event(PreLoadTrace.EVENT_STATUS, url, index, oldStatus, newStatus);
+        if (PreLoadTrace.isLoggable(PreLoadTrace.LEVEL_VERBOSE)) {
+            PreLoadTrace.log(PreLoadTrace.LEVEL_VERBOSE, PreLoadManager.TAG, "status change " + oldStatus + " -> " + newStatus + " index: " + index);
+        }
+    }
+
+    /**
+     * 取消任务，正在下载时马上断开连接，阻塞中的read会抛出异常，下载线程不用等到读超时才释放
+     * */
+    public void cancel() {
+        setStatus(STATUS_CANCEL);
+        HttpURLConnection connection = this.connection;
+        if (connection != null) {
+            connection.disconnect();
+        }
     }
 
     public void run() {
-        Log.d(PreLoadManager.TAG, Thread.currentThread().getName() + "----task run begin----");
+        queueWaitMillis = submitNanos > 0 ? (System.nanoTime() - submitNanos) / 1000000 : -1;
+        PreLoadTrace.event(PreLoadTrace.EVENT_RUN_BEGIN, url, index, queueWaitMillis, 0);
         if (status == STATUS_CANCEL) {
-            Log.d(PreLoadManager.TAG, Thread.currentThread().getName() + " has cancel");
+            PreLoadTrace.event(PreLoadTrace.EVENT_RUN_END, url, index, STATUS_CANCEL, 0);
+            PreLoadManager.getInstance(context).metrics.onPreLoadFinished(url, PreLoadMetrics.RESULT_CANCELLED, queueWaitMillis, -1, 0);
             finish();
             return;
         }
 
         if (TextUtils.isEmpty(this.url)) {
-            Log.d(PreLoadManager.TAG, Thread.currentThread().getName() + " url is empty");
+            PreLoadTrace.event(PreLoadTrace.EVENT_RUN_END, url, index, status, 0);
             finish();
             return;
         }
 
+        // 带宽不够时放回调度器等待，不占用下载线程，带宽恢复后重新排队执行
+        if (!PreLoadManager.getInstance(context).scheduler.dispatch(this)) {
+            PreLoadTrace.event(PreLoadTrace.EVENT_DEFER, url, index, distance, 0);
+            return;
+        }
+
+        traceStatus(status, STATUS_PRELOADING);
         status = STATUS_PRELOADING;
         preload();
 
-        Log.d(PreLoadManager.TAG, Thread.currentThread().getName() + "----task run end----");
+        PreLoadTrace.event(PreLoadTrace.EVENT_RUN_END, url, index, status, 0);
     }
 
     private void preload() {
         if (status != STATUS_PRELOADING) {
-            Log.d(PreLoadManager.TAG, Thread.currentThread().getName() + "preload() " + "status is: " + status);
+            if (PreLoadTrace.isDebug()) {
+                PreLoadTrace.d(PreLoadManager.TAG, "preload() status is: " + status);
+            }
             return;
         }
 
-        if (PreLoadManager.getInstance(context).hasEnoughCache(this.url)) {
-            Log.d(PreLoadManager.TAG, Thread.currentThread().getName() + "videoId " + url + " has enough cache");
+        if (StreamPreLoadPlanner.isStreamUrl(this.url)) {
+            preloadStream();
+            return;
+        }
+
+        long preLoadBytes = this.preLoadBytes;
+        if (PreLoadManager.getInstance(context).hasEnoughCache(this.url, preLoadBytes)) {
+            PreLoadTrace.event(PreLoadTrace.EVENT_SKIP_CACHED, url, index, preLoadBytes, 0);
+            PreLoadManager.getInstance(context).metrics.onPreLoadFinished(url, PreLoadMetrics.RESULT_SKIPPED_CACHED, queueWaitMillis, -1, 0);
             finish();
             return;
         }
 
-        InputStream inputStream  = null;
         long start = System.currentTimeMillis();
-        boolean flag = false;
+        long length = 0;
+        long startLength = 0;
+        long tailLength = 0;
+        PreLoadManager preLoadManager = PreLoadManager.getInstance(context);
+        preLoadManager.metrics.onPreLoadStarted(queueWaitMillis);
+        CacheFileWriter writer = preLoadManager.openCacheWriter(this);
+        // 按预加载量选择缓冲大小，只加载头部时用小一级的缓冲
+        buffer = preLoadManager.bufferPool.acquire((int) Math.min(preLoadBytes / 8, MAX_READ_BUFFER_SIZE));
         try {
-            URL url = new URL(PreLoadManager.getInstance(context).getLocalUrlAppendWithUrl(this.url));
-            URLConnection urlConnection = url.openConnection();
-            urlConnection.setRequestProperty("Range","bytes=0-204799");
-            urlConnection.setConnectTimeout(5000);
-            urlConnection.connect();
+            // 直接写缓存时请求源地址，从已缓存的位置继续下载
+            String proxyUrl = writer != null ? this.url : preLoadManager.getLocalUrlAppendWithUrl(this.url);
+            // 之前被取消的任务从已经下载到的位置继续，不再从0开始
+            length = startLength = writer != null ? writer.getPosition() : preLoadManager.getResumeOffset(this.url);
+            receivedBytes = length;
+            boolean probeMp4 = preLoadManager.isMp4HeaderPreLoad() && length == 0;
+            totalLength = -1;
+            ttfb = -1;
+            if (probeMp4) {
+                mp4Info.reset();
+                probeLength = 0;
+                mp4Planned = false;
+            }
+            target = preLoadBytes;
+            traceStatus(status, STATUS_LOADING);
+            status = STATUS_LOADING;
+            // mp4解析或者升级到更高的层级之后target可能变大，需要从已下载的位置继续请求
+            while (status == STATUS_LOADING && length < promoteTarget()) {
+                long read = download(proxyUrl, length, target, probeMp4 && length < PROBE_BYTES, writer);
+                length = receivedBytes;
+                if (probeMp4 && status == STATUS_LOADING && length >= target && mp4Info.isMoovAtEnd()) {
+                    tailLength += preloadMp4Tail(proxyUrl);
+                }
+                if (read <= 0) {
+                    break;
+                }
+            }
+
+            if (status == STATUS_LOADING && ContentRange.isComplete(length, target, totalLength)) {
+                traceStatus(STATUS_LOADING, STATUS_COMPLETED);
+                status = STATUS_COMPLETED;
+            }
+        } catch (IOException e) {
+            if (PreLoadTrace.isDebug()) {
+                PreLoadTrace.d(PreLoadManager.TAG, "preload failed: " + e.getMessage());
+            }
+        }  catch (Exception e) {
+            PreLoadTrace.e(PreLoadManager.TAG, "preload failed: " + e);
+        } finally {
+            // 取消或者异常时download中断，以实际收到的数据为准
+            length = receivedBytes;
+            preLoadManager.recordPreLoadedBytes(this.url, length);
+            long cost = System.currentTimeMillis() - start;
+            PreLoadTrace.event(PreLoadTrace.EVENT_DOWNLOADED, this.url, this.index, length - startLength + tailLength, cost);
+            if (PreLoadTrace.isDebug()) {
+                PreLoadTrace.d(PreLoadManager.TAG, "preload video url [url: " + this.url + ", time: "
+                        + cost + "ms, index: " + this.index + ", status: " + this.status + "]");
+            }
+            preLoadManager.updateBandwidth(length - startLength + tailLength, cost, ttfb);
+            int result = status == STATUS_COMPLETED ? PreLoadMetrics.RESULT_COMPLETED
+                    : (status == STATUS_CANCEL ? PreLoadMetrics.RESULT_CANCELLED : PreLoadMetrics.RESULT_FAILED);
+            preLoadManager.metrics.onPreLoadFinished(this.url, result, queueWaitMillis, cost, length - startLength + tailLength);
+            preLoadManager.bufferPool.release(buffer);
+            buffer = null;
+            if (writer != null) {
+                preLoadManager.closeCacheWriter(this, writer, totalLength);
+            } else if (length > 0) {
+                preLoadManager.refreshCacheIndex(this.url);
+            }
+
+            finish();
+        }
+
+    }
 
-            inputStream = urlConnection.getInputStream();
+    /**
+     * HLS/DASH：playlist直接请求源地址，选中码率的初始化分片和开头的分片经过代理写入各自的缓存，
+     * 播放器通过代理请求分片时可以直接命中
+     * */
+    private void preloadStream() {
+        long start = System.currentTimeMillis();
+        long bytes = 0;
+        PreLoadManager preLoadManager = PreLoadManager.getInstance(context);
+        preLoadManager.metrics.onPreLoadStarted(queueWaitMillis);
+        long preLoadBytes = this.preLoadBytes;
+        buffer = preLoadManager.bufferPool.acquire((int) Math.min(preLoadBytes / 8, MAX_READ_BUFFER_SIZE));
+        try {
+            totalLength = -1;
+            ttfb = -1;
+            traceStatus(status, STATUS_LOADING);
             status = STATUS_LOADING;
-            Log.d(PreLoadManager.TAG, Thread.currentThread().getName() + "PreLoadTask run: loading" );
-            int bufferSize = 1024;
-            byte[] buffer = new byte[bufferSize];
-            int length = 0;
-            int tmp = 0;
-            while (status == STATUS_LOADING && (tmp = inputStream.read(buffer)) != -1) {
+            List<MediaSegment> segments = new StreamPreLoadPlanner(preLoadManager.getHttpTransport())
+                    .plan(this.url, preLoadManager.getBandwidth(), preLoadBytes);
+            boolean completed = !segments.isEmpty();
+            for (int i = 0; i < segments.size() && status == STATUS_LOADING; i++) {
+                MediaSegment segment = segments.get(i);
+                long end = segment.length >= 0 ? segment.getEnd() : segment.offset + MAX_SEGMENT_BYTES;
+                if (segment.offset == 0 && segment.length >= 0 && preLoadManager.hasEnoughCache(segment.url, end)) {
+                    continue;
+                }
+
+                totalLength = -1;
+                long read = download(preLoadManager.getLocalUrlAppendWithUrl(segment.url), segment.offset, end, false, null);
+                bytes += read;
+                if (read > 0 && segment.offset == 0) {
+                    preLoadManager.recordPreLoadedBytes(segment.url, read);
+                    preLoadManager.refreshCacheIndex(segment.url);
+                }
+                if (read <= 0 || (segment.length >= 0 && read < segment.length)) {
+                    completed = false;
+                }
+            }
+
+            if (status == STATUS_LOADING && completed) {
+                traceStatus(STATUS_LOADING, STATUS_COMPLETED);
+                status = STATUS_COMPLETED;
+            }
+        } catch (IOException e) {
+            if (PreLoadTrace.isDebug()) {
+                PreLoadTrace.d(PreLoadManager.TAG, "preload stream failed: " + e.getMessage());
+            }
+        } catch (Exception e) {
+            PreLoadTrace.e(PreLoadManager.TAG, "preload stream failed: " + e);
+        } finally {
+            long cost = System.currentTimeMillis() - start;
+            PreLoadTrace.event(PreLoadTrace.EVENT_DOWNLOADED, this.url, this.index, bytes, cost);
+            if (PreLoadTrace.isDebug()) {
+                PreLoadTrace.d(PreLoadManager.TAG, "preload stream url [url: " + this.url + ", time: "
+                        + cost + "ms, index: " + this.index + ", status: " + this.status + "]");
+            }
+            preLoadManager.updateBandwidth(bytes, cost, ttfb);
+            int result = status == STATUS_COMPLETED ? PreLoadMetrics.RESULT_COMPLETED
+                    : (status == STATUS_CANCEL ? PreLoadMetrics.RESULT_CANCELLED : PreLoadMetrics.RESULT_FAILED);
+            preLoadManager.metrics.onPreLoadFinished(this.url, result, queueWaitMillis, cost, bytes);
+            preLoadManager.bufferPool.release(buffer);
+            buffer = null;
+            finish();
+        }
+    }
+
+    /**
+     * 请求[from, to)的数据，返回实际读到的字节数
+     *
+     * @param probe 是否把文件开头的数据交给mp4解析
+     * @param writer 不为null时把数据直接写入缓存文件
+     * */
+    private long download(String proxyUrl, long from, long to, boolean probe, CacheFileWriter writer) throws IOException {
+        long requestStart = System.currentTimeMillis();
+        IHttpTransport transport = PreLoadManager.getInstance(context).getHttpTransport();
+        HttpURLConnection urlConnection = transport.open(proxyUrl, from, to);
+        connection = urlConnection;
+        long length = 0;
+        boolean reusable = false;
+        try {
+            if (status != STATUS_LOADING) {
+                return 0;
+            }
+
+            int code = urlConnection.getResponseCode();
+            if (code == ContentRange.HTTP_RANGE_NOT_SATISFIABLE) {
+                // 之前已经下载到文件结尾，416响应里带有总长度
+                totalLength = ContentRange.parseTotalLength(urlConnection.getHeaderField("Content-Range"));
+                return 0;
+            }
+
+            if (writer != null) {
+                // 服务端不支持Range时只能从头写入，否则缓存文件会错位
+                if (code != HttpURLConnection.HTTP_PARTIAL && (code != HttpURLConnection.HTTP_OK || from > 0)) {
+                    return 0;
+                }
+            }
+
+            InputStream inputStream = urlConnection.getInputStream();
+            if (totalLength < 0) {
+                totalLength = ContentRange.parseTotalLength(urlConnection.getHeaderField("Content-Range"));
+            }
+            long contentLength = ContentRange.parseContentLength(urlConnection.getHeaderField("Content-Length"));
+
+            byte[] buffer = this.buffer;
+            int tmp;
+            boolean eof = false;
+            while (status == STATUS_LOADING) {
+                tmp = inputStream.read(buffer);
+                if (tmp == -1) {
+                    eof = true;
+                    break;
+                }
+                if (ttfb < 0) {
+                    ttfb = System.currentTimeMillis() - requestStart;
+                }
                 //Since we just need to kick start the prefetching, dont need to do anything here
                 //  or we can use ByteArrayOutputStream to write down the data to disk
+                if (probe && !mp4Planned) {
+                    probeMp4(buffer, tmp);
+                }
+                if (!awaitThrottle(tmp)) {
+                    break;
+                }
+                if (writer != null) {
+                    if (status != STATUS_LOADING) {
+                        // 播放器已经开始播放该url，不再写入
+                        break;
+                    }
+                    writer.write(buffer, tmp);
+                }
                 length += tmp;
-//                Log.d(PreloadManager.TAG, Thread.currentThread().getName() + " downloaded length: " + length + "");
-                if (!flag) {
-                    Log.d("TTTT", "status change2: " + status + " index: " + index);
-                    flag = true;
+                receivedBytes = from + length;
+                if (from + length >= to) {
+                    break;
                 }
+            }
+
+            // 响应完整读完的连接才能复用，提前结束的只能断开
+            reusable = status == STATUS_LOADING && (eof || (contentLength >= 0 && length >= contentLength));
+        } finally {
+            connection = null;
+            transport.release(urlConnection, reusable);
+        }
+        return length;
+    }
 
-                if (length >= 102400) {
-                    status = STATUS_COMPLETED;
+    /**
+     * 正在播放的视频缓冲不足时在这里暂停或限速
+     *
+     * @return 等待期间被取消时返回false
+     * */
+    private boolean awaitThrottle(int length) {
+        TokenBucket throttle = PreLoadManager.getInstance(context).throttle;
+        throttle.consume(length);
+        try {
+            while (!throttle.awaitTokens(200)) {
+                if (status != STATUS_LOADING) {
+                    return false;
                 }
             }
+        } catch (InterruptedException e) {
+            return false;
+        }
+        return status == STATUS_LOADING;
+    }
 
-            if (status == STATUS_CANCEL) {
-                Log.d("TTTT", Thread.currentThread().getName() + "task cancel!");
+    /**
+     * 缓存文件开头的数据并解析mp4顶层box：
+     * moov在头部时把预加载范围扩大到moov以及第一个关键帧结束的位置。
+     * */
+    private void probeMp4(byte[] buffer, int length) {
+        if (probeBuffer == null) {
+            probeBuffer = new byte[PROBE_BYTES];
+        }
+
+        int copy = Math.min(length, PROBE_BYTES - probeLength);
+        System.arraycopy(buffer, 0, probeBuffer, probeLength, copy);
+        probeLength += copy;
+
+        if (!Mp4BoxParser.parseTopLevel(probeBuffer, probeLength, mp4Info)) {
+            // 不是mp4，不再解析
+            mp4Planned = probeLength >= 8;
+            return;
+        }
+
+        if (mp4Info.isMoovAtEnd()) {
+            mp4Planned = true;
+        } else if (mp4Info.isMoovAtFront()) {
+            long moovEnd = mp4Info.moovOffset + mp4Info.moovSize;
+            if (moovEnd <= probeLength) {
+                Mp4BoxParser.parseKeyframe(probeBuffer, (int) mp4Info.moovOffset, (int) mp4Info.moovSize, mp4Info);
+                extendTarget(mp4Info.hasKeyframe() ? mp4Info.getKeyframeEnd() : moovEnd + KEYFRAME_BYTES);
+                mp4Planned = true;
+            } else if (moovEnd > PROBE_BYTES) {
+                extendTarget(moovEnd + KEYFRAME_BYTES);
+                mp4Planned = true;
             }
+        } else if (probeLength == PROBE_BYTES) {
+            mp4Planned = true;
+        }
+    }
 
-            inputStream.close();
-        } catch (IOException e) {
-            Log.d(PreLoadManager.TAG, e.getMessage() + "");
-        }  catch (Exception e) {
-            Log.d(PreLoadManager.TAG, e.getMessage() + "");
+    /**
+     * moov在文件尾部时单独请求moov，解析出第一个关键帧的位置后扩大头部的预加载范围。
+     * 注意AndroidVideoCache只缓存从0开始的连续数据，离已缓存位置太远的请求由代理直接转发，
+     * 所以尾部的moov并不会写入缓存，这里请求它主要是为了拿到关键帧的位置，同时预热CDN。
+     *
+     * @return 实际读到的字节数
+     * */
+    private long preloadMp4Tail(String proxyUrl) throws IOException {
+        long moovOffset = mp4Info.nextBoxOffset;
+        if (moovOffset <= 0 || totalLength <= moovOffset || totalLength - moovOffset > PROBE_BYTES) {
+            return 0;
+        }
+
+        int tailLength = (int) (totalLength - moovOffset);
+        IHttpTransport transport = PreLoadManager.getInstance(context).getHttpTransport();
+        HttpURLConnection urlConnection = transport.open(proxyUrl, moovOffset, totalLength);
+        connection = urlConnection;
+        int length = 0;
+        try {
+            if (status != STATUS_LOADING) {
+                return 0;
+            }
+
+            InputStream inputStream = urlConnection.getInputStream();
+            int tmp;
+            while (status == STATUS_LOADING && length < tailLength
+                    && (tmp = inputStream.read(probeBuffer, length, tailLength - length)) != -1) {
+                length += tmp;
+            }
         } finally {
-            Log.d(PreLoadManager.TAG, Thread.currentThread().getName() + "preload video url [url: " + PreLoadTask.this.url + ", time: "
-                    + (System.currentTimeMillis() - start) + "ms, index: " + PreLoadTask.this.index + "， status: " + this.status + "]");
+            connection = null;
+            transport.release(urlConnection, status == STATUS_LOADING && length == tailLength);
+        }
 
-            finish();
+        Mp4BoxParser.parseTopLevel(probeBuffer, 0, length, moovOffset, mp4Info);
+        if (mp4Info.hasMoov() && mp4Info.moovOffset + mp4Info.moovSize <= moovOffset + length) {
+            Mp4BoxParser.parseKeyframe(probeBuffer, (int) (mp4Info.moovOffset - moovOffset), (int) mp4Info.moovSize, mp4Info);
+            extendTarget(mp4Info.getKeyframeEnd());
+        }
+        // 尾部只请求一次
+        mp4Info.mdatOffset = -1;
+        return length;
+    }
+
+    /**
+     * 下载过程中播放位置靠近，{@link #preLoadBytes}被调大时继续下载到新的字节数，调小时不影响；
+     * 已知文件总长度时不超过文件结尾
+     * */
+    private long promoteTarget() {
+        long preLoadBytes = this.preLoadBytes;
+        if (preLoadBytes > target) {
+            target = preLoadBytes;
         }
+        target = ContentRange.clampTarget(target, totalLength);
+        return target;
+    }
 
+    private void extendTarget(long end) {
+        if (end > target) {
+            target = Math.min(end, MAX_MP4_PRELOAD_BYTES);
+        }
     }
 
-    private void finish() {
+    void finish() {
         if (iTaskCallback != null) {
             iTaskCallback.finish();
         }
@@ -176,11 +578,12 @@ public class PreLoadTask implements Runnable {
     }
 
     /**
-     * 此处没涉及map/set操作,涉及需要重写该方法
+     * 与equals保持一致，按url计算
      * */
     @Override
     public int hashCode() {
-        return super.hashCode();
+        String url = this.url;
+        return TextUtils.isEmpty(url) ? 0 : url.hashCode();
     }
 
     interface ITaskCallback {
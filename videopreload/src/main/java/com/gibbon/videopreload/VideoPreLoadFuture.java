@@ -7,10 +7,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.os.Handler;
-import android.os.Message;
 import android.text.TextUtils;
-import android.util.Log;
 
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleObserver;
@@ -18,37 +15,32 @@ import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.OnLifecycleEvent;
 
 import com.gibbon.videopreload.adapter.DefaultNetworkAdapter;
+import com.gibbon.videopreload.adapter.DefaultPreLoadSizeAdapter;
+import com.gibbon.videopreload.adapter.DefaultPreLoadWindowAdapter;
 import com.gibbon.videopreload.adapter.INetworkAdapter;
+import com.gibbon.videopreload.adapter.IPreLoadSizeAdapter;
+import com.gibbon.videopreload.adapter.IPreLoadWindowAdapter;
+import com.gibbon.videopreload.trace.PreLoadTrace;
 
-import java.lang.ref.WeakReference;
-import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
+import java.util.Set;
 
 /**
+ * 预加载窗口的调度由{@link PreLoadWindowScheduler}完成，这里只负责Android相关的部分：
+ * 生命周期、网络状态，以及把窗口内的任务交给{@link PreLoadManager}执行。
+ *
  * @author zhipeng.zhuo
  * @date 2020-04-26
  */
 public class VideoPreLoadFuture implements LifecycleObserver {
 
-    private volatile List<String> mUrls;
     private String mBusId;
-    private String mCurrentUrl;
-    private volatile int mCurrentIndex;
-    private volatile boolean toPreLoad = false;
-    private ReentrantLock mLock = new ReentrantLock();
-    private Condition empty = mLock.newCondition();
-    private Condition network = mLock.newCondition();
-    private LinkedBlockingDeque<PreLoadTask> mLoadingTaskDeque = new LinkedBlockingDeque<>();
-    private ExecutorService mExecutorService = Executors.newCachedThreadPool();
-    private ConsumerThread mConsumerThread;
-    private CurrentLoadingHandler mHandler;
+    private final PreLoadWindowScheduler<PreLoadTask> mScheduler;
+
     private Context mContext;
-    private INetworkAdapter mNetworkAdapter;
+    private volatile INetworkAdapter mNetworkAdapter;
     private BroadcastReceiver mNetworkReceiver;
     private volatile boolean mIsWifi = false;
 
@@ -58,7 +50,6 @@ public class VideoPreLoadFuture implements LifecycleObserver {
      * */
     public VideoPreLoadFuture(Context context, String preloadBusId) {
         mContext = context;
-        mHandler = new CurrentLoadingHandler(this);
 
         if (context instanceof Application) {
             throw new RuntimeException("context should not be an Application");
@@ -86,53 +77,75 @@ public class VideoPreLoadFuture implements LifecycleObserver {
             try {
                 mContext.registerReceiver(mNetworkReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
             } catch (Exception e) {
-                Log.e(PreLoadManager.TAG, this + "\tregisterReceiver exp:" + e);
+                PreLoadTrace.e(PreLoadManager.TAG, this + "\tregisterReceiver exp:" + e);
             }
         }
 
-        mConsumerThread = new ConsumerThread();
-        mConsumerThread.start();
+        mScheduler = new PreLoadWindowScheduler<>("preload-future-" + preloadBusId, new SchedulerHost());
     }
 
     public void setNetworkAdapter(INetworkAdapter networkAdapter) {
         mNetworkAdapter = networkAdapter;
     }
 
+    /**
+     * 设置预加载窗口策略，默认{@link DefaultPreLoadWindowAdapter}
+     * */
+    public void setWindowAdapter(IPreLoadWindowAdapter windowAdapter) {
+        mScheduler.setWindowAdapter(windowAdapter);
+    }
+
+    /**
+     * 设置预加载字节数策略，默认{@link DefaultPreLoadSizeAdapter}
+     * */
+    public void setSizeAdapter(IPreLoadSizeAdapter sizeAdapter) {
+        mScheduler.setSizeAdapter(sizeAdapter);
+    }
+
+    /**
+     * 播放事件停留的时间，快速滑动时只按停下来的位置调度，默认{@link PreLoadWindowScheduler#DEFAULT_DEBOUNCE_MILLIS}
+     * */
+    public void setDebounceMillis(long debounceMillis) {
+        mScheduler.setDebounceMillis(debounceMillis);
+    }
+
+    /**
+     * 列表滑动状态变化时调用，如RecyclerView/ViewPager2的SCROLL_STATE_IDLE为false，其余为true，
+     * 滑动过程中的播放事件等滑动停止后再调度
+     * */
+    public void onScrollStateChanged(boolean scrolling) {
+        mScheduler.setScrolling(scrolling);
+    }
+
+    /**
+     * @param hints url对应的码率/时长信息，用于计算预加载的字节数，可以为null或只包含部分url
+     * */
+    public void addUrls(List<String> urls, Map<String, PreLoadHint> hints) {
+        mScheduler.addUrls(urls, hints);
+        PreLoadManager.getInstance(mContext).warmUp(urls);
+    }
+
     public void addUrls(List<String> urls) {
-        mLock.lock();
-        try {
-            if (this.mUrls == null) {
-                this.mUrls = new ArrayList<>();
-            }
+        mScheduler.addUrls(urls);
+        PreLoadManager.getInstance(mContext).warmUp(urls);
+    }
 
-            this.mUrls.addAll(urls);
-        } finally {
-            mLock.unlock();
-        }
+    /**
+     * @param hints url对应的码率/时长信息，用于计算预加载的字节数，可以为null或只包含部分url
+     * */
+    public void updateUrls(List<String> urls, Map<String, PreLoadHint> hints) {
+        mScheduler.updateUrls(urls, hints);
+        PreLoadManager.getInstance(mContext).warmUp(urls);
     }
 
     public void updateUrls(List<String> urls) {
-        mLock.lock();
-        try {
-            if (this.mUrls != null) {
-                this.mUrls.clear();
-                this.mUrls.addAll(urls);
-            } else {
-                this.mUrls = urls;
-            }
-        } finally {
-            mLock.unlock();
-        }
+        mScheduler.updateUrls(urls);
+        PreLoadManager.getInstance(mContext).warmUp(urls);
     }
 
-    private boolean hasPause = false;
-
     @OnLifecycleEvent(Lifecycle.Event.ON_PAUSE)
     public void onPause() {
-        /**
-         * 线程进入阻塞
-         * */
-        Log.d(PreLoadManager.TAG, "onPause: ");
+        PreLoadTrace.d(PreLoadManager.TAG, "onPause: ");
 
         if (mNetworkReceiver != null) {
             try {
@@ -140,30 +153,17 @@ public class VideoPreLoadFuture implements LifecycleObserver {
                     mContext.unregisterReceiver(mNetworkReceiver);
                 }
             } catch (Exception e) {
-                Log.e(PreLoadManager.TAG, this + "\tunregisterReceiver exp:" + e);
+                PreLoadTrace.e(PreLoadManager.TAG, this + "\tunregisterReceiver exp:" + e);
             }
         }
 
-        mLock.lock();
-        hasPause = true;
-        try {
-            PreLoadTask task;
-            while ((task = mLoadingTaskDeque.poll()) != null) {
-                task.setStatus(PreLoadTask.STATUS_CANCEL);
-            }
-        } catch (Exception e) {
-            Log.e(PreLoadManager.TAG, "onPause: " + e.getMessage());
-        } finally {
-            mLock.unlock();
-        }
+        mScheduler.pause();
+        PreLoadManager.getInstance(mContext).onFuturePaused(mBusId);
     }
 
     @OnLifecycleEvent(Lifecycle.Event.ON_RESUME)
     public void onResume() {
-        /**
-         * 唤醒进入阻塞的线程
-         * */
-        Log.d(PreLoadManager.TAG, "onResume: ");
+        PreLoadTrace.d(PreLoadManager.TAG, "onResume: ");
 
         if (mNetworkReceiver == null) {
             mNetworkReceiver = new NetworkBroadcastReceiver();
@@ -173,84 +173,22 @@ public class VideoPreLoadFuture implements LifecycleObserver {
             try {
                 mContext.registerReceiver(mNetworkReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
             } catch (Exception e) {
-                Log.e(PreLoadManager.TAG, this + "\tregisterReceiver exp:" + e);
+                PreLoadTrace.e(PreLoadManager.TAG, this + "\tregisterReceiver exp:" + e);
             }
         }
 
-        mLock.lock();
-        try {
-            if (hasPause && !TextUtils.isEmpty(mCurrentUrl)) {
-                toPreLoad = true;
-                hasPause = false;
-                Log.d(PreLoadManager.TAG, "ConsumerThread is notified");
-                empty.signal();
-            }
-        } catch (Exception e) {
-            Log.e(PreLoadManager.TAG, "onResume: " + e.getMessage());
-        } finally {
-            mLock.unlock();
-        }
+        mScheduler.resume();
     }
 
     @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
     public void onDestroy() {
-        Log.d(PreLoadManager.TAG, "onDestroy: ");
+        PreLoadTrace.d(PreLoadManager.TAG, "onDestroy: ");
         PreLoadManager.getInstance(mContext).removeFuture(mBusId);
-        /**
-         * 关闭线程
-         * */
-        if (mConsumerThread != null && !mConsumerThread.isInterrupted()) {
-            mLock.lock();
-            try {
-                mConsumerThread.interrupt();
-                mCurrentIndex = -1;
-                empty.signal();
-                PreLoadTask task;
-                while ((task = mLoadingTaskDeque.poll()) != null) {
-                    task.setStatus(PreLoadTask.STATUS_CANCEL);
-                }
-            } catch (Exception e) {
-                Log.e(PreLoadManager.TAG, "onDestroy: " + e.getMessage());
-            } finally {
-                mLock.unlock();
-            }
-        }
+        mScheduler.destroy();
     }
 
     public void currentPlayUrl(String url) {
-        mHandler.removeMessages(CurrentLoadingHandler.MSG_SET);
-        Message message = Message.obtain();
-        message.what = CurrentLoadingHandler.MSG_SET;
-        message.obj = url;
-        mHandler.sendMessage(message);
-    }
-
-    private void innerCurrentPlayUrl(String url) {
-        mLock.lock();
-        try {
-            if (mUrls == null || mUrls.size() <= 0) {
-                throw new RuntimeException("url list should not be empty");
-            }
-
-            if (!mUrls.contains(url)) {
-                return;
-            }
-
-            mCurrentUrl = url;
-            int currentIndex = mUrls.indexOf(url);
-            if (currentIndex != - 1 && currentIndex != mCurrentIndex) {
-                Log.d(PreLoadManager.TAG, "currentPlayUrl: [url: " + url + ", index: " + currentIndex + "]");
-                mCurrentIndex = currentIndex;
-                toPreLoad = true;
-                // notify
-                Log.d(PreLoadManager.TAG, "ConsumerThread is notified");
-                empty.signal();
-            }
-        } catch (Exception e) {
-            Log.e(PreLoadManager.TAG, "currentPlayUrl: " + e.getMessage());
-        } finally {
-            mLock.unlock();
-        }
+        mScheduler.currentPlayUrl(url);
     }
 
     private boolean isNetWorkConnect() {
@@ -263,139 +201,112 @@ public class VideoPreLoadFuture implements LifecycleObserver {
         return isConnect;
     }
 
-    class ConsumerThread extends Thread {
-
-        @Override
-        public void run() {
-            mLock.lock();
-            try {
-                while (!isInterrupted()) {
-                    if (!isNetWorkConnect() || (!mIsWifi && !mNetworkAdapter.canPreLoadIfNotWifi())) {
-                        Log.d(PreLoadManager.TAG, "ConsumerThread is await for" + (isNetWorkConnect() ? " is not wifi " : " network not connect"));
-                        network.await();
-                    }
-
-                    if (!toPreLoad) {
-                        Log.d(PreLoadManager.TAG, "ConsumerThread is await");
-                        empty.await();
-                    }
-
-                    if (mCurrentIndex == -1) {
-                        continue;
-                    }
-                    /**
-                     * 默认加入队列为
-                     * 【max(mCurrentIndex - 3, 0)， min(mCurrentIndex + 4, mUrls.size()-1 )]
-                     * */
-                    Log.d(PreLoadManager.TAG, "Consumer thread current index is: " + mCurrentIndex);
-                    int firstIndex = Math.max(0, mCurrentIndex - 3);
-                    int lastIndex = Math.min(mCurrentIndex + 4, mUrls.size() - 1);
-                    PreLoadTask preLoadTask = null;
-                    String url;
-                    for (int i = firstIndex; i <= lastIndex; i++) {
-
-                        if (i == mCurrentIndex) {
-                            continue;
-                        }
-
-                        url = mUrls.get(i);
-                        if (TextUtils.isEmpty(url)) {
-                            continue;
-                        }
-                        preLoadTask = PreLoadManager.getInstance(mContext).createTask(mBusId, url, i);
-                        if (!mLoadingTaskDeque.contains(preLoadTask)) {
-                            if (mLoadingTaskDeque.size() >= 16) {
-                                PreLoadTask ingPreLoadTask = mLoadingTaskDeque.pollLast();
-                                ingPreLoadTask.setStatus(PreLoadTask.STATUS_CANCEL);
-                                Log.d(PreLoadManager.TAG, "mLoadingTaskDeque size more than 16, remove index: " + ingPreLoadTask.index);
-                            }
-
-                            Log.d(PreLoadManager.TAG, "Put into mLoadingTaskDeque: " + preLoadTask.url);
-                            mLoadingTaskDeque.addFirst(preLoadTask);
-                            mExecutorService.submit(preLoadTask);
-                        } else {
-                            mLoadingTaskDeque.remove(preLoadTask);
-                            mLoadingTaskDeque.addFirst(preLoadTask);
-                        }
-                    }
-
-                    toPreLoad = false;
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } finally {
-                Log.d(PreLoadManager.TAG, "ConsumerThread is finish");
-                mLock.unlock();
+    /**
+     * 当前播放的视频以及预加载窗口内的缓存不会被{@link com.gibbon.videopreload.cache.CacheEvictor}淘汰
+     * */
+    private void publishProtectedCacheKeys(PreLoadManager preLoadManager, IndexedUrlList urls, int firstIndex, int lastIndex) {
+        Set<String> cacheKeys = new HashSet<>();
+        for (int i = firstIndex; i <= lastIndex; i++) {
+            String url = urls.get(i);
+            if (!TextUtils.isEmpty(url)) {
+                cacheKeys.add(preLoadManager.fileNameGenerator.generate(url));
             }
         }
+        preLoadManager.setProtectedCacheKeys(mBusId, cacheKeys);
     }
 
-    public void removeTask(PreLoadTask task) {
-        mLock.lock();
-        try {
-            boolean flag = mLoadingTaskDeque.remove(task);
-            Log.d(PreLoadManager.TAG, "removeTask " + (flag ? "success" : "fail"));
-        } finally {
-            mLock.unlock();
-        }
+    /**
+     * 正在播放的视频缓冲恢复等链路变为空闲时调用，让调度线程检查是否可以扩大下一个视频的缓冲
+     * */
+    void wakeUp() {
+        mScheduler.wakeUp();
     }
 
-    public class NetworkBroadcastReceiver extends BroadcastReceiver {
+    /**
+     * 任务结束时由下载线程调用，只投递事件，不等待调度
+     * */
+    /**
+     * @param onRemoved 调度线程不再持有任务之后执行
+     * */
+    public void removeTask(PreLoadTask task, Runnable onRemoved) {
+        // 任务结束后会被回收复用，先记下当前的url
+        mScheduler.removeTask(task.url, task, onRemoved);
+    }
+
+    /**
+     * 以下回调都在调度线程上执行
+     * */
+    private class SchedulerHost implements PreLoadWindowScheduler.Host<PreLoadTask> {
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-            NetworkInfo netInfo = cm.getActiveNetworkInfo();
-            boolean isConnect = (netInfo != null && netInfo.isConnected());
-            if (isConnect) {
-                int networkType = netInfo.getType();
-                if (networkType == ConnectivityManager.TYPE_WIFI) {
-                    mLock.lock();
-                    try {
-                        mIsWifi = true;
-                        network.signal();
-                    } finally {
-                        mLock.unlock();
-                    }
-                } else {
-                    mIsWifi = false;
+        public boolean canSchedule() {
+            if (!isNetWorkConnect() || (!mIsWifi && !mNetworkAdapter.canPreLoadIfNotWifi())) {
+                if (PreLoadTrace.isDebug()) {
+                    PreLoadTrace.d(PreLoadManager.TAG, "schedule is pending for" + (isNetWorkConnect() ? " is not wifi " : " network not connect"));
                 }
-            } else {
-                mIsWifi = false;
+                return false;
             }
+            return true;
         }
-    }
 
+        @Override
+        public long getBandwidth() {
+            return PreLoadManager.getInstance(mContext).getBandwidth();
+        }
 
-    private static class CurrentLoadingHandler extends Handler {
+        @Override
+        public void onPlayIndexChanged(String url, int index, PreLoadHint hint) {
+            PreLoadManager.getInstance(mContext).setPlayBytesPerSecond(hint != null ? hint.getBytesPerSecond() : -1);
+        }
 
-        private static final int MSG_SET = 100;
+        @Override
+        public void onWindowChanged(IndexedUrlList urls, int currentIndex, int firstIndex, int lastIndex) {
+            PreLoadManager preLoadManager = PreLoadManager.getInstance(mContext);
+            // 新的播放位置，本次窗口内的任务排在所有busId已排队的任务之前
+            preLoadManager.scheduler.newGeneration();
+            publishProtectedCacheKeys(preLoadManager, urls, firstIndex, lastIndex);
+        }
 
-        private WeakReference<VideoPreLoadFuture> videoPreLoadFutureWeakReference;
+        @Override
+        public PreLoadTask createTask(String url, int index, int distance, long preLoadBytes) {
+            PreLoadManager preLoadManager = PreLoadManager.getInstance(mContext);
+            PreLoadTask preLoadTask = preLoadManager.createTask(mBusId, url, index);
+            preLoadTask.preLoadBytes = preLoadBytes;
+            preLoadManager.submitTask(preLoadTask, distance);
+            return preLoadTask;
+        }
 
-        public CurrentLoadingHandler(VideoPreLoadFuture videoPreLoadFuture) {
-            videoPreLoadFutureWeakReference = new WeakReference<>(videoPreLoadFuture);
+        @Override
+        public void updateTask(PreLoadTask task, int index, int distance, long preLoadBytes) {
+            task.index = index;
+            // 还在排队的任务按新的距离和字节数下载，已经开始下载的任务只在字节数变大（升级层级）时继续下载
+            task.preLoadBytes = preLoadBytes;
+            PreLoadManager.getInstance(mContext).scheduler.reprioritize(task, distance);
         }
 
         @Override
-        public void handleMessage(Message msg) {
+        public void cancelTask(PreLoadTask task) {
+            PreLoadManager.getInstance(mContext).cancelTask(task);
+        }
 
-            VideoPreLoadFuture videoPreLoadFuture = videoPreLoadFutureWeakReference.get();
+        @Override
+        public boolean isLinkIdle() {
+            return PreLoadManager.getInstance(mContext).isLinkIdle(mBusId);
+        }
+    }
 
-            if (videoPreLoadFuture == null) {
-                return;
-            }
+    public class NetworkBroadcastReceiver extends BroadcastReceiver {
 
-            switch (msg.what) {
-                case MSG_SET:
-                    if (msg.obj instanceof String) {
-                        videoPreLoadFuture.innerCurrentPlayUrl((String) msg.obj);
-                    }
-                    break;
-                default:
-                    break;
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo netInfo = cm.getActiveNetworkInfo();
+            boolean isConnect = (netInfo != null && netInfo.isConnected());
+            mIsWifi = isConnect && netInfo.getType() == ConnectivityManager.TYPE_WIFI;
+            if (isConnect) {
+                // 让调度线程重新检查之前因为网络挂起的调度
+                mScheduler.wakeUp();
             }
         }
     }
 }
-
@@ -0,0 +1,51 @@
+package com.gibbon.videopreload.cache;
+
+import android.os.FileObserver;
+
+import java.io.File;
+
+/**
+ * 监听video-cache目录，把AndroidVideoCache自身的写入/重命名/删除同步到{@link CacheIndex}。
+ * 代理写缓存时会一直持有文件，关闭文件（CLOSE_WRITE）时才更新大小，避免频繁的MODIFY事件。
+ *
+ * 需要被强引用持有，否则被回收后会停止监听
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-03
+ */
+public class CacheDirObserver extends FileObserver {
+
+    private static final int EVENTS = CLOSE_WRITE | MOVED_TO | MOVED_FROM | DELETE;
+
+    private final File mCacheDir;
+    private final CacheIndex mCacheIndex;
+
+    public CacheDirObserver(File cacheDir, CacheIndex cacheIndex) {
+        super(cacheDir.getAbsolutePath(), EVENTS);
+        mCacheDir = cacheDir;
+        mCacheIndex = cacheIndex;
+    }
+
+    @Override
+    public void onEvent(int event, String path) {
+        if (path == null) {
+            return;
+        }
+
+        switch (event & EVENTS) {
+            case CLOSE_WRITE:
+            case MOVED_TO:
+                File file = new File(mCacheDir, path);
+                if (file.exists()) {
+                    mCacheIndex.update(path, file.length(), System.currentTimeMillis());
+                }
+                break;
+            case MOVED_FROM:
+            case DELETE:
+                mCacheIndex.remove(path);
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.gibbon.videopreload.cache;
+
+import com.danikula.videocache.file.DiskUsage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 交给AndroidVideoCache的DiskUsage，代理每次打开、写完缓存文件时回调{@link #touch(File)}，
+ * 这里更新{@link CacheIndex}的访问时间并触发{@link CacheEvictor}，代理自带的LRU不再生效。
+ *
+ * 代理可能比{@link com.gibbon.videopreload.PreLoadManager}先创建，绑定之前的回调只更新文件时间，
+ * 索引建立时扫描目录会读到
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-27
+ */
+public class PreLoadDiskUsage implements DiskUsage {
+
+    private volatile CacheIndex mCacheIndex;
+    private volatile CacheEvictor mCacheEvictor;
+
+    public void attach(CacheIndex cacheIndex, CacheEvictor cacheEvictor) {
+        mCacheIndex = cacheIndex;
+        mCacheEvictor = cacheEvictor;
+    }
+
+    @Override
+    public void touch(File file) throws IOException {
+        long now = System.currentTimeMillis();
+        // 与AndroidVideoCache的LruDiskUsage一致，用修改时间记录访问时间，重启后扫描目录时仍然有效
+        file.setLastModified(now);
+
+        CacheIndex cacheIndex = mCacheIndex;
+        CacheEvictor cacheEvictor = mCacheEvictor;
+        if (cacheIndex == null || cacheEvictor == null) {
+            return;
+        }
+
+        if (file.exists()) {
+            cacheIndex.update(file.getName(), file.length(), now);
+        }
+        cacheEvictor.requestTrim();
+    }
+}
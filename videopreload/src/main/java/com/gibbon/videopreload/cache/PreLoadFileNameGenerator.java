@@ -0,0 +1,24 @@
+package com.gibbon.videopreload.cache;
+
+import com.danikula.videocache.file.FileNameGenerator;
+
+/**
+ * 给HttpProxyCacheServer使用的文件名生成器，与预加载共用{@link CacheKeyGenerator}的计算结果，
+ * 生成的文件名与Md5FileNameGenerator一致，已有的缓存文件可以继续使用
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-06
+ */
+public class PreLoadFileNameGenerator implements FileNameGenerator {
+
+    private final CacheKeyGenerator mCacheKeyGenerator;
+
+    public PreLoadFileNameGenerator(CacheKeyGenerator cacheKeyGenerator) {
+        mCacheKeyGenerator = cacheKeyGenerator;
+    }
+
+    @Override
+    public String generate(String url) {
+        return mCacheKeyGenerator.fileName(url);
+    }
+}
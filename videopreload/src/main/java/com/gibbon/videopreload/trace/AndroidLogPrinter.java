@@ -0,0 +1,30 @@
+package com.gibbon.videopreload.trace;
+
+import android.util.Log;
+
+/**
+ * 默认输出到logcat，由{@link com.gibbon.videopreload.PreLoadManager}创建时设置
+ *
+ * @author zhipeng.zhuo
+ * @date 2020-07-20
+ */
+public class AndroidLogPrinter implements PreLoadTrace.Printer {
+
+    @Override
+    public void println(int level, String tag, String msg) {
+        switch (level) {
+            case PreLoadTrace.LEVEL_ERROR:
+                Log.e(tag, msg);
+                break;
+            case PreLoadTrace.LEVEL_INFO:
+                Log.i(tag, msg);
+                break;
+            case PreLoadTrace.LEVEL_DEBUG:
+                Log.d(tag, msg);
+                break;
+            default:
+                Log.v(tag, msg);
+                break;
+        }
+    }
+}
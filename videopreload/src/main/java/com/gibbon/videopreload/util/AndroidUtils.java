@@ -4,12 +4,13 @@ import android.content.Context;
 import android.net.Uri;
 import android.text.TextUtils;
 
-import com.danikula.videocache.file.Md5FileNameGenerator;
+import com.danikula.videocache.file.FileNameGenerator;
 import com.gibbon.videopreload.PlayerEnvironment;
+import com.gibbon.videopreload.cache.CacheFileWriter;
+import com.gibbon.videopreload.cache.CacheKeyGenerator;
+import com.gibbon.videopreload.cache.CacheLookup;
 
 import java.io.File;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 /**
  * @author zhipeng.zhuo
@@ -18,50 +19,24 @@ import java.security.NoSuchAlgorithmException;
 public class AndroidUtils {
 
     public static String textToMD5(String plainText) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            md.update(plainText.getBytes());
-            byte[] b = md.digest();
+        return CacheKeyGenerator.getDefault().md5(plainText);
+    }
 
-            int i;
+    public static final String TEMP_POSTFIX = CacheFileWriter.TEMP_POSTFIX;
 
-            StringBuilder buf = new StringBuilder();
-            for (final byte b1 : b) {
-                i = b1;
-                if (i < 0)
-                    i += 256;
-                if (i < 16)
-                    buf.append("0");
-                buf.append(Integer.toHexString(i));
-            }
-            return buf.toString();
-        } catch (NoSuchAlgorithmException e) {
-            return null;
-        }
+    public static final long DEFAULT_ENOUGH_CACHE_BYTES = CacheLookup.DEFAULT_ENOUGH_CACHE_BYTES;
 
+    public static boolean hasEnoughCache(Context context, FileNameGenerator generator, String url) {
+        return hasEnoughCache(context, generator, url, DEFAULT_ENOUGH_CACHE_BYTES);
     }
 
-    public static final String TEMP_POSTFIX = ".download";
-
-    public static boolean hasEnoughCache(Context context, Md5FileNameGenerator generator, String url) {
+    /**
+     * @param enoughBytes 未下载完成的临时文件至少需要的字节数
+     * */
+    public static boolean hasEnoughCache(Context context, FileNameGenerator generator, String url, long enoughBytes) {
         try {
             File cacheRoot = StorageUtils.getIndividualCacheDirectory(context);
-            String path = cacheRoot.getAbsolutePath();
-
-            String name = generator.generate(url);
-            if(TextUtils.isEmpty(name)){
-                return false;
-            }
-            File file = new File(path, name);
-            if (file.exists() && file.canRead() && file.length() > 1024) {
-                return true;
-            }
-
-            file = new File(path, name + TEMP_POSTFIX);
-
-            if (file.exists() && file.canRead() && file.length() > 102400) {
-                return true;
-            }
+            return CacheLookup.hasEnoughCacheOnDisk(cacheRoot, generator.generate(url), enoughBytes);
         } catch (Throwable e) {
         }
         return false;